@@ -0,0 +1,87 @@
+package com.ibotta.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibotta.main.repository.AnagramKeys;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Key derivation over the words of dictionary.txt, the stream based key is the implementation
+ * Dictionary.getDictionaryKey used to have. Run with -prof gc to compare the garbage per key.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnagramKeysBenchmark {
+
+	private String[] words;
+
+	//every word reversed, an anagram comparison has to look at all the letters
+	private String[] reversed;
+
+	private int next;
+
+	@Setup
+	public void setup() throws IOException {
+		List<String> list = new ArrayList<String>();
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(
+				this.getClass().getResourceAsStream("/dictionary.txt")))) {
+			String word;
+			while ((word = br.readLine()) != null) {
+				list.add(word);
+			}
+		}
+		words = list.toArray(new String[list.size()]);
+		reversed = list.stream().
+				map(w->new StringBuilder(w).reverse().toString()).
+				toArray(n -> new String[n]);
+	}
+
+	private String nextWord(){
+		if(++next==words.length) next = 0;
+		return words[next];
+	}
+
+	@Benchmark
+	public String streamKey(){
+		return nextWord().chars().sorted().
+		collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append).
+		toString();
+	}
+
+	@Benchmark
+	public String sortedKey(){
+		return AnagramKeys.sortedKey(nextWord());
+	}
+
+	@Benchmark
+	public long signature(){
+		return AnagramKeys.signature(nextWord());
+	}
+
+	@Benchmark
+	public boolean sameLetters(){
+		String word = nextWord();
+		return AnagramKeys.sameLetters(word, reversed[next]);
+	}
+}
@@ -0,0 +1,147 @@
+package com.ibotta.benchmark;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.ibotta.main.model.AnagramModel;
+import com.ibotta.main.model.NearAnagramModel;
+import com.ibotta.main.model.PhraseModel;
+import com.ibotta.main.model.ResultModel;
+import com.ibotta.main.model.WordModel;
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.Dictionary;
+import com.ibotta.main.service.AnagramService;
+import com.ibotta.main.service.IAnagaramService;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * AnagramService calls behind the REST endpoints, without the HTTP layer. The service and
+ * the dictionary are wired by Spring the same way the application does it, the store mode
+ * is passed as the dictionary.store property.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnagramServiceBenchmark {
+
+	@Param({"hash", "sorted", "versioned"})
+	private String store;
+
+	private AnnotationConfigApplicationContext context;
+
+	private IAnagaramService service;
+
+	private String[][] groups;
+
+	@Setup
+	public void setup(){
+		System.setProperty("dictionary.store", store);
+		context = new AnnotationConfigApplicationContext(Dictionary.class, AnagramService.class);
+		service = context.getBean(IAnagaramService.class);
+		//the anagram groups, the only words the service has anything to say about
+		groups = context.getBean(Dictionary.class).getAnagramSets(2).stream().
+				map(AnagramGroup::toArray).
+				toArray(n -> new String[n][]);
+	}
+
+	@TearDown
+	public void tearDown(){
+		context.close();
+	}
+
+	private String[] randomGroup(){
+		return groups[ThreadLocalRandom.current().nextInt(groups.length)];
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public List<AnagramModel> getAnagramsSize5(){
+		return service.getAnagrams(Optional.of(5));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public List<AnagramModel> getAnagrams(){
+		return service.getAnagrams(Optional.empty());
+	}
+
+	@Benchmark
+	public AnagramModel getAnagramsByWord(){
+		return service.getAnagramsByWord(randomGroup()[0], Optional.empty(), Optional.empty());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public NearAnagramModel getNearAnagrams(){
+		return service.getNearAnagrams(randomGroup()[0], Optional.empty(), Optional.empty());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public NearAnagramModel getWildcardAnagrams(){
+		return service.getNearAnagrams("c??t", Optional.empty(), Optional.empty());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public PhraseModel getPhraseAnagrams(){
+		return service.getPhraseAnagrams("dirty room", 3, 100);
+	}
+
+	@Benchmark
+	public ResultModel countOfWordsInDictionary(){
+		return service.countOfWordsInDictionary();
+	}
+
+	@Benchmark
+	public ResultModel maxWordLength(){
+		return service.maxWordLength();
+	}
+
+	@Benchmark
+	public ResultModel minWordLength(){
+		return service.minWordLength();
+	}
+
+	@Benchmark
+	public ResultModel avgWordLength(){
+		return service.avgWordLength();
+	}
+
+	@Benchmark
+	public ResultModel medianWordLength(){
+		return service.medianWordLength();
+	}
+
+	@Benchmark
+	public AnagramModel getMostAnagrams(){
+		return service.getMostAnagrams();
+	}
+
+	@Benchmark
+	public ResultModel checkIfAllWordsAreInOneAnagramSet(){
+		WordModel model = new WordModel();
+		model.setWords(randomGroup());
+		return service.checkIfAllWordsAreInOneAnagramSet(model);
+	}
+}
@@ -0,0 +1,152 @@
+package com.ibotta.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.AnagramStore;
+import com.ibotta.main.repository.BatchResult;
+import com.ibotta.main.repository.Dictionary;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Dictionary operations on the bundled dictionary.txt for every store mode. The state is
+ * shared, so the same benchmarks run concurrently with -t N (or -PjmhThreads=N).
+ *
+ * Writes are measured in pairs that leave the store as it was: every thread adds reversed
+ * dictionary words of its own (they join the group of the original word) and deletes them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryBenchmark {
+
+	private static final int BATCH = 1000;
+
+	@Param({"HASH", "SORTED", "VERSIONED", "OFFHEAP"})
+	private AnagramStore.Mode mode;
+
+	//false positive rate of the signature filter, 0 looks every word up in the store
+	@Param({"0", "0.01"})
+	private double filterFpp;
+
+	private Dictionary dictionary;
+
+	private String[] words;
+
+	//anagrams of dictionary words that are not in the dictionary
+	private String[] reversed;
+
+	//words with letters no dictionary word has
+	private String[] missing;
+
+	private final AtomicInteger threads = new AtomicInteger();
+
+	@Setup
+	public void setup(){
+		dictionary = new Dictionary(mode, filterFpp);
+		dictionary.init();
+		Set<String> all = dictionary.getAnagramGroups().
+				flatMap(AnagramGroup::stream).
+				collect(Collectors.toSet());
+		words = all.toArray(new String[all.size()]);
+		reversed = all.stream().
+				map(w->new StringBuilder(w).reverse().toString()).
+				filter(w->!all.contains(w)).
+				toArray(n -> new String[n]);
+		missing = all.stream().
+				map(w->w+"qqxj").
+				toArray(n -> new String[n]);
+	}
+
+	/**
+	 * Words of a single thread, the threads walk disjoint slices
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		private static final int SLICES = 64;
+
+		private int next;
+
+		@Setup
+		public void setup(DictionaryBenchmark benchmark){
+			next = benchmark.threads.getAndIncrement()%SLICES;
+		}
+
+		String next(String[] words){
+			next += SLICES;
+			if(next>=words.length) next %= SLICES;
+			return words[next];
+		}
+
+		List<String> next(String[] words, int count){
+			String[] batch = new String[count];
+			for(int i=0; i<count; i++){
+				batch[i] = next(words);
+			}
+			return Arrays.asList(batch);
+		}
+	}
+
+	@Benchmark
+	public AnagramGroup getAnagramSetHit(Cursor cursor){
+		return dictionary.getAnagramSet(cursor.next(words));
+	}
+
+	@Benchmark
+	public AnagramGroup getAnagramSetMiss(Cursor cursor){
+		return dictionary.getAnagramSet(cursor.next(missing));
+	}
+
+	@Benchmark
+	public boolean addAndDeleteWord(Cursor cursor){
+		String word = cursor.next(reversed);
+		dictionary.addWords(word);
+		return dictionary.deleteWord(word);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void addBatchAndDeleteWords(Cursor cursor, Blackhole blackhole){
+		List<String> batch = cursor.next(reversed, BATCH);
+		BatchResult result = dictionary.addBatch(batch);
+		blackhole.consume(result);
+		for(String word: batch){
+			blackhole.consume(dictionary.deleteWord(word));
+		}
+	}
+
+	@Benchmark
+	public boolean deleteWordMiss(Cursor cursor){
+		return dictionary.deleteWord(cursor.next(missing));
+	}
+
+	@Benchmark
+	public boolean checkIfAllWordsAreInOneAnagramSet(Cursor cursor){
+		String word = cursor.next(words);
+		return dictionary.checkIfAllWordsAreInOneAnagramSet(word, new StringBuilder(word).reverse().toString());
+	}
+}
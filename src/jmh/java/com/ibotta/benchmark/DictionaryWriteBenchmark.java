@@ -0,0 +1,118 @@
+package com.ibotta.benchmark;
+
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.AnagramStore;
+import com.ibotta.main.repository.Dictionary;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Mixed read/write load on the bundled dictionary. Every writer adds and deletes reversed
+ * dictionary words of its own, so the groups are shared but the store stays the same size.
+ * Writer threads are scaled per run: "DictionaryWriteBenchmark.mixed -tg 1,4" for one reader
+ * and 4 writers, "DictionaryWriteBenchmark.writeOnly -t 4" for 4 writers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryWriteBenchmark {
+
+	@Param({"HASH", "SORTED", "VERSIONED", "OFFHEAP"})
+	private AnagramStore.Mode mode;
+
+	private Dictionary dictionary;
+
+	private String[] words;
+
+	private String[] reversed;
+
+	private final AtomicInteger writers = new AtomicInteger();
+
+	@Setup
+	public void setup(){
+		dictionary = new Dictionary(mode);
+		dictionary.init();
+		Set<String> list = dictionary.getAnagramGroups().
+				flatMap(AnagramGroup::stream).
+				collect(Collectors.toSet());
+		words = list.toArray(new String[list.size()]);
+		//a reversed word joins the group of the word, palindromes and the like are already there
+		reversed = list.stream().
+				map(w->new StringBuilder(w).reverse().toString()).
+				filter(w->!list.contains(w)).
+				toArray(n -> new String[n]);
+	}
+
+	@State(Scope.Thread)
+	public static class Writer {
+
+		private int next;
+
+		private int step;
+
+		@Setup
+		public void setup(DictionaryWriteBenchmark benchmark){
+			//writers walk disjoint slices of the words
+			next = benchmark.writers.getAndIncrement();
+			step = 64;
+		}
+
+		String nextWord(String[] words){
+			next += step;
+			if(next>=words.length) next %= step;
+			return words[next];
+		}
+	}
+
+	private String randomWord(){
+		return words[ThreadLocalRandom.current().nextInt(words.length)];
+	}
+
+	private boolean write(Writer writer){
+		String word = writer.nextWord(reversed);
+		dictionary.addWords(word);
+		return dictionary.deleteWord(word);
+	}
+
+	@Benchmark
+	public boolean writeOnly(Writer writer){
+		return write(writer);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public AnagramGroup read(){
+		return dictionary.getAnagramSet(randomWord());
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public boolean mixedWrite(Writer writer){
+		return write(writer);
+	}
+}
@@ -0,0 +1,135 @@
+package com.ibotta.benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.AnagramStore;
+import com.ibotta.main.repository.Dictionary;
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * GC pauses of a big dictionary for every store mode, run with ./gradlew gcReport. The bundled
+ * dictionary.txt is grown scale times, every word is added again with letter suffixes, so the
+ * groups are as many times more. Then a lookup workload runs for a few seconds and keeps a
+ * window of its results alive, so some of them are promoted like the responses of a server.
+ *
+ * The report is the live heap, the direct buffers, the average full collection and the
+ * collections of the workload, their pauses are taken from the GC notifications.
+ */
+public class GcReport {
+
+	private static final int WORKLOAD_SECONDS = 5;
+
+	private static final int WINDOW = 1 << 16;
+
+	private static final List<long[]> pauses = new CopyOnWriteArrayList<long[]>();
+
+	/**
+	 * @param args scale and then the store modes, 10 and all the modes by default
+	 */
+	public static void main(String[] args){
+		int scale = args.length>0?Integer.parseInt(args[0]):10;
+		AnagramStore.Mode[] modes = args.length>1?Stream.of(args).skip(1).map(AnagramStore.Mode::valueOf).toArray(n -> new AnagramStore.Mode[n]):AnagramStore.Mode.values();
+		NotificationListener listener = (notification, handback)->{
+			if(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())){
+				GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData)notification.getUserData());
+				pauses.add(new long[]{info.getGcAction().contains("major")?1:0, info.getGcInfo().getDuration()});
+			}
+		};
+		for(GarbageCollectorMXBean collector: ManagementFactory.getGarbageCollectorMXBeans()){
+			((NotificationEmitter)collector).addNotificationListener(listener, null, null);
+		}
+		System.out.println(String.format("%-10s %10s %10s %10s %10s %8s %8s %8s %8s", "mode", "words", "heap", "off-heap", "full gc", "minor", "avg ms", "max ms", "major"));
+		for(AnagramStore.Mode mode: modes){
+			report(mode, scale);
+		}
+	}
+
+	private static void report(AnagramStore.Mode mode, int scale){
+		Dictionary dictionary = new Dictionary(mode);
+		dictionary.init();
+		List<String> words = dictionary.getAnagramGroups().flatMap(AnagramGroup::stream).collect(Collectors.toList());
+		for(int k=1; k<scale; k++){
+			String suffix = suffix(k);
+			List<String> batch = new ArrayList<String>(words.size());
+			for(String word: words){
+				batch.add(word+suffix);
+			}
+			dictionary.addBatch(batch);
+		}
+		long heap = used();
+		long start = System.nanoTime();
+		for(int i=0; i<3; i++){
+			System.gc();
+		}
+		long fullGc = (System.nanoTime()-start)/3;
+		pauses.clear();
+		Random random = new Random(1);
+		Object[] window = new Object[WINDOW];
+		long end = System.nanoTime()+WORKLOAD_SECONDS*1_000_000_000L;
+		for(int i=0; System.nanoTime()<end; i++){
+			String word = words.get(random.nextInt(words.size()))+suffix(random.nextInt(scale+1));
+			AnagramGroup group = dictionary.getAnagramSet(word);
+			window[i&WINDOW-1] = group!=null?group.toArray():word;
+		}
+		long minor = 0, major = 0, sum = 0, max = 0;
+		for(long[] pause: pauses){
+			if(pause[0]==1){
+				major++;
+			}else{
+				minor++;
+			}
+			sum += pause[1];
+			max = Math.max(max, pause[1]);
+		}
+		System.out.println(String.format("%-10s %10d %10s %10s %7d ms %8d %8.1f %8d %8d", mode, dictionary.getStatistics().getWordCount(),
+				mb(heap), mb(dictionary.getOffHeapMemory()), fullGc/1_000_000, minor, pauses.isEmpty()?0:(double)sum/pauses.size(), max, major));
+	}
+
+	//letters of k in base 26, no suffix for 0
+	private static String suffix(int k){
+		StringBuilder suffix = new StringBuilder();
+		for(; k>0; k/=26){
+			suffix.append((char)('a'+k%26));
+		}
+		return suffix.toString();
+	}
+
+	private static String mb(long bytes){
+		return String.format("%.0f MB", bytes/(1024.0*1024));
+	}
+
+	/**
+	 * Getting used heap once the word index has merged the added words on the common pool and
+	 * full collections no longer free anything
+	 */
+	private static long used(){
+		ForkJoinPool.commonPool().awaitQuiescence(1, TimeUnit.MINUTES);
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for(int i=0; i<10; i++){
+			System.gc();
+			System.runFinalization();
+			System.gc();
+			long current = runtime.totalMemory()-runtime.freeMemory();
+			if(current>=used) return current;
+			used = current;
+		}
+		return used;
+	}
+}
@@ -0,0 +1,58 @@
+package com.ibotta.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.Dictionary;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * GET /anagrams?size=N lookup on the bundled dictionary: the full scan of the store
+ * that AnagramService.getAnagrams used to do against the group size index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupSizeIndexBenchmark {
+
+	@Param({"2", "5", "8"})
+	private int size;
+
+	private Dictionary dictionary;
+
+	@Setup
+	public void setup(){
+		dictionary = new Dictionary();
+		dictionary.init();
+	}
+
+	@Benchmark
+	public List<AnagramGroup> scan(){
+		return dictionary.getAnagramGroups().
+				filter(e->e.size()>=size).
+				collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public List<AnagramGroup> index(){
+		return dictionary.getAnagramSets(size);
+	}
+}
@@ -0,0 +1,72 @@
+package com.ibotta.benchmark;
+
+import java.util.stream.Stream;
+
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.AnagramStore;
+import com.ibotta.main.repository.Dictionary;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Retained heap of the bundled dictionary.txt for every store mode, run with ./gradlew heapReport.
+ * Used heap is read after full collections until it settles, so the numbers are retained
+ * sizes, not allocation: the whole dictionary with its indexes, the anagram groups alone
+ * (packed words, no store and no index) and, for comparison, the same words held as a String
+ * each with a String array per group.
+ */
+public class HeapReport {
+
+	public static void main(String[] args){
+		AnagramStore.Mode[] modes = args.length>0?Stream.of(args).map(AnagramStore.Mode::valueOf).toArray(n -> new AnagramStore.Mode[n]):AnagramStore.Mode.values();
+		//the first load also leaves the logging and the static tables of the classes behind
+		new Dictionary(modes[0]).init();
+		System.out.println(String.format("%-10s %10s %10s %12s %12s %12s %12s %12s", "mode", "words", "groups", "dictionary", "word index", "estimated", "groups", "as strings"));
+		for(AnagramStore.Mode mode: modes){
+			report(mode);
+		}
+	}
+
+	private static void report(AnagramStore.Mode mode){
+		long base = used();
+		Dictionary dictionary = new Dictionary(mode);
+		dictionary.init();
+		long total = used()-base;
+		long words = dictionary.getStatistics().getWordCount();
+		long estimated = dictionary.getEstimatedMemory();
+		long index = dictionary.getWordIndex().getMemory();
+		AnagramGroup[] groups = dictionary.getAnagramGroups().toArray(n -> new AnagramGroup[n]);
+		dictionary = null;
+		long packed = used()-base;
+		String[][] strings = new String[groups.length][];
+		for(int i=0; i<groups.length; i++){
+			strings[i] = groups[i].toArray();
+		}
+		long unpacked = used()-base-packed;
+		System.out.println(String.format("%-10s %10d %10d %12s %12s %12s %12s %12s", mode, words, groups.length,
+				mb(total), mb(index), mb(estimated), mb(packed), mb(unpacked)));
+		//kept reachable until measured
+		if(strings.length!=groups.length) throw new IllegalStateException();
+	}
+
+	private static String mb(long bytes){
+		return String.format("%.1f MB", bytes/(1024.0*1024));
+	}
+
+	/**
+	 * Getting used heap once full collections and finalization no longer free anything
+	 */
+	private static long used(){
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for(int i=0; i<10; i++){
+			System.gc();
+			System.runFinalization();
+			System.gc();
+			long current = runtime.totalMemory()-runtime.freeMemory();
+			if(current>=used) return current;
+			used = current;
+		}
+		return used;
+	}
+}
@@ -0,0 +1,97 @@
+package com.ibotta.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.Dictionary;
+import com.ibotta.main.repository.LetterIndex;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * GET /anagrams/{letters}/contained lookup on the bundled dictionary: the letter count
+ * columns of the LetterIndex against a scan that counts the letters of every group.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LetterIndexBenchmark {
+
+	//a Scrabble rack, a long rack of common letters, a rack with rare letters
+	@Param({"retains", "qwertyuiopasdfghjkl", "jqxzkvb"})
+	private String letters;
+
+	private Dictionary dictionary;
+
+	private LetterIndex index;
+
+	private AnagramGroup[] groups;
+
+	private String[] samples;
+
+	@Setup
+	public void setup(){
+		dictionary = new Dictionary();
+		dictionary.init();
+		index = dictionary.getLetterIndex();
+		List<AnagramGroup> list = new ArrayList<AnagramGroup>();
+		dictionary.getAnagramGroups().forEach(list::add);
+		groups = list.toArray(new AnagramGroup[list.size()]);
+		samples = list.stream().map(g->g.iterator().next()).toArray(n -> new String[n]);
+	}
+
+	@Benchmark
+	public List<AnagramGroup> index(){
+		return index.getContained(letters);
+	}
+
+	@Benchmark
+	public List<AnagramGroup> scan(){
+		int[] rack = new int[Character.MAX_VALUE+1];
+		for(int i=0; i<letters.length(); i++){
+			rack[letters.charAt(i)]++;
+		}
+		int[] counts = new int[Character.MAX_VALUE+1];
+		List<AnagramGroup> list = new ArrayList<AnagramGroup>();
+		for(int i=0; i<samples.length; i++){
+			String word = samples[i];
+			if(word.length()>letters.length()) continue;
+			boolean fits = true;
+			int j = 0;
+			for(; j<word.length()&&fits; j++){
+				char c = word.charAt(j);
+				fits = ++counts[c]<=rack[c];
+			}
+			for(int k=0; k<j; k++){
+				counts[word.charAt(k)] = 0;
+			}
+			if(fits) list.add(groups[i]);
+		}
+		return list;
+	}
+
+	@Benchmark
+	public List<AnagramGroup> afterWrite(){
+		//the mutations are kept aside by the index, it is not built again
+		dictionary.addWords("zzzzzzzz");
+		dictionary.deleteWord("zzzzzzzz");
+		return dictionary.getLetterIndex().getContained(letters);
+	}
+}
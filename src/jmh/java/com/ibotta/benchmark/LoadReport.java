@@ -0,0 +1,156 @@
+package com.ibotta.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ibotta.main.DictionaryApplication;
+
+import ch.qos.logback.classic.Level;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.ipc.netty.http.client.HttpClient;
+import reactor.ipc.netty.resources.PoolResources;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Throughput and latency of GET /anagrams/{word} in the servlet and the reactive serving
+ * modes, run with ./gradlew loadReport. Every mode is started as a server process, then a
+ * closed loop client keeps as many requests in flight as there are connections, every
+ * connection sends its next request once the previous response has arrived. A bursty client
+ * is many connections with a request each, so the counts go well past the Tomcat worker threads.
+ *
+ * The client runs on the same machine, so the throughput is the one of the server and the
+ * client together, compare the modes with each other only.
+ */
+public class LoadReport {
+
+	private static final int PORT = 3100;
+
+	private static final int WARMUP_SECONDS = 5;
+
+	/**
+	 * @param args connection counts, seconds per count and the modes, 100,1000,4000 10 servlet,reactive by default
+	 */
+	public static void main(String[] args) throws Exception {
+		int[] connections = Stream.of((args.length>0?args[0]:"100,1000,4000").split(",")).mapToInt(Integer::parseInt).toArray();
+		int seconds = args.length>1?Integer.parseInt(args[1]):10;
+		String[] modes = (args.length>2?args[2]:"servlet,reactive").split(",");
+		//the client logs every connection at the default level
+		((ch.qos.logback.classic.Logger)LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+		List<String> words = words();
+		System.out.println(String.format("%-9s %8s %10s %9s %9s %9s %9s %8s", "mode", "conns", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors"));
+		for(String mode: modes){
+			Process server = start(mode);
+			try {
+				run(mode, 100, WARMUP_SECONDS, words, false);
+				for(int n: connections){
+					run(mode, n, seconds, words, true);
+				}
+			} finally {
+				server.destroy();
+				server.waitFor(30, TimeUnit.SECONDS);
+			}
+		}
+	}
+
+	private static void run(String mode, int connections, int seconds, List<String> words, boolean report){
+		PoolResources pool = PoolResources.fixed("load", connections, TimeUnit.MINUTES.toMillis(1));
+		HttpClient client = HttpClient.create(options->options.host("localhost").port(PORT).poolResources(pool));
+		Histogram latency = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+		LongAdder errors = new LongAdder();
+		long start = System.nanoTime();
+		Flux.range(0, Integer.MAX_VALUE).
+			flatMap(i->request(client, words, latency, errors), connections, 1).
+			take(Duration.ofSeconds(seconds)).
+			blockLast();
+		long elapsed = System.nanoTime()-start;
+		pool.dispose();
+		if(report){
+			System.out.println(String.format("%-9s %8d %10.0f %9.2f %9.2f %9.2f %9.2f %8d", mode, connections,
+					latency.getTotalCount()*1e9/elapsed, ms(latency.getValueAtPercentile(50)), ms(latency.getValueAtPercentile(99)),
+					ms(latency.getValueAtPercentile(99.9)), ms(latency.getMaxValue()), errors.sum()));
+		}
+	}
+
+	private static Mono<Void> request(HttpClient client, List<String> words, Histogram latency, LongAdder errors){
+		String word = words.get(ThreadLocalRandom.current().nextInt(words.size()));
+		return Mono.defer(()->{
+			long start = System.nanoTime();
+			return client.get("/anagrams/" + encode(word)).
+				flatMap(response->response.receive().then()).
+				doOnSuccess(v->latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime()-start), latency.getHighestTrackableValue())));
+		}).onErrorResume(e->{
+			errors.increment();
+			return Mono.empty();
+		});
+	}
+
+	private static double ms(long micros){
+		return micros/1000.0;
+	}
+
+	private static String encode(String word){
+		try {
+			return URLEncoder.encode(word, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static List<String> words() throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(LoadReport.class.getResourceAsStream("/dictionary.txt"), StandardCharsets.UTF_8))) {
+			return reader.lines().filter(word->!word.isEmpty()).collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Starting the application with the class path of the report, the servlet mode is the default profile
+	 */
+	private static Process start(String mode) throws Exception {
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-Xmx1g");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(DictionaryApplication.class.getName());
+		command.add("--server.port=" + PORT);
+		command.add("--logging.level.root=WARN");
+		if(!mode.equals("servlet")){
+			command.add("--spring.profiles.active=" + mode);
+		}
+		Process server = new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+		long deadline = System.nanoTime()+TimeUnit.MINUTES.toNanos(2);
+		while(System.nanoTime()<deadline){
+			try {
+				HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + PORT + "/words/count").openConnection();
+				if(connection.getResponseCode()==200) return server;
+			} catch (IOException e) {
+				Thread.sleep(500);
+			}
+		}
+		server.destroy();
+		throw new IllegalStateException("The " + mode + " server did not start");
+	}
+}
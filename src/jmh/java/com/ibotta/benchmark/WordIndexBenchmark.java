@@ -0,0 +1,66 @@
+package com.ibotta.benchmark;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibotta.main.repository.Dictionary;
+import com.ibotta.main.repository.WordIndex;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * GET /words lookup on the bundled dictionary, the first 1000 words: the word tries against
+ * a scan of all the words with the same pattern as a regular expression.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WordIndexBenchmark {
+
+	private static final int LIMIT = 1000;
+
+	//a prefix, a suffix (the reversed trie), single char wildcards, wildcards all over
+	@Param({"re*", "*ness", "c?t*", "*a*e*i*o*u*"})
+	private String pattern;
+
+	private WordIndex index;
+
+	private String[] words;
+
+	private Pattern regex;
+
+	@Setup
+	public void setup(){
+		Dictionary dictionary = new Dictionary();
+		dictionary.init();
+		index = dictionary.getWordIndex();
+		words = dictionary.getAnagramGroups().flatMap(g->g.stream()).sorted().toArray(n -> new String[n]);
+		regex = Pattern.compile(pattern.replace("?", ".").replace("*", ".*"));
+	}
+
+	@Benchmark
+	public long index(){
+		return index.match(pattern).limit(LIMIT).count();
+	}
+
+	@Benchmark
+	public long scan(){
+		return Arrays.stream(words).filter(w->regex.matcher(w).matches()).limit(LIMIT).count();
+	}
+}
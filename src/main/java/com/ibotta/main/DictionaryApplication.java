@@ -2,14 +2,26 @@ package com.ibotta.main;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import com.ibotta.main.controllers.DictionaryRoutes;
 
 import springfox.documentation.swagger2.annotations.EnableSwagger2;
 
 @SpringBootApplication
-@EnableSwagger2
 public class DictionaryApplication {
 	public static void main(String[] args) {
 		SpringApplication app = new SpringApplication(DictionaryApplication.class);;
         app.run(args);
 	}
+	
+	/**
+	 * Swagger documents the Spring MVC controllers, there are none in the reactive mode
+	 */
+	@Configuration
+	@Profile("!" + DictionaryRoutes.PROFILE)
+	@EnableSwagger2
+	static class Swagger {
+	}
 }
@@ -1,10 +1,25 @@
 package com.ibotta.main.controllers;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -13,9 +28,22 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.ibotta.main.model.AnagramModel;
+import com.ibotta.main.model.AnagramPageModel;
+import com.ibotta.main.model.FeedModel;
+import com.ibotta.main.model.IngestModel;
+import com.ibotta.main.model.NearAnagramModel;
+import com.ibotta.main.model.PhraseModel;
+import com.ibotta.main.model.ReplicaModel;
 import com.ibotta.main.model.ResultModel;
 import com.ibotta.main.model.WordModel;
+import com.ibotta.main.service.AnagramResponseCache;
+import com.ibotta.main.service.DictionaryReplication;
 import com.ibotta.main.service.IAnagaramService;
 
 import io.swagger.annotations.Api;
@@ -26,36 +54,245 @@ import io.swagger.annotations.ApiResponses;
 /**
  * @author Alexandr Savenkov
  * 
+ * Servlet serving mode, the default one. {@link DictionaryRoutes} serves the same routes with the reactive profile.
+ * 
  * @see <br><a href="http://localhost:3000/swagger-ui.html">swagger ui</a>
  */
 @RestController
+@Profile("!" + DictionaryRoutes.PROFILE)
 @Api
 public class DictionaryAPI {
 	
+	public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+	
+	public static final String NDJSON = "application/x-ndjson";
+	
+	//limits of the requests, the same in both serving modes, see DictionaryRoutes
+	public static final int MAX_PAGE_SIZE = 10000;
+	
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	
+	public static final int MAX_BATCH_SIZE = 100000;
+	
+	public static final int MAX_LOOKUP_WORDS = 100000;
+	
+	public static final int DEFAULT_PHRASE_WORDS = 3;
+	
+	public static final int MAX_PHRASE_WORDS = 8;
+	
+	public static final int DEFAULT_PHRASE_LIMIT = 100;
+	
+	public static final int MAX_PHRASE_LIMIT = 10000;
+	
+	public static final int DEFAULT_WORD_LIMIT = 1000;
+	
+	public static final int MAX_WORD_LIMIT = 100000;
+	
+	public static final int DEFAULT_FEED_EVENTS = 1000;
+	
+	public static final int MAX_FEED_EVENTS = 10000;
+	
 	@Autowired
 	private IAnagaramService service;
+	
+	@Autowired
+	private ObjectMapper mapper;
+	
+	@Autowired
+	private AnagramResponseCache cache;
+	
+	@Autowired
+	private DictionaryReplication replication;
 
-	@ApiOperation(value = "get all anagrams from the data store, size is optional", response = List.class)
+	@ApiOperation(value = "get all anagrams from the data store, size is optional. "
+			+ "Anagrams are streamed in the order of their sorted letters, pass pageSize to get them page by page, "
+			+ "the next page cursor is returned in the " + NEXT_CURSOR_HEADER + " header", response = List.class)
 	@ApiResponses(value = { 
 			@ApiResponse(code = 200, message = "Anagrams retrieved. Note that a word is not considered to be its own anagram"),
+			@ApiResponse(code = 400, message = "Bad request"),
 			@ApiResponse(code = 500, message = "Internal server error"),
 			@ApiResponse(code = 404, message = "Anagrams not found") })
 	@RequestMapping(value = "/anagrams", method = RequestMethod.GET, produces = "application/json")
-	public ResponseEntity<List<AnagramModel>> getAnagrams(@RequestParam(value = "size") Optional<Integer> size) {
-		return new ResponseEntity<List<AnagramModel>>(service.getAnagrams(size), HttpStatus.OK);
+	public void getAnagrams(@RequestParam(value = "size") Optional<Integer> size,
+			@RequestParam(value = "cursor") Optional<String> cursor,
+			@RequestParam(value = "pageSize") Optional<Integer> pageSize,
+			HttpServletResponse response) throws IOException {
+		Stream<AnagramModel> anagrams;
+		if(pageSize.isPresent()||cursor.isPresent()){
+			int limit = Math.min(pageSize.orElse(MAX_PAGE_SIZE), MAX_PAGE_SIZE);
+			if(limit<1){
+				response.sendError(HttpStatus.BAD_REQUEST.value());
+				return;
+			}
+			AnagramPageModel page;
+			try {
+				page = service.getAnagramsPage(size, cursor, limit);
+			} catch (IllegalArgumentException e) {
+				response.sendError(HttpStatus.BAD_REQUEST.value(), "Malformed cursor");
+				return;
+			}
+			if(page.getCursor()!=null){
+				response.setHeader(NEXT_CURSOR_HEADER, page.getCursor());
+			}
+			anagrams = page.getAnagrams().stream();
+		}else{
+			anagrams = service.streamAnagrams(size);
+		}
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		//groups are written one by one, the whole list is never built in memory
+		ObjectWriter writer = mapper.writerFor(AnagramModel.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		try (JsonGenerator generator = mapper.getFactory().createGenerator(response.getOutputStream())) {
+			generator.writeStartArray();
+			Iterator<AnagramModel> iterator = anagrams.iterator();
+			while(iterator.hasNext()){
+				writer.writeValue(generator, iterator.next());
+			}
+			generator.writeEndArray();
+		}
 	}
 	
-	@ApiOperation(value = "get anagrams by word from the data store, limit is optional", response = AnagramModel.class)
+	@ApiOperation(value = "get anagrams by word from the data store, limit is optional. "
+			+ "With fuzzy=true the words one letter added, dropped or substituted away are returned as near anagrams "
+			+ "and ? matches any letter a-z (up to 2 of them), the response is a NearAnagramModel", response = AnagramModel.class)
 	@ApiResponses(value = { 
 			@ApiResponse(code = 200, message = "Anagrams by word retrieved. Note that a word is not considered to be its own anagram"),
 			@ApiResponse(code = 500, message = "Internal server error"),
 			@ApiResponse(code = 400, message = "Bad request"),
 			@ApiResponse(code = 404, message = "Anagrams by word not found") })
 	@RequestMapping(value = "/anagrams/{word}", method = RequestMethod.GET, produces = "application/json")
-	public ResponseEntity<AnagramModel> getAnagramsByWord(@PathVariable String word, 
+	public ResponseEntity<byte[]> getAnagramsByWord(@PathVariable String word, 
+			@RequestParam(value = "limit") Optional<Long> limit,
+			@RequestParam(value = "self") Optional<Boolean> self,
+			@RequestParam(value = "fuzzy") Optional<Boolean> fuzzy) throws IOException {
+		if(fuzzy.isPresent()&&fuzzy.get()){
+			//depends on the groups around the word, not cached
+			NearAnagramModel anagrams;
+			try {
+				anagrams = service.getNearAnagrams(word, limit, self);
+			} catch (IllegalArgumentException e) {
+				return ResponseEntity.badRequest().build();
+			}
+			return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(mapper.writeValueAsBytes(anagrams));
+		}
+		//serialized by the cache, the same JSON the AnagramModel would be written as
+		byte[] json = cache.getAnagramsByWord(word, limit, self);
+		if(json.length==0){
+			return ResponseEntity.ok().build();
+		}
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(json);
+	}
+	
+	@ApiOperation(value = "get anagrams of many words in a single request, the body is an object like POST /words. "
+			+ "limit and self are optional and apply to every word like GET /anagrams/{word}", response = Map.class)
+	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Anagrams of every distinct word retrieved, an empty list if there are none. "
+					+ "Note that a word is not considered to be its own anagram"),
+			@ApiResponse(code = 400, message = "Bad request"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/anagrams/batch", method = RequestMethod.POST, consumes = "application/json", produces = "application/json")
+	public void getAnagramsByWords(@RequestBody WordModel word,
 			@RequestParam(value = "limit") Optional<Long> limit,
-			@RequestParam(value = "self") Optional<Boolean> self) {
-		return new ResponseEntity<AnagramModel>(service.getAnagramsByWord(word, limit, self), HttpStatus.OK);
+			@RequestParam(value = "self") Optional<Boolean> self,
+			HttpServletResponse response) throws IOException {
+		if(word.getWords()==null||word.getWords().length>MAX_LOOKUP_WORDS||(limit.isPresent()&&limit.get()<0)){
+			response.sendError(HttpStatus.BAD_REQUEST.value());
+			return;
+		}
+		Map<String, String[]> anagrams = service.getAnagramsByWords(word.getWords(), limit, self);
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		//a single pass over the lookups, no model per word
+		try (JsonGenerator generator = mapper.getFactory().createGenerator(response.getOutputStream())) {
+			generator.writeStartObject();
+			for(Map.Entry<String, String[]> entry: anagrams.entrySet()){
+				generator.writeFieldName(entry.getKey());
+				generator.writeStartArray();
+				for(String anagram: entry.getValue()){
+					generator.writeString(anagram);
+				}
+				generator.writeEndArray();
+			}
+			generator.writeEndObject();
+		}
+	}
+	
+	@ApiOperation(value = "get dictionary words that can be spelled with some of the letters, white space is ignored, "
+			+ "limit is optional", response = WordModel.class)
+	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Words retrieved, the longest words first"),
+			@ApiResponse(code = 400, message = "Bad request"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/anagrams/{letters}/contained", method = RequestMethod.GET, produces = "application/json")
+	public ResponseEntity<WordModel> getContainedWords(@PathVariable String letters,
+			@RequestParam(value = "limit") Optional<Integer> limit) {
+		if(limit.isPresent()&&limit.get()<0){
+			return ResponseEntity.badRequest().build();
+		}
+		try {
+			return ResponseEntity.ok(service.getContainedWords(letters, limit));
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+	}
+	
+	@ApiOperation(value = "get combinations of dictionary words with exactly the letters of the phrase, white space is ignored. "
+			+ "words limits the count of words in a combination, limit the count of combinations", response = PhraseModel.class)
+	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Phrase anagrams retrieved, complete is false if the search stopped at a limit"),
+			@ApiResponse(code = 400, message = "Bad request"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/phrases/{phrase}/anagrams", method = RequestMethod.GET, produces = "application/json")
+	public ResponseEntity<PhraseModel> getPhraseAnagrams(@PathVariable String phrase,
+			@RequestParam(value = "words") Optional<Integer> words,
+			@RequestParam(value = "limit") Optional<Integer> limit) {
+		int maxWords = words.orElse(DEFAULT_PHRASE_WORDS);
+		int maxPhrases = limit.orElse(DEFAULT_PHRASE_LIMIT);
+		if(maxWords<1||maxPhrases<1){
+			return ResponseEntity.badRequest().build();
+		}
+		try {
+			return ResponseEntity.ok(service.getPhraseAnagrams(phrase, Math.min(maxWords, MAX_PHRASE_WORDS), Math.min(maxPhrases, MAX_PHRASE_LIMIT)));
+		} catch (IllegalArgumentException e) {
+			return ResponseEntity.badRequest().build();
+		}
+	}
+	
+	@ApiOperation(value = "get dictionary words starting with the prefix and ending with the suffix, or matching the glob pattern "
+			+ "(? is any char, * any chars). Words are streamed in ascending order, or in the order of their endings "
+			+ "when the search runs from the end, limit is optional", response = List.class)
+	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Words retrieved"),
+			@ApiResponse(code = 400, message = "Bad request"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/words", method = RequestMethod.GET, produces = "application/json")
+	public void findWords(@RequestParam(value = "prefix") Optional<String> prefix,
+			@RequestParam(value = "suffix") Optional<String> suffix,
+			@RequestParam(value = "pattern") Optional<String> pattern,
+			@RequestParam(value = "limit") Optional<Integer> limit,
+			HttpServletResponse response) throws IOException {
+		int max = Math.min(limit.orElse(DEFAULT_WORD_LIMIT), MAX_WORD_LIMIT);
+		if(max<0){
+			response.sendError(HttpStatus.BAD_REQUEST.value());
+			return;
+		}
+		Iterator<String> words;
+		try {
+			words = service.findWords(prefix, suffix, pattern, max).iterator();
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+			return;
+		}
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+		//words are read from the index as they are written
+		try (JsonGenerator generator = mapper.getFactory().createGenerator(response.getOutputStream())) {
+			generator.writeStartArray();
+			while(words.hasNext()){
+				generator.writeString(words.next());
+			}
+			generator.writeEndArray();
+		}
 	}
 	
 	@ApiOperation(value = "add new words to the data store")
@@ -69,6 +306,69 @@ public class DictionaryAPI {
 		return ResponseEntity.status(HttpStatus.CREATED).build();
     }
 	
+	@ApiOperation(value = "add a large amount of words to the data store batch by batch, every batch is grouped by letters and "
+			+ "deduplicated before it is added. The body is an object like POST /words", response = IngestModel.class)
+	@ApiResponses(value = { 
+			@ApiResponse(code = 201, message = "Words were added, counts and timing of every batch"),
+			@ApiResponse(code = 400, message = "Bad request"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/words/batch", method = RequestMethod.POST, consumes = "application/json", produces = "application/json")
+    public ResponseEntity<IngestModel> addWordBatches(@RequestBody WordModel word,
+    		@RequestParam(value = "batchSize") Optional<Integer> batchSize) {
+		int size = batchSize.orElse(DEFAULT_BATCH_SIZE);
+		if(word.getWords()==null||size<1){
+			return ResponseEntity.badRequest().build();
+		}
+		IngestModel result = service.addWords(Arrays.stream(word.getWords()), Math.min(size, MAX_BATCH_SIZE));
+		return ResponseEntity.status(HttpStatus.CREATED).body(result);
+    }
+	
+	@ApiOperation(value = "add a stream of words to the data store batch by batch, one word per line (text/plain) "
+			+ "or one JSON string or object like POST /words per line (" + NDJSON + "). "
+			+ "The body is read as it arrives, the batches before a malformed line are kept", response = IngestModel.class)
+	@ApiResponses(value = { 
+			@ApiResponse(code = 201, message = "Words were added, counts and timing of every batch"),
+			@ApiResponse(code = 400, message = "Bad request"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/words/batch", method = RequestMethod.POST, consumes = {"text/plain", NDJSON}, produces = "application/json")
+    public ResponseEntity<IngestModel> addWordStream(HttpServletRequest request,
+    		@RequestParam(value = "batchSize") Optional<Integer> batchSize) throws IOException {
+		int size = batchSize.orElse(DEFAULT_BATCH_SIZE);
+		if(size<1){
+			return ResponseEntity.badRequest().build();
+		}
+		boolean json = request.getContentType().startsWith(NDJSON);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+			Stream<String> words = reader.lines();
+			if(json){
+				words = words.filter(line->!line.trim().isEmpty()).flatMap(this::readWords);
+			}
+			IngestModel result = service.addWords(words, Math.min(size, MAX_BATCH_SIZE));
+			return ResponseEntity.status(HttpStatus.CREATED).body(result);
+		} catch (IllegalArgumentException | UncheckedIOException e) {
+			return ResponseEntity.badRequest().build();
+		}
+    }
+	
+	/**
+	 * Reading a line of NDJSON body, a string or an object with words
+	 */
+	private Stream<String> readWords(String line){
+		JsonNode node;
+		try {
+			node = mapper.readTree(line);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if(node.isTextual()){
+			return Stream.of(node.textValue());
+		}
+		if(node.isObject()&&node.path("words").isArray()){
+			return StreamSupport.stream(node.get("words").spliterator(), false).map(JsonNode::asText);
+		}
+		throw new IllegalArgumentException("Not a word: " + line);
+	}
+	
 	@ApiOperation(value = "delete a single word from the data store")
 	@ApiResponses(value = { 
 			@ApiResponse(code = 204, message = "Word was deleted"),
@@ -151,6 +451,15 @@ public class DictionaryAPI {
 	public ResponseEntity<ResultModel> medianWordLength(){
 		return new ResponseEntity<ResultModel>(service.medianWordLength(), HttpStatus.OK);
 	}
+	
+	@ApiOperation(value = "get count of anagram groups by word length, the word length is the index", response = long[].class)
+	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Counts by word length retrieved"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/words/lengths", method = RequestMethod.GET, produces = "application/json")
+	public ResponseEntity<long[]> wordLengths(){
+		return new ResponseEntity<long[]>(service.wordLengths(), HttpStatus.OK);
+	}
 	//Optional
 	@ApiOperation(value = "get words with the most anagrams", response = AnagramModel.class)
 	@ApiResponses(value = { 
@@ -169,4 +478,45 @@ public class DictionaryAPI {
     public ResponseEntity<ResultModel> checkIfAllWordsAreInOneAnagramSet(@RequestBody WordModel word) {
 		return new ResponseEntity<ResultModel>(service.checkIfAllWordsAreInOneAnagramSet(word), HttpStatus.OK);
     }
+	
+	@ApiOperation(value = "get the mutations after a sequence number in order, the feed the read replicas tail", response = FeedModel.class)
+	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Mutations retrieved, up to max events of 16000 words in all, none if there are no later ones yet"),
+			@ApiResponse(code = 400, message = "Bad request"),
+			@ApiResponse(code = 404, message = "There is no feed"),
+			@ApiResponse(code = 410, message = "The feed does not keep the mutations after the sequence anymore, copy a new snapshot"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/feed", method = RequestMethod.GET, produces = "application/json")
+	public ResponseEntity<FeedModel> getFeed(@RequestParam(value = "after") Optional<Long> after,
+			@RequestParam(value = "max") Optional<Integer> max){
+		int limit = Math.min(max.orElse(DEFAULT_FEED_EVENTS), MAX_FEED_EVENTS);
+		if(limit<1){
+			return ResponseEntity.badRequest().build();
+		}
+		FeedModel feed = replication.getFeed(after.orElse(0L), limit);
+		if(feed==null){
+			return ResponseEntity.status(HttpStatus.GONE).build();
+		}
+		return new ResponseEntity<FeedModel>(feed, HttpStatus.OK);
+	}
+	
+	@ApiOperation(value = "get binary snapshot of the words for a new read replica, it has the mutations of the feed up to "
+			+ "the sequence of GET /feed/status read before it")
+	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Snapshot retrieved"),
+			@ApiResponse(code = 404, message = "There is no feed"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/feed/snapshot", method = RequestMethod.GET, produces = "application/octet-stream")
+	public ResponseEntity<byte[]> getSnapshot(){
+		return new ResponseEntity<byte[]>(replication.getSnapshot(), HttpStatus.OK);
+	}
+	
+	@ApiOperation(value = "get position in the feed, a read replica tells how far behind its primary it is", response = ReplicaModel.class)
+	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Position retrieved"),
+			@ApiResponse(code = 500, message = "Internal server error") })
+	@RequestMapping(value = "/feed/status", method = RequestMethod.GET, produces = "application/json")
+	public ResponseEntity<ReplicaModel> getReplicaStatus(){
+		return new ResponseEntity<ReplicaModel>(replication.getStatus(), HttpStatus.OK);
+	}
 }
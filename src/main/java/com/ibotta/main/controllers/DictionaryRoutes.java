@@ -0,0 +1,405 @@
+package com.ibotta.main.controllers;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.convert.ConversionException;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.RequestPredicate;
+import org.springframework.web.reactive.function.server.RequestPredicates;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ibotta.main.model.AnagramModel;
+import com.ibotta.main.model.AnagramPageModel;
+import com.ibotta.main.model.FeedModel;
+import com.ibotta.main.model.WordModel;
+import com.ibotta.main.service.AnagramResponseCache;
+import com.ibotta.main.service.DictionaryReplication;
+import com.ibotta.main.service.IAnagaramService;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Non-blocking serving mode, the routes and the payloads of {@link DictionaryAPI} on the
+ * Reactor Netty event loops. Active with the reactive profile, see application-reactive.properties.
+ *
+ * A lookup takes microseconds and runs on the event loop, so a burst of clients costs
+ * connections and not worker threads. The mutations may wait for the write-ahead log, the
+ * letter index searches may rebuild the index and the word searches may scan most of the
+ * word index, they run on the elastic scheduler. Lists are
+ * written chunk by chunk as the event loop asks for them, like the streaming endpoints of the
+ * servlet mode.
+ */
+@Configuration
+@Profile(DictionaryRoutes.PROFILE)
+public class DictionaryRoutes {
+
+	public static final String PROFILE = "reactive";
+
+	//bytes of a streamed list written at once
+	private static final int CHUNK_SIZE = 1 << 14;
+
+	private static final PathPatternParser PATTERNS = new PathPatternParser();
+
+	private static final ConversionService CONVERSION = DefaultConversionService.getSharedInstance();
+
+	private static final DataBufferFactory BUFFERS = new DefaultDataBufferFactory();
+
+	@Autowired
+	private IAnagaramService service;
+
+	@Autowired
+	private ObjectMapper mapper;
+
+	@Autowired
+	private AnagramResponseCache cache;
+
+	@Autowired
+	private DictionaryReplication replication;
+
+	/**
+	 * Netty even if Tomcat is on the class path for the servlet mode
+	 */
+	@Bean
+	public NettyReactiveWebServerFactory nettyReactiveWebServerFactory(){
+		return new NettyReactiveWebServerFactory();
+	}
+
+	@Bean
+	public RouterFunction<ServerResponse> dictionaryRouter(){
+		//the literal routes go before the ones with a variable in the same place
+		return route(HttpMethod.GET, "/anagrams", this::getAnagrams).
+			and(route(HttpMethod.GET, "/anagrams/most", request->ok(service.getMostAnagrams()))).
+			and(route(HttpMethod.GET, "/anagrams/{word}", this::getAnagramsByWord)).
+			and(route(HttpMethod.POST, "/anagrams/batch", this::getAnagramsByWords)).
+			and(route(HttpMethod.POST, "/anagrams/check", request->words(request).flatMap(word->ok(service.checkIfAllWordsAreInOneAnagramSet(word))))).
+			and(route(HttpMethod.GET, "/anagrams/{letters}/contained", this::getContainedWords)).
+			and(route(HttpMethod.DELETE, "/anagrams/{word}", request->
+				blocking(()->service.deleteAnagramsByWord(request.pathVariable("word"))).flatMap(DictionaryRoutes::deleted))).
+			and(route(HttpMethod.GET, "/phrases/{phrase}/anagrams", this::getPhraseAnagrams)).
+			and(route(HttpMethod.GET, "/words/count", request->ok(service.countOfWordsInDictionary()))).
+			and(route(HttpMethod.GET, "/words/max", request->ok(service.maxWordLength()))).
+			and(route(HttpMethod.GET, "/words/min", request->ok(service.minWordLength()))).
+			and(route(HttpMethod.GET, "/words/avg", request->ok(service.avgWordLength()))).
+			and(route(HttpMethod.GET, "/words/median", request->ok(service.medianWordLength()))).
+			and(route(HttpMethod.GET, "/words/lengths", request->ok(service.wordLengths()))).
+			and(route(HttpMethod.GET, "/words", this::findWords)).
+			and(route(HttpMethod.POST, "/words", request->words(request).
+				flatMap(word->blocking(()->{service.addWords(word); return word;})).
+				flatMap(word->ServerResponse.status(HttpStatus.CREATED).build()))).
+			and(route(RequestPredicates.contentType(MediaType.APPLICATION_JSON), HttpMethod.POST, "/words/batch", this::addWordBatches)).
+			and(route(RequestPredicates.contentType(MediaType.TEXT_PLAIN, MediaType.valueOf(DictionaryAPI.NDJSON)), HttpMethod.POST, "/words/batch", this::addWordStream)).
+			and(route(HttpMethod.DELETE, "/words/{word}", request->
+				blocking(()->service.deleteWord(request.pathVariable("word"))).flatMap(DictionaryRoutes::deleted))).
+			and(route(HttpMethod.DELETE, "/words", request->
+				blocking(()->{service.deleteWords(); return true;}).flatMap(DictionaryRoutes::deleted))).
+			and(route(HttpMethod.GET, "/feed", this::getFeed)).
+			and(route(HttpMethod.GET, "/feed/snapshot", request->blocking(replication::getSnapshot).
+				flatMap(snapshot->ServerResponse.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).syncBody(snapshot)))).
+			and(route(HttpMethod.GET, "/feed/status", request->ok(replication.getStatus()))).
+			//a malformed parameter, cursor or pattern is a bad request like in the servlet mode
+			filter((request, next)->{
+				try {
+					return next.handle(request).onErrorResume(DictionaryRoutes::badInput, e->ServerResponse.badRequest().build());
+				} catch (IllegalArgumentException | ConversionException e) {
+					return ServerResponse.badRequest().build();
+				}
+			});
+	}
+
+	private Mono<ServerResponse> getAnagrams(ServerRequest request){
+		Optional<Integer> size = param(request, "size", Integer.class);
+		Optional<String> cursor = request.queryParam("cursor");
+		Optional<Integer> pageSize = param(request, "pageSize", Integer.class);
+		Stream<AnagramModel> anagrams;
+		String nextCursor = null;
+		if(pageSize.isPresent()||cursor.isPresent()){
+			int limit = Math.min(pageSize.orElse(DictionaryAPI.MAX_PAGE_SIZE), DictionaryAPI.MAX_PAGE_SIZE);
+			if(limit<1){
+				return ServerResponse.badRequest().build();
+			}
+			AnagramPageModel page = service.getAnagramsPage(size, cursor, limit);
+			nextCursor = page.getCursor();
+			anagrams = page.getAnagrams().stream();
+		}else{
+			anagrams = service.streamAnagrams(size);
+		}
+		ObjectWriter writer = mapper.writerFor(AnagramModel.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		Flux<DataBuffer> body = jsonArray(anagrams.iterator(), (generator, anagram)->writer.writeValue(generator, anagram));
+		ServerResponse.BodyBuilder response = ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8);
+		if(nextCursor!=null){
+			response.header(DictionaryAPI.NEXT_CURSOR_HEADER, nextCursor);
+		}
+		return response.body(BodyInserters.fromDataBuffers(body));
+	}
+
+	private Mono<ServerResponse> getAnagramsByWord(ServerRequest request){
+		String word = request.pathVariable("word");
+		Optional<Long> limit = param(request, "limit", Long.class);
+		Optional<Boolean> self = param(request, "self", Boolean.class);
+		if(param(request, "fuzzy", Boolean.class).orElse(false)){
+			//depends on the groups around the word, not cached
+			return ok(service.getNearAnagrams(word, limit, self));
+		}
+		//serialized by the cache, the same JSON the AnagramModel would be written as
+		byte[] json = json(()->cache.getAnagramsByWord(word, limit, self));
+		if(json.length==0){
+			return ServerResponse.ok().build();
+		}
+		return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(json);
+	}
+
+	private Mono<ServerResponse> getAnagramsByWords(ServerRequest request){
+		Optional<Long> limit = param(request, "limit", Long.class);
+		Optional<Boolean> self = param(request, "self", Boolean.class);
+		return words(request).flatMap(word->{
+			if(word.getWords()==null||word.getWords().length>DictionaryAPI.MAX_LOOKUP_WORDS||(limit.isPresent()&&limit.get()<0)){
+				return ServerResponse.badRequest().build();
+			}
+			//a big batch is looked up in parallel, not on the event loop
+			return blocking(()->json(()->{
+				Map<String, String[]> anagrams = service.getAnagramsByWords(word.getWords(), limit, self);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+					generator.writeStartObject();
+					for(Map.Entry<String, String[]> entry: anagrams.entrySet()){
+						generator.writeFieldName(entry.getKey());
+						generator.writeStartArray();
+						for(String anagram: entry.getValue()){
+							generator.writeString(anagram);
+						}
+						generator.writeEndArray();
+					}
+					generator.writeEndObject();
+				}
+				return out.toByteArray();
+			})).flatMap(json->ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(json));
+		});
+	}
+
+	private Mono<ServerResponse> getContainedWords(ServerRequest request){
+		String letters = request.pathVariable("letters");
+		Optional<Integer> limit = param(request, "limit", Integer.class);
+		if(limit.isPresent()&&limit.get()<0){
+			return ServerResponse.badRequest().build();
+		}
+		return blocking(()->service.getContainedWords(letters, limit)).flatMap(DictionaryRoutes::ok);
+	}
+
+	private Mono<ServerResponse> getPhraseAnagrams(ServerRequest request){
+		String phrase = request.pathVariable("phrase");
+		int maxWords = param(request, "words", Integer.class).orElse(DictionaryAPI.DEFAULT_PHRASE_WORDS);
+		int maxPhrases = param(request, "limit", Integer.class).orElse(DictionaryAPI.DEFAULT_PHRASE_LIMIT);
+		if(maxWords<1||maxPhrases<1){
+			return ServerResponse.badRequest().build();
+		}
+		return blocking(()->service.getPhraseAnagrams(phrase, Math.min(maxWords, DictionaryAPI.MAX_PHRASE_WORDS), Math.min(maxPhrases, DictionaryAPI.MAX_PHRASE_LIMIT))).
+			flatMap(DictionaryRoutes::ok);
+	}
+
+	private Mono<ServerResponse> findWords(ServerRequest request){
+		int max = Math.min(param(request, "limit", Integer.class).orElse(DictionaryAPI.DEFAULT_WORD_LIMIT), DictionaryAPI.MAX_WORD_LIMIT);
+		if(max<0){
+			return ServerResponse.badRequest().build();
+		}
+		//words are read from the index as they are written, a pattern may scan most of it
+		return blocking(()->service.findWords(request.queryParam("prefix"), request.queryParam("suffix"), request.queryParam("pattern"), max).iterator()).
+			flatMap(words->ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).
+				body(BodyInserters.fromDataBuffers(jsonArray(words, JsonGenerator::writeString).subscribeOn(Schedulers.elastic()))));
+	}
+
+	private Mono<ServerResponse> getFeed(ServerRequest request){
+		int max = Math.min(param(request, "max", Integer.class).orElse(DictionaryAPI.DEFAULT_FEED_EVENTS), DictionaryAPI.MAX_FEED_EVENTS);
+		if(max<1){
+			return ServerResponse.badRequest().build();
+		}
+		FeedModel feed = replication.getFeed(param(request, "after", Long.class).orElse(0L), max);
+		if(feed==null){
+			return ServerResponse.status(HttpStatus.GONE).build();
+		}
+		return ok(feed);
+	}
+
+	private Mono<ServerResponse> addWordBatches(ServerRequest request){
+		int size = param(request, "batchSize", Integer.class).orElse(DictionaryAPI.DEFAULT_BATCH_SIZE);
+		return words(request).flatMap(word->{
+			if(word.getWords()==null||size<1){
+				return ServerResponse.badRequest().build();
+			}
+			return blocking(()->service.addWords(Arrays.stream(word.getWords()), Math.min(size, DictionaryAPI.MAX_BATCH_SIZE))).
+				flatMap(result->ServerResponse.status(HttpStatus.CREATED).contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(result));
+		});
+	}
+
+	/**
+	 * The body is aggregated before it is added, unlike in the servlet mode where it is read
+	 * as it arrives
+	 */
+	private Mono<ServerResponse> addWordStream(ServerRequest request){
+		int size = param(request, "batchSize", Integer.class).orElse(DictionaryAPI.DEFAULT_BATCH_SIZE);
+		if(size<1){
+			return ServerResponse.badRequest().build();
+		}
+		boolean json = request.headers().contentType().map(type->type.isCompatibleWith(MediaType.valueOf(DictionaryAPI.NDJSON))).orElse(false);
+		return request.bodyToMono(String.class).defaultIfEmpty("").
+			flatMap(body->blocking(()->{
+				Stream<String> words = new BufferedReader(new StringReader(body)).lines();
+				if(json){
+					words = words.filter(line->!line.trim().isEmpty()).flatMap(this::readWords);
+				}
+				return service.addWords(words, Math.min(size, DictionaryAPI.MAX_BATCH_SIZE));
+			})).
+			flatMap(result->ServerResponse.status(HttpStatus.CREATED).contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(result)).
+			onErrorResume(UncheckedIOException.class, e->ServerResponse.badRequest().build());
+	}
+
+	/**
+	 * Reading a line of NDJSON body, a string or an object with words
+	 */
+	private Stream<String> readWords(String line){
+		JsonNode node;
+		try {
+			node = mapper.readTree(line);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if(node.isTextual()){
+			return Stream.of(node.textValue());
+		}
+		if(node.isObject()&&node.path("words").isArray()){
+			return StreamSupport.stream(node.get("words").spliterator(), false).map(JsonNode::asText);
+		}
+		throw new IllegalArgumentException("Not a word: " + line);
+	}
+
+	/**
+	 * Route of a method and a path, the path pattern is the uri tag of the request metrics
+	 */
+	private static RouterFunction<ServerResponse> route(HttpMethod method, String pattern, HandlerFunction<ServerResponse> handler){
+		return route(RequestPredicates.all(), method, pattern, handler);
+	}
+
+	private static RouterFunction<ServerResponse> route(RequestPredicate predicate, HttpMethod method, String pattern, HandlerFunction<ServerResponse> handler){
+		PathPattern path = PATTERNS.parse(pattern);
+		return RouterFunctions.route(RequestPredicates.method(method).and(RequestPredicates.path(pattern)).and(predicate), request->{
+			request.attributes().put(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, path);
+			return handler.handle(request);
+		});
+	}
+
+	private static <T> Optional<T> param(ServerRequest request, String name, Class<T> type){
+		return request.queryParam(name).map(value->CONVERSION.convert(value, type));
+	}
+
+	private static Mono<WordModel> words(ServerRequest request){
+		return request.bodyToMono(WordModel.class).defaultIfEmpty(new WordModel());
+	}
+
+	private static Mono<ServerResponse> ok(Object body){
+		return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON_UTF8).syncBody(body);
+	}
+
+	private static Mono<ServerResponse> deleted(boolean deleted){
+		return ServerResponse.status(deleted?HttpStatus.NO_CONTENT:HttpStatus.NOT_FOUND).build();
+	}
+
+	private static boolean badInput(Throwable e){
+		return e instanceof IllegalArgumentException||e instanceof ConversionException;
+	}
+
+	/**
+	 * Running a call that may block off the event loop
+	 */
+	private static <T> Mono<T> blocking(Callable<T> call){
+		return Mono.fromCallable(call).subscribeOn(Schedulers.elastic());
+	}
+
+	private interface JsonCall<T> {
+
+		T call() throws IOException;
+	}
+
+	private static <T> T json(JsonCall<T> call){
+		try {
+			return call.call();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private interface JsonItemWriter<T> {
+
+		void write(JsonGenerator generator, T item) throws IOException;
+	}
+
+	/**
+	 * Writing the items as a JSON array chunk by chunk, a chunk is written once it is requested
+	 */
+	private <T> Flux<DataBuffer> jsonArray(Iterator<T> items, JsonItemWriter<T> writer){
+		return Flux.generate(()->{
+			ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK_SIZE+(CHUNK_SIZE >> 2));
+			JsonGenerator generator = json(()->mapper.getFactory().createGenerator(out));
+			json(()->{generator.writeStartArray(); return null;});
+			return generator;
+		}, (generator, sink)->{
+			ByteArrayOutputStream out = (ByteArrayOutputStream)generator.getOutputTarget();
+			json(()->{
+				while(items.hasNext()&&out.size()+generator.getOutputBuffered()<CHUNK_SIZE){
+					writer.write(generator, items.next());
+				}
+				if(!items.hasNext()){
+					generator.writeEndArray();
+					generator.close();
+				}else{
+					generator.flush();
+				}
+				return null;
+			});
+			sink.next(BUFFERS.wrap(out.toByteArray()));
+			out.reset();
+			if(generator.isClosed()){
+				sink.complete();
+			}
+			return generator;
+		});
+	}
+}
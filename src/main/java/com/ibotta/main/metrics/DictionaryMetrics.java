@@ -0,0 +1,109 @@
+package com.ibotta.main.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.ibotta.main.repository.Dictionary;
+import com.ibotta.main.repository.DictionaryCounters;
+import com.ibotta.main.service.DictionaryReplication;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Dictionary meters. They read the dictionary statistics and counters when the registry is
+ * scraped, so the request path only pays for a LongAdder increment. The endpoint latencies
+ * are the http.server.requests timers of Spring Boot, see application.properties.
+ *
+ * @see <a href="http://localhost:3000/actuator/prometheus">prometheus scrape endpoint</a>
+ */
+@Component
+public class DictionaryMetrics implements MeterBinder {
+
+	@Autowired
+	private Dictionary dictionary;
+
+	@Autowired
+	private DictionaryReplication replication;
+
+	@Override
+	public void bindTo(MeterRegistry registry){
+		Gauge.builder("dictionary.words", dictionary, d->d.getStatistics().getWordCount()).
+			description("Count of words").
+			register(registry);
+		Gauge.builder("dictionary.groups", dictionary, d->d.getStatistics().getGroupCount()).
+			description("Count of anagram groups").
+			register(registry);
+		Gauge.builder("dictionary.memory.estimated", dictionary, Dictionary::getEstimatedMemory).
+			description("Rough heap footprint of the words and the anagram groups").
+			baseUnit("bytes").
+			register(registry);
+		Gauge.builder("dictionary.memory.offheap", dictionary, Dictionary::getOffHeapMemory).
+			description("Direct buffers of the off-heap store").
+			baseUnit("bytes").
+			register(registry);
+		Gauge.builder("dictionary.words.index.memory", dictionary, d->d.getWordIndex().getMemory()).
+			description("Heap size of the word tries behind GET /words").
+			baseUnit("bytes").
+			register(registry);
+		TimeGauge.builder("dictionary.init.duration", dictionary, TimeUnit.NANOSECONDS, d->d.getCounters().getInitNanos()).
+			description("Time the dictionary took to load at startup").
+			register(registry);
+		Gauge.builder("dictionary.filter.memory", dictionary, d->d.getFilter()!=null?d.getFilter().getMemory():0).
+			description("Bits of the signature filter in front of the store").
+			baseUnit("bytes").
+			register(registry);
+		Gauge.builder("dictionary.filter.fpp", dictionary, d->d.getFilter()!=null?d.getFilter().getExpectedFpp():0).
+			description("Expected false positive rate of the signature filter with the groups the store has now").
+			register(registry);
+		Gauge.builder("dictionary.filter.fpp.target", dictionary, d->d.getFilter()!=null?d.getFilter().getTargetFpp():0).
+			description("False positive rate the signature filter is sized for").
+			register(registry);
+		Gauge.builder("dictionary.feed.sequence", replication, DictionaryReplication::getSequence).
+			description("Last mutation of the feed, or the last one a replica has applied").
+			register(registry);
+		Gauge.builder("dictionary.replica.lag", replication, DictionaryReplication::getLag).
+			description("Mutations of the primary a replica has not applied yet").
+			register(registry);
+		TimeGauge.builder("dictionary.replica.lag.time", replication, TimeUnit.MILLISECONDS, DictionaryReplication::getLagMillis).
+			description("Time since a replica last had all the mutations of the primary").
+			register(registry);
+
+		DictionaryCounters counters = dictionary.getCounters();
+		FunctionCounter.builder("dictionary.lookups", counters, DictionaryCounters::getLookupHits).
+			description("Anagram group lookups").
+			tag("result", "hit").
+			register(registry);
+		FunctionCounter.builder("dictionary.lookups", counters, DictionaryCounters::getLookupMisses).
+			description("Anagram group lookups").
+			tag("result", "miss").
+			register(registry);
+		FunctionCounter.builder("dictionary.filter.lookups", counters, DictionaryCounters::getFilteredLookups).
+			description("Anagram group lookups the signature filter answered alone (negative) or let through to a miss (false_positive)").
+			tag("result", "negative").
+			register(registry);
+		FunctionCounter.builder("dictionary.filter.lookups", counters, DictionaryCounters::getFilterFalsePositives).
+			description("Anagram group lookups the signature filter answered alone (negative) or let through to a miss (false_positive)").
+			tag("result", "false_positive").
+			register(registry);
+		FunctionCounter.builder("dictionary.words.added", counters, DictionaryCounters::getAddedWords).
+			description("Words added, duplicates are not counted").
+			register(registry);
+		FunctionCounter.builder("dictionary.words.deleted", counters, DictionaryCounters::getDeletedWords).
+			description("Words deleted one by one or with their anagram group").
+			register(registry);
+		FunctionCounter.builder("dictionary.groups.deleted", counters, DictionaryCounters::getDeletedGroups).
+			description("Anagram groups deleted at once").
+			register(registry);
+		FunctionCounter.builder("dictionary.clears", counters, DictionaryCounters::getClears).
+			description("Times all the words were deleted").
+			register(registry);
+	}
+}
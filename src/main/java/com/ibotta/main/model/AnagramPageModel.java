@@ -0,0 +1,26 @@
+package com.ibotta.main.model;
+
+import java.util.List;
+
+public class AnagramPageModel {
+
+	private List<AnagramModel> anagrams;
+
+	private String cursor;
+
+	public List<AnagramModel> getAnagrams() {
+		return anagrams;
+	}
+
+	public void setAnagrams(List<AnagramModel> anagrams) {
+		this.anagrams = anagrams;
+	}
+
+	public String getCursor() {
+		return cursor;
+	}
+
+	public void setCursor(String cursor) {
+		this.cursor = cursor;
+	}
+}
@@ -0,0 +1,54 @@
+package com.ibotta.main.model;
+
+public class BatchModel {
+
+	private long words;
+
+	private long added;
+
+	private long duplicates;
+
+	private long groups;
+
+	private long micros;
+
+	public long getWords() {
+		return words;
+	}
+
+	public void setWords(long words) {
+		this.words = words;
+	}
+
+	public long getAdded() {
+		return added;
+	}
+
+	public void setAdded(long added) {
+		this.added = added;
+	}
+
+	public long getDuplicates() {
+		return duplicates;
+	}
+
+	public void setDuplicates(long duplicates) {
+		this.duplicates = duplicates;
+	}
+
+	public long getGroups() {
+		return groups;
+	}
+
+	public void setGroups(long groups) {
+		this.groups = groups;
+	}
+
+	public long getMicros() {
+		return micros;
+	}
+
+	public void setMicros(long micros) {
+		this.micros = micros;
+	}
+}
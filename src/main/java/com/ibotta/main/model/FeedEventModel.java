@@ -0,0 +1,34 @@
+package com.ibotta.main.model;
+
+public class FeedEventModel {
+
+	private long sequence;
+
+	private String op;
+
+	private String[] words;
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public String getOp() {
+		return op;
+	}
+
+	public void setOp(String op) {
+		this.op = op;
+	}
+
+	public String[] getWords() {
+		return words;
+	}
+
+	public void setWords(String...words) {
+		this.words = words;
+	}
+}
@@ -0,0 +1,36 @@
+package com.ibotta.main.model;
+
+import java.util.List;
+
+public class FeedModel {
+
+	private String feed;
+
+	private long sequence;
+
+	private List<FeedEventModel> events;
+
+	public String getFeed() {
+		return feed;
+	}
+
+	public void setFeed(String feed) {
+		this.feed = feed;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public List<FeedEventModel> getEvents() {
+		return events;
+	}
+
+	public void setEvents(List<FeedEventModel> events) {
+		this.events = events;
+	}
+}
@@ -0,0 +1,56 @@
+package com.ibotta.main.model;
+
+import java.util.List;
+
+public class IngestModel {
+
+	private long words;
+
+	private long added;
+
+	private long duplicates;
+
+	private long micros;
+
+	private List<BatchModel> batches;
+
+	public long getWords() {
+		return words;
+	}
+
+	public void setWords(long words) {
+		this.words = words;
+	}
+
+	public long getAdded() {
+		return added;
+	}
+
+	public void setAdded(long added) {
+		this.added = added;
+	}
+
+	public long getDuplicates() {
+		return duplicates;
+	}
+
+	public void setDuplicates(long duplicates) {
+		this.duplicates = duplicates;
+	}
+
+	public long getMicros() {
+		return micros;
+	}
+
+	public void setMicros(long micros) {
+		this.micros = micros;
+	}
+
+	public List<BatchModel> getBatches() {
+		return batches;
+	}
+
+	public void setBatches(List<BatchModel> batches) {
+		this.batches = batches;
+	}
+}
@@ -0,0 +1,34 @@
+package com.ibotta.main.model;
+
+public class NearAnagramModel {
+
+	private String[] anagrams;
+
+	private String[] near;
+
+	private boolean complete;
+
+	public String[] getAnagrams() {
+		return anagrams;
+	}
+
+	public void setAnagrams(String...anagrams) {
+		this.anagrams = anagrams;
+	}
+
+	public String[] getNear() {
+		return near;
+	}
+
+	public void setNear(String...near) {
+		this.near = near;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+}
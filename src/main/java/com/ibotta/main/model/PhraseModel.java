@@ -0,0 +1,34 @@
+package com.ibotta.main.model;
+
+public class PhraseModel {
+
+	private String phrase;
+
+	private String[] anagrams;
+
+	private boolean complete;
+
+	public String getPhrase() {
+		return phrase;
+	}
+
+	public void setPhrase(String phrase) {
+		this.phrase = phrase;
+	}
+
+	public String[] getAnagrams() {
+		return anagrams;
+	}
+
+	public void setAnagrams(String[] anagrams) {
+		this.anagrams = anagrams;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+}
@@ -0,0 +1,64 @@
+package com.ibotta.main.model;
+
+public class ReplicaModel {
+
+	private String primary;
+
+	private String feed;
+
+	private long sequence;
+
+	private long primarySequence;
+
+	private long lag;
+
+	private long lagMillis;
+
+	public String getPrimary() {
+		return primary;
+	}
+
+	public void setPrimary(String primary) {
+		this.primary = primary;
+	}
+
+	public String getFeed() {
+		return feed;
+	}
+
+	public void setFeed(String feed) {
+		this.feed = feed;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public long getPrimarySequence() {
+		return primarySequence;
+	}
+
+	public void setPrimarySequence(long primarySequence) {
+		this.primarySequence = primarySequence;
+	}
+
+	public long getLag() {
+		return lag;
+	}
+
+	public void setLag(long lag) {
+		this.lag = lag;
+	}
+
+	public long getLagMillis() {
+		return lagMillis;
+	}
+
+	public void setLagMillis(long lagMillis) {
+		this.lagMillis = lagMillis;
+	}
+}
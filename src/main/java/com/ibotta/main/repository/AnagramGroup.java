@@ -0,0 +1,308 @@
+package com.ibotta.main.repository;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Set of words sharing the same letters.
+ *
+ * The words of a group have the same letters, so the same length and either all of them are
+ * Latin-1 or none is. They are packed back to back into a single byte array, a byte per char
+ * (two for the wide groups), and a String is only built when a word is read, i.e. when it is
+ * written out. The sorted letters key is built on demand too, the stores go by the signature.
+ *
+ * Writers are serialized by the owning store. Readers never lock: every change publishes a
+ * new packed array and a published array is never written again, so an iterator always walks
+ * a consistent array and copies of the group may share it.
+ */
+public class AnagramGroup extends AbstractSet<String> {
+
+	private static final byte[] EMPTY = new byte[0];
+
+	//bigger bulk appends use a hash set to drop duplicates
+	private static final int SCAN_LIMIT = 16;
+
+	private final long signature;
+
+	private final int wordLength;
+
+	private volatile byte[] words = EMPTY;
+
+	//two bytes per char, set with the first word before the array is published
+	private boolean wide;
+
+	//sorted letters key, computed on demand
+	private volatile String key;
+
+	public AnagramGroup(long signature, int wordLength){
+		this.signature = signature;
+		this.wordLength = wordLength;
+	}
+
+	/**
+	 * Creating group of distinct words with the same letters
+	 */
+	AnagramGroup(long signature, String[] words){
+		this(signature, words[0].length());
+		this.wide = !isLatin1(words[0]);
+		this.words = pack(EMPTY, words, words.length);
+	}
+
+	/**
+	 * Creating group of packed words, see {@link #packed}
+	 */
+	AnagramGroup(long signature, int wordLength, boolean wide, byte[] packed){
+		this(signature, wordLength);
+		this.wide = wide;
+		this.words = packed;
+	}
+
+	public long getSignature(){
+		return signature;
+	}
+
+	public int getWordLength(){
+		return wordLength;
+	}
+
+	/**
+	 * Getting sorted letters key of the group, the natural ordering of anagram groups
+	 * @return key or null if the group has always been empty
+	 */
+	public String getKey(){
+		String k = key;
+		if(k==null){
+			byte[] array = words;
+			if(array.length==0) return null;
+			key = k = AnagramKeys.sortedKey(word(array, 0));
+		}
+		return k;
+	}
+
+	/**
+	 * Check whether or not the word belongs to this group
+	 * @param word any word with the group signature
+	 */
+	boolean matches(String word){
+		byte[] array = words;
+		if(array.length==0||word.length()!=wordLength) return false;
+		//most groups are a single word, often the one looked up
+		if(equals(array, 0, word)) return true;
+		return wide?AnagramKeys.sameLetters(word(array, 0), word):AnagramKeys.sameLetters(array, 0, word);
+	}
+
+	/**
+	 * Getting the packed words, the array is never written again
+	 */
+	byte[] packed(){
+		return words;
+	}
+
+	/**
+	 * Check whether or not the words are packed two bytes per char
+	 */
+	boolean isWide(){
+		return wide;
+	}
+
+	//bytes of a word, an empty word takes a byte to be counted
+	private int stride(){
+		return Math.max(1, wide?2*wordLength:wordLength);
+	}
+
+	@Override
+	public int size(){
+		return words.length/stride();
+	}
+
+	@Override
+	public boolean contains(Object o){
+		if(!(o instanceof String)) return false;
+		String word = (String)o;
+		return word.length()==wordLength&&indexOf(words, word)>=0;
+	}
+
+	@Override
+	public Iterator<String> iterator(){
+		final byte[] array = words;
+		final int n = array.length/stride();
+		return new Iterator<String>(){
+			private int i;
+
+			@Override
+			public boolean hasNext(){
+				return i<n;
+			}
+
+			@Override
+			public String next(){
+				if(!hasNext()) throw new NoSuchElementException();
+				return word(array, i++);
+			}
+		};
+	}
+
+	@Override
+	public String[] toArray(){
+		byte[] array = words;
+		String[] result = new String[array.length/stride()];
+		for(int i=0; i<result.length; i++){
+			result[i] = word(array, i);
+		}
+		return result;
+	}
+
+	private String word(byte[] array, int i){
+		char[] chars = new char[wordLength];
+		int offset = i*stride();
+		if(wide){
+			for(int j=0; j<chars.length; j++, offset+=2){
+				chars[j] = (char)((array[offset]&0xFF) << 8|array[offset+1]&0xFF);
+			}
+		}else{
+			for(int j=0; j<chars.length; j++){
+				chars[j] = (char)(array[offset+j]&0xFF);
+			}
+		}
+		return new String(chars);
+	}
+
+	private int indexOf(byte[] array, String word){
+		int stride = stride();
+		for(int i=0, offset=0; offset<array.length; i++, offset+=stride){
+			if(equals(array, offset, word)) return i;
+		}
+		return -1;
+	}
+
+	private boolean equals(byte[] array, int offset, String word){
+		if(wide){
+			for(int j=0; j<wordLength; j++, offset+=2){
+				if(word.charAt(j)!=(char)((array[offset]&0xFF) << 8|array[offset+1]&0xFF)) return false;
+			}
+		}else{
+			for(int j=0; j<wordLength; j++){
+				if(word.charAt(j)!=(char)(array[offset+j]&0xFF)) return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isLatin1(String word){
+		for(int i=0; i<word.length(); i++){
+			if(word.charAt(i)>0xFF) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Copying the packed words followed by the new ones
+	 */
+	private byte[] pack(byte[] array, String[] added, int count){
+		int stride = stride();
+		byte[] packed = Arrays.copyOf(array, array.length+count*stride);
+		for(int i=0, offset=array.length; i<count; i++, offset+=stride){
+			String word = added[i];
+			for(int j=0; j<wordLength; j++){
+				char c = word.charAt(j);
+				if(wide){
+					packed[offset+2*j] = (byte)(c >>> 8);
+					packed[offset+2*j+1] = (byte)c;
+				}else{
+					packed[offset+j] = (byte)c;
+				}
+			}
+		}
+		return packed;
+	}
+
+	/**
+	 * Adding word, the caller holds the store lock of the group
+	 * @return true if the group has changed
+	 */
+	boolean append(String word){
+		if(contains(word)) return false;
+		byte[] array = words;
+		if(array.length==0) wide = !isLatin1(word);
+		words = pack(array, new String[]{word}, 1);
+		return true;
+	}
+
+	/**
+	 * Adding anagrams of the group at once: duplicates are dropped and a single new array is
+	 * published. A big group is checked against a hash set instead of a scan for every word.
+	 * The caller holds the store lock of the group.
+	 * @param batch words with the letters of the group
+	 * @param from first word to add
+	 * @param to index after the last word to add
+	 * @return count of words added
+	 */
+	int appendAll(String[] batch, int from, int to){
+		byte[] array = words;
+		if(array.length==0) wide = !isLatin1(batch[from]);
+		int n = array.length/stride();
+		String[] added = new String[to-from];
+		int k = 0;
+		Set<String> seen = null;
+		if(n+to-from>SCAN_LIMIT){
+			seen = new HashSet<String>(Arrays.asList(toArray()));
+		}
+		for(int i=from; i<to; i++){
+			String word = batch[i];
+			boolean duplicate;
+			if(seen!=null){
+				duplicate = !seen.add(word);
+			}else{
+				duplicate = indexOf(array, word)>=0||indexOf(added, k, word)>=0;
+			}
+			if(!duplicate){
+				added[k++] = word;
+			}
+		}
+		if(k==0) return 0;
+		words = pack(array, added, k);
+		return k;
+	}
+
+	private static int indexOf(String[] array, int n, String word){
+		for(int i=0; i<n; i++){
+			if(array[i].equals(word)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Copying the group for a store that never changes a published group, the copy shares
+	 * the packed words until it is changed
+	 */
+	AnagramGroup copy(){
+		AnagramGroup copy = new AnagramGroup(signature, wordLength);
+		copy.wide = wide;
+		copy.words = words;
+		copy.key = key;
+		return copy;
+	}
+
+	/**
+	 * Removing word, the caller holds the store lock of the group
+	 * @return true if the group has changed
+	 */
+	boolean delete(String word){
+		if(word.length()!=wordLength) return false;
+		byte[] array = words;
+		int i = indexOf(array, word);
+		if(i<0) return false;
+		int stride = stride();
+		byte[] copy = new byte[array.length-stride];
+		System.arraycopy(array, 0, copy, 0, i*stride);
+		System.arraycopy(array, (i+1)*stride, copy, i*stride, copy.length-i*stride);
+		words = copy;
+		return true;
+	}
+}
@@ -0,0 +1,213 @@
+package com.ibotta.main.repository;
+
+import java.util.Arrays;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Key derivation for anagram groups.
+ *
+ * The signature is an order independent 64-bit hash of the letter multiset: every char is
+ * mixed into a pseudo random long and the results are summed, so no sorting is needed and
+ * two words share a signature whenever they share letters. Collisions between different
+ * multisets are possible (if very unlikely), stores must confirm a match with {@link #sameLetters}.
+ *
+ * The sorted key and the letter comparison use a counting sort over a per-thread buffer:
+ * Latin-1 chars are counted in a 256 slot table, wider chars are collected into a scratch
+ * array and sorted in place. Nothing is allocated except the resulting key.
+ */
+public final class AnagramKeys {
+
+	private static final int LATIN1 = 256;
+
+	private static final long[] LATIN1_LETTERS = new long[LATIN1];
+
+	static {
+		for(char c=0; c<LATIN1; c++){
+			LATIN1_LETTERS[c] = mix(c);
+		}
+	}
+
+	private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+	private static final class Buffer {
+		final int[] counts = new int[LATIN1];
+		char[] chars = new char[64];
+		char[] wide = new char[64];
+		char[] otherWide = new char[64];
+
+		char[] chars(int length){
+			if(chars.length<length) chars = new char[Math.max(length, chars.length*2)];
+			return chars;
+		}
+
+		char[] wide(int length){
+			if(wide.length<length) wide = new char[Math.max(length, wide.length*2)];
+			return wide;
+		}
+
+		char[] otherWide(int length){
+			if(otherWide.length<length) otherWide = new char[Math.max(length, otherWide.length*2)];
+			return otherWide;
+		}
+	}
+
+	private AnagramKeys(){
+	}
+
+	/**
+	 * Getting order independent letter multiset signature
+	 * @param word any word
+	 * @return signature, words with the same letters have the same signature
+	 */
+	public static long signature(CharSequence word){
+		long signature = 0;
+		for(int i=0, n=word.length(); i<n; i++){
+			signature += letter(word.charAt(i));
+		}
+		return signature;
+	}
+
+	/**
+	 * Getting the signature contribution of a single letter
+	 * @param c letter
+	 * @return pseudo random value, see splitmix64
+	 */
+	public static long letter(char c){
+		return c<LATIN1?LATIN1_LETTERS[c]:mix(c);
+	}
+
+	private static long mix(char c){
+		return mix((c + 1) * 0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * SplitMix64 finalizer, spreads the signatures of similar words. The users of one signature
+	 * that must not correlate, e.g. the shard ring and the signature filter, mix it with
+	 * different seeds.
+	 * @param z any value
+	 * @return pseudo random value
+	 */
+	static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Getting sorted letters key, the natural ordering of anagram groups
+	 * @param word any word
+	 * @return word letters in ascending order
+	 */
+	public static String sortedKey(String word){
+		if(word==null) return null;
+		int n = word.length();
+		Buffer buffer = BUFFER.get();
+		int[] counts = buffer.counts;
+		char[] wide = buffer.wide(n);
+		int w = 0, min = LATIN1, max = -1;
+		for(int i=0; i<n; i++){
+			char c = word.charAt(i);
+			if(c<LATIN1){
+				counts[c]++;
+				if(c<min) min = c;
+				if(c>max) max = c;
+			}else{
+				wide[w++] = c;
+			}
+		}
+		char[] chars = buffer.chars(n);
+		int k = 0;
+		for(int c=min; c<=max; c++){
+			for(int count=counts[c]; count>0; count--){
+				chars[k++] = (char)c;
+			}
+			counts[c] = 0;
+		}
+		if(w>0){
+			//surrogate pairs are sorted as two chars, the same as the old IntStream of chars
+			Arrays.sort(wide, 0, w);
+			System.arraycopy(wide, 0, chars, k, w);
+		}
+		return new String(chars, 0, n);
+	}
+
+	/**
+	 * Check whether or not two words consist of the same letters
+	 * @param a first word
+	 * @param b second word
+	 * @return true if the words are anagrams of each other (or equal)
+	 */
+	public static boolean sameLetters(String a, String b){
+		int n = a.length();
+		if(n!=b.length()) return false;
+		if(a.equals(b)) return true;
+		Buffer buffer = BUFFER.get();
+		int[] counts = buffer.counts;
+		char[] wideA = buffer.wide(n);
+		char[] wideB = buffer.otherWide(n);
+		int wa = 0, wb = 0;
+		for(int i=0; i<n; i++){
+			char ca = a.charAt(i);
+			char cb = b.charAt(i);
+			if(ca<LATIN1) counts[ca]++; else wideA[wa++] = ca;
+			if(cb<LATIN1) counts[cb]--; else wideB[wb++] = cb;
+		}
+		boolean same = wa==wb;
+		//the counts are back to zero when the letters match, otherwise reset the touched slots
+		for(int i=0; i<n; i++){
+			char c = a.charAt(i);
+			if(c<LATIN1&&counts[c]!=0){
+				same = false;
+				counts[c] = 0;
+			}
+		}
+		if(!same){
+			for(int i=0; i<n; i++){
+				char c = b.charAt(i);
+				if(c<LATIN1) counts[c] = 0;
+			}
+			return false;
+		}
+		if(wa>0){
+			Arrays.sort(wideA, 0, wa);
+			Arrays.sort(wideB, 0, wb);
+			for(int i=0; i<wa; i++){
+				if(wideA[i]!=wideB[i]) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check whether or not a packed Latin-1 word consists of the same letters as the word
+	 * @param latin1 packed words, a byte per char
+	 * @param offset first byte of the packed word, it has the length of the word
+	 */
+	static boolean sameLetters(byte[] latin1, int offset, String word){
+		int n = word.length();
+		for(int i=0; i<n; i++){
+			if(word.charAt(i)>=LATIN1) return false;
+		}
+		int[] counts = BUFFER.get().counts;
+		for(int i=0; i<n; i++){
+			counts[latin1[offset+i]&0xFF]++;
+			counts[word.charAt(i)]--;
+		}
+		boolean same = true;
+		//the same reset as for two strings
+		for(int i=0; i<n; i++){
+			int c = latin1[offset+i]&0xFF;
+			if(counts[c]!=0){
+				same = false;
+				counts[c] = 0;
+			}
+		}
+		if(!same){
+			for(int i=0; i<n; i++){
+				counts[word.charAt(i)] = 0;
+			}
+		}
+		return same;
+	}
+}
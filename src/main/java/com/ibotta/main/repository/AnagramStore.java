@@ -0,0 +1,175 @@
+package com.ibotta.main.repository;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Storage engine behind the {@link Dictionary}, words are kept in anagram groups.
+ * Lookups never lock, mutations are atomic per store.
+ */
+public interface AnagramStore extends Iterable<AnagramGroup> {
+
+	enum Mode {
+		/**
+		 * Open addressing table keyed by the letter signature, O(1) lookups
+		 */
+		HASH(12, false),
+		/**
+		 * Skip list keyed by the sorted letters, O(log n) lookups and ordered iteration
+		 */
+		SORTED(88, true),
+		/**
+		 * Immutable versions of a hash array mapped trie keyed by the letter signature, readers
+		 * pin a version, writers are serialized and publish the next one
+		 */
+		VERSIONED(12, false),
+		/**
+		 * Open addressing table keyed by the letter signature and packed words in direct buffers,
+		 * no objects per group on the heap, O(1) lookups
+		 */
+		OFFHEAP(0, false);
+
+		private final int bytesPerGroup;
+
+		private final boolean costlyMiss;
+
+		Mode(int bytesPerGroup, boolean costlyMiss){
+			this.bytesPerGroup = bytesPerGroup;
+			this.costlyMiss = costlyMiss;
+		}
+
+		/**
+		 * Getting rough store overhead of a group: about 3 table slots of the hash table
+		 * (load factor 1/4 to 1/2), a skip list node with its share of the index nodes and
+		 * the sorted letters key of the sorted store, a trie slot with its share of the trie
+		 * nodes of the versioned store. The slots and the record headers of the off-heap store
+		 * take about what the group objects would, off the heap.
+		 */
+		public int bytesPerGroup(){
+			return bytesPerGroup;
+		}
+
+		/**
+		 * Telling whether a lookup of letters no group has costs enough for a {@link SignatureFilter}
+		 * to pay off: the sorted store builds the sorted letters key and descends the skip list,
+		 * about 2 us, the filter answers in about 0.1 us. The stores keyed by the signature answer
+		 * with a probe or two in about the time the filter takes, and a hit would pay for both.
+		 */
+		public boolean costlyMiss(){
+			return costlyMiss;
+		}
+	}
+
+	/**
+	 * Receives every change of a group size, called by the writer that made the change
+	 */
+	interface Listener {
+
+		Listener NONE = (group, oldSize, newSize)->{};
+
+		/**
+		 * @param group changed group
+		 * @param oldSize 0 for a new group
+		 * @param newSize 0 for a removed group
+		 */
+		void groupChanged(AnagramGroup group, int oldSize, int newSize);
+
+		/**
+		 * Called by the {@link Dictionary} once it has replaced the whole store, i.e. deleted all the words
+		 */
+		default void storeReplaced(){
+		}
+	}
+
+	/**
+	 * Getting the current version of a multiversion store, the version never changes
+	 * @return version or null if the store changes its groups in place
+	 */
+	default AnagramVersion version(){
+		return null;
+	}
+
+	/**
+	 * Telling whether the groups read from the store are changed in place by the later
+	 * mutations, otherwise a group read is a copy as of the read
+	 */
+	default boolean changesInPlace(){
+		return true;
+	}
+
+	/**
+	 * Getting bytes the store has allocated off the heap
+	 */
+	default long offHeapMemory(){
+		return 0;
+	}
+
+	/**
+	 * Setting listener of all the following mutations
+	 */
+	void setListener(Listener listener);
+
+	/**
+	 * Getting anagram group of the word, word can be out of the group
+	 * @return group or null
+	 */
+	AnagramGroup get(String word);
+
+	/**
+	 * Adding word into its anagram group
+	 * @return true if the word was not in the store
+	 */
+	boolean add(String word);
+
+	/**
+	 * Adding words with precomputed signatures, the store may spread the work over the pool
+	 * @param batches words to add
+	 * @param pool pool for the bulk work
+	 */
+	void addAll(List<WordBatch> batches, ForkJoinPool pool);
+
+	/**
+	 * Adding a batch of words, every anagram group of the batch is changed once
+	 * @param batch words sorted by signature, see {@link WordBatch#sort}
+	 * @return count of words that were not in the store
+	 */
+	int addBatch(WordBatch batch);
+
+	/**
+	 * Adding groups built outside of the store, e.g. read from a snapshot
+	 * @param groups distinct groups not shared with any other store
+	 */
+	void addGroups(List<AnagramGroup> groups);
+
+	/**
+	 * Removing single word, empty groups are dropped
+	 * @return true if the word was in the store
+	 */
+	boolean remove(String word);
+
+	/**
+	 * Removing the whole anagram group of the word
+	 * @return removed group or null
+	 */
+	AnagramGroup removeGroup(String word);
+
+	/**
+	 * Getting count of anagram groups
+	 */
+	int groupCount();
+
+	static AnagramStore create(Mode mode){
+		switch(mode){
+			case SORTED:
+				return new SortedAnagramStore();
+			case VERSIONED:
+				return new VersionedAnagramStore();
+			case OFFHEAP:
+				return new OffHeapAnagramStore();
+			default:
+				return new HashAnagramStore();
+		}
+	}
+}
@@ -0,0 +1,553 @@
+package com.ibotta.main.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Immutable version of the {@link VersionedAnagramStore}. Groups are kept in a hash array
+ * mapped trie keyed by the letter signature, 5 bits of the signature per level, and the
+ * groups of 2 words and more are kept in a treap ordered by their sorted letters keys, so a
+ * scan of the anagrams does not visit the single words, and a page of them starts with a
+ * descent to its first key.
+ *
+ * A write copies only the path to the changed group, all the other nodes are shared with the
+ * previous version, and the groups of a version are never changed. A reader pins a version by
+ * reading it once, every lookup and scan of that version sees the same groups whatever the
+ * writers do.
+ */
+public final class AnagramVersion implements Iterable<AnagramGroup> {
+
+	private static final int BITS = 5;
+
+	private static final int MASK = (1 << BITS)-1;
+
+	//levels of a 64 bit signature
+	private static final int LEVELS = (64+BITS-1)/BITS;
+
+	static final AnagramVersion EMPTY = new AnagramVersion(Node.EMPTY, null, 0);
+
+	private final Node groups;
+
+	//root of the groups of 2 words and more, null if there are none
+	private final KeyNode anagrams;
+
+	private final int groupCount;
+
+	private AnagramVersion(Node groups, KeyNode anagrams, int groupCount){
+		this.groups = groups;
+		this.anagrams = anagrams;
+		this.groupCount = groupCount;
+	}
+
+	/**
+	 * Getting anagram group of the word, word can be out of the group
+	 * @return group or null
+	 */
+	public AnagramGroup get(String word){
+		return get(groups, AnagramKeys.signature(word), word);
+	}
+
+	AnagramGroup get(long signature, String word){
+		return get(groups, signature, word);
+	}
+
+	/**
+	 * Getting count of anagram groups
+	 */
+	public int groupCount(){
+		return groupCount;
+	}
+
+	/**
+	 * Getting anagram groups of the size or bigger, only the groups of 2 words and more are visited
+	 * @param size min group size, at least 2
+	 * @param afterKey key to start after, null to start from the first group
+	 * @return the groups in the order of their sorted letters keys
+	 */
+	public List<AnagramGroup> getAnagramSets(int size, String afterKey){
+		List<AnagramGroup> list = new ArrayList<AnagramGroup>();
+		for(Iterator<AnagramGroup> i=iterator(size, afterKey); i.hasNext();){
+			list.add(i.next());
+		}
+		return list;
+	}
+
+	/**
+	 * Iterating anagram groups of the size or bigger in the order of their sorted letters keys,
+	 * the groups before afterKey are not visited
+	 * @param size min group size, at least 2
+	 * @param afterKey key to start after, null to start from the first group
+	 */
+	public Iterator<AnagramGroup> iterator(int size, String afterKey){
+		return new Ordered(anagrams, size, afterKey);
+	}
+
+	@Override
+	public Iterator<AnagramGroup> iterator(){
+		return new Groups(groups);
+	}
+
+	/**
+	 * Starting the next version, see {@link Edit}
+	 */
+	Edit edit(){
+		return new Edit(this);
+	}
+
+	private static int bit(long signature, int shift){
+		return 1 << (int)((signature >>> shift)&MASK);
+	}
+
+	private static AnagramGroup get(Node node, long signature, String word){
+		for(int shift=0;; shift+=BITS){
+			int bit = bit(signature, shift);
+			if((node.bitmap&bit)==0) return null;
+			Object slot = node.array[node.index(bit)];
+			if(!(slot instanceof Node)){
+				return find(slot, signature, word);
+			}
+			node = (Node)slot;
+		}
+	}
+
+	/*
+	 * A leaf slot is a group or an array of groups with the same signature but other letters
+	 */
+	private static AnagramGroup find(Object leaf, long signature, String word){
+		if(leaf instanceof AnagramGroup){
+			AnagramGroup group = (AnagramGroup)leaf;
+			return group.getSignature()==signature&&group.matches(word)?group:null;
+		}
+		for(AnagramGroup group: (AnagramGroup[])leaf){
+			if(group.getSignature()==signature&&group.matches(word)) return group;
+		}
+		return null;
+	}
+
+	private static long signature(Object leaf){
+		return leaf instanceof AnagramGroup?((AnagramGroup)leaf).getSignature():((AnagramGroup[])leaf)[0].getSignature();
+	}
+
+	/**
+	 * Writer of the next version, the store serializes the writers. Nodes created by the edit
+	 * are changed in place, so a batch copies every shared node once, the others are copied.
+	 * The edit is dropped once its version is published.
+	 */
+	static final class Edit {
+
+		private Node groups;
+
+		private KeyNode anagrams;
+
+		private int groupCount;
+
+		private Edit(AnagramVersion base){
+			groups = base.groups;
+			anagrams = base.anagrams;
+			groupCount = base.groupCount;
+		}
+
+		AnagramGroup get(long signature, String word){
+			return AnagramVersion.get(groups, signature, word);
+		}
+
+		/**
+		 * Replacing the group with its changed copy
+		 * @param old group of the version, null to add a new group
+		 * @param group changed group, null to remove the group
+		 */
+		void replace(AnagramGroup old, AnagramGroup group){
+			long signature = (old!=null?old:group).getSignature();
+			groups = update(groups, signature, old, group);
+			if(old==null) groupCount++;
+			if(group==null) groupCount--;
+			boolean wasAnagram = old!=null&&old.size()>1;
+			boolean isAnagram = group!=null&&group.size()>1;
+			//a changed copy has the letters, so the key, of the old group
+			if(wasAnagram&&isAnagram){
+				anagrams = set(anagrams, group.getKey(), group);
+			}else if(isAnagram){
+				anagrams = insert(anagrams, group.getKey(), priority(signature), group);
+			}else if(wasAnagram){
+				anagrams = remove(anagrams, old.getKey());
+			}
+		}
+
+		AnagramVersion publish(){
+			AnagramVersion version = new AnagramVersion(groups, anagrams, groupCount);
+			//the nodes of the edit refer to it, the old roots would never be collected
+			groups = null;
+			anagrams = null;
+			return version;
+		}
+
+		private Node update(Node root, long signature, AnagramGroup old, AnagramGroup group){
+			Node node = update(root, 0, signature, old, group);
+			return node!=null?node:Node.EMPTY;
+		}
+
+		/**
+		 * Replacing old with group in the subtrie
+		 * @return changed node, the same node if it was changed in place, null if it is empty
+		 */
+		private Node update(Node node, int shift, long signature, AnagramGroup old, AnagramGroup group){
+			int bit = bit(signature, shift);
+			int index = node.index(bit);
+			if((node.bitmap&bit)==0){
+				return old==null?node.insert(this, bit, index, group):node;
+			}
+			Object slot = node.array[index];
+			Object updated;
+			if(slot instanceof Node){
+				updated = update((Node)slot, shift+BITS, signature, old, group);
+			}else{
+				updated = updateLeaf(slot, shift+BITS, signature, old, group);
+			}
+			if(updated==slot) return node;
+			if(updated==null) return node.remove(this, bit, index);
+			return node.set(this, index, updated);
+		}
+
+		private Object updateLeaf(Object leaf, int shift, long signature, AnagramGroup old, AnagramGroup group){
+			if(old!=null){
+				if(leaf==old) return group;
+				if(leaf instanceof AnagramGroup[]){
+					AnagramGroup[] bucket = (AnagramGroup[])leaf;
+					for(int i=0; i<bucket.length; i++){
+						if(bucket[i]==old) return replace(bucket, i, group);
+					}
+				}
+				return leaf;
+			}
+			long leafSignature = signature(leaf);
+			if(leafSignature==signature){
+				//same signature but other letters
+				AnagramGroup[] bucket = leaf instanceof AnagramGroup?new AnagramGroup[]{(AnagramGroup)leaf}:(AnagramGroup[])leaf;
+				AnagramGroup[] copy = new AnagramGroup[bucket.length+1];
+				System.arraycopy(bucket, 0, copy, 0, bucket.length);
+				copy[bucket.length] = group;
+				return copy;
+			}
+			return split(shift, leaf, leafSignature, group, signature);
+		}
+
+		private static Object replace(AnagramGroup[] bucket, int i, AnagramGroup group){
+			if(group!=null){
+				AnagramGroup[] copy = bucket.clone();
+				copy[i] = group;
+				return copy;
+			}
+			if(bucket.length==2) return bucket[1-i];
+			AnagramGroup[] copy = new AnagramGroup[bucket.length-1];
+			System.arraycopy(bucket, 0, copy, 0, i);
+			System.arraycopy(bucket, i+1, copy, i, bucket.length-i-1);
+			return copy;
+		}
+
+		/**
+		 * Pushing two leaves of different signatures down to the level where they differ
+		 */
+		private Node split(int shift, Object a, long signatureA, Object b, long signatureB){
+			int bitA = bit(signatureA, shift);
+			int bitB = bit(signatureB, shift);
+			if(bitA==bitB){
+				return new Node(this, bitA, new Object[]{split(shift+BITS, a, signatureA, b, signatureB)});
+			}
+			//bit 31 is the sign bit
+			return new Node(this, bitA|bitB, Integer.compareUnsigned(bitA, bitB)<0?new Object[]{a, b}:new Object[]{b, a});
+		}
+
+		private KeyNode set(KeyNode node, String key, AnagramGroup group){
+			node = node.own(this);
+			int c = key.compareTo(node.key);
+			if(c<0){
+				node.left = set(node.left, key, group);
+			}else if(c>0){
+				node.right = set(node.right, key, group);
+			}else{
+				node.group = group;
+			}
+			return node;
+		}
+
+		/**
+		 * Inserting the group by its key, then rotating it up while its priority is higher
+		 */
+		private KeyNode insert(KeyNode node, String key, int priority, AnagramGroup group){
+			if(node==null) return new KeyNode(this, key, priority, group, null, null);
+			node = node.own(this);
+			if(key.compareTo(node.key)<0){
+				KeyNode left = insert(node.left, key, priority, group);
+				if(left.priority>node.priority){
+					node.left = left.right;
+					left.right = node;
+					return left;
+				}
+				node.left = left;
+			}else{
+				KeyNode right = insert(node.right, key, priority, group);
+				if(right.priority>node.priority){
+					node.right = right.left;
+					right.left = node;
+					return right;
+				}
+				node.right = right;
+			}
+			return node;
+		}
+
+		private KeyNode remove(KeyNode node, String key){
+			if(node==null) return null;
+			int c = key.compareTo(node.key);
+			if(c==0) return merge(node.left, node.right);
+			node = node.own(this);
+			if(c<0){
+				node.left = remove(node.left, key);
+			}else{
+				node.right = remove(node.right, key);
+			}
+			return node;
+		}
+
+		/**
+		 * Joining two subtrees, all the keys of the first one are less than the keys of the second one
+		 */
+		private KeyNode merge(KeyNode a, KeyNode b){
+			if(a==null) return b;
+			if(b==null) return a;
+			if(a.priority>=b.priority){
+				a = a.own(this);
+				a.right = merge(a.right, b);
+				return a;
+			}
+			b = b.own(this);
+			b.left = merge(a, b.left);
+			return b;
+		}
+	}
+
+	//heap priority of a treap node, a function of the letters so a group keeps its place in the tree
+	private static int priority(long signature){
+		long z = signature*0x9E3779B97F4A7C15L;
+		return (int)(z^(z >>> 32));
+	}
+
+	private static final class Node {
+
+		static final Node EMPTY = new Node(null, 0, new Object[0]);
+
+		//the edit that created the node, only that edit may change it
+		private final Edit edit;
+
+		private int bitmap;
+
+		//subtries and leaves in the order of their bits
+		private Object[] array;
+
+		Node(Edit edit, int bitmap, Object[] array){
+			this.edit = edit;
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		int index(int bit){
+			return Integer.bitCount(bitmap&(bit-1));
+		}
+
+		Node insert(Edit edit, int bit, int index, Object leaf){
+			Object[] copy = new Object[array.length+1];
+			System.arraycopy(array, 0, copy, 0, index);
+			copy[index] = leaf;
+			System.arraycopy(array, index, copy, index+1, array.length-index);
+			if(this.edit==edit){
+				bitmap |= bit;
+				array = copy;
+				return this;
+			}
+			return new Node(edit, bitmap|bit, copy);
+		}
+
+		Node set(Edit edit, int index, Object child){
+			if(this.edit==edit){
+				array[index] = child;
+				return this;
+			}
+			Object[] copy = array.clone();
+			copy[index] = child;
+			return new Node(edit, bitmap, copy);
+		}
+
+		Node remove(Edit edit, int bit, int index){
+			if(array.length==1) return null;
+			Object[] copy = new Object[array.length-1];
+			System.arraycopy(array, 0, copy, 0, index);
+			System.arraycopy(array, index+1, copy, index, array.length-index-1);
+			if(this.edit==edit){
+				bitmap ^= bit;
+				array = copy;
+				return this;
+			}
+			return new Node(edit, bitmap^bit, copy);
+		}
+	}
+
+	/**
+	 * Node of the treap of the anagram groups, ordered by the keys and a max heap by the
+	 * priorities. A node is changed in place by the edit that created it only, like {@link Node}.
+	 */
+	private static final class KeyNode {
+
+		private final Edit edit;
+
+		private final String key;
+
+		private final int priority;
+
+		private AnagramGroup group;
+
+		private KeyNode left;
+
+		private KeyNode right;
+
+		KeyNode(Edit edit, String key, int priority, AnagramGroup group, KeyNode left, KeyNode right){
+			this.edit = edit;
+			this.key = key;
+			this.priority = priority;
+			this.group = group;
+			this.left = left;
+			this.right = right;
+		}
+
+		KeyNode own(Edit edit){
+			return this.edit==edit?this:new KeyNode(edit, key, priority, group, left, right);
+		}
+	}
+
+	/**
+	 * In order walk of the treap from the first key after a key
+	 */
+	private static final class Ordered implements Iterator<AnagramGroup> {
+
+		//nodes left to visit, each one before its right subtree
+		private KeyNode[] stack = new KeyNode[32];
+
+		private int depth;
+
+		private final int size;
+
+		private AnagramGroup next;
+
+		Ordered(KeyNode root, int size, String afterKey){
+			this.size = size;
+			for(KeyNode node=root; node!=null;){
+				if(afterKey==null||node.key.compareTo(afterKey)>0){
+					push(node);
+					node = node.left;
+				}else{
+					node = node.right;
+				}
+			}
+			next = advance();
+		}
+
+		private void push(KeyNode node){
+			if(depth==stack.length){
+				stack = Arrays.copyOf(stack, depth*2);
+			}
+			stack[depth++] = node;
+		}
+
+		private AnagramGroup advance(){
+			while(depth>0){
+				KeyNode node = stack[--depth];
+				stack[depth] = null;
+				for(KeyNode left=node.right; left!=null; left=left.left){
+					push(left);
+				}
+				if(node.group.size()>=size) return node.group;
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext(){
+			return next!=null;
+		}
+
+		@Override
+		public AnagramGroup next(){
+			if(next==null) throw new NoSuchElementException();
+			AnagramGroup group = next;
+			next = advance();
+			return group;
+		}
+	}
+
+	/**
+	 * Depth first walk of a trie
+	 */
+	private static final class Groups implements Iterator<AnagramGroup> {
+
+		private final Object[][] arrays = new Object[LEVELS+1][];
+
+		private final int[] positions = new int[LEVELS+1];
+
+		private int level;
+
+		private AnagramGroup[] bucket;
+
+		private int inBucket;
+
+		private AnagramGroup next;
+
+		Groups(Node root){
+			arrays[0] = root.array;
+			next = advance();
+		}
+
+		private AnagramGroup advance(){
+			if(bucket!=null){
+				if(inBucket<bucket.length) return bucket[inBucket++];
+				bucket = null;
+			}
+			while(level>=0){
+				Object[] array = arrays[level];
+				if(positions[level]==array.length){
+					level--;
+					continue;
+				}
+				Object slot = array[positions[level]++];
+				if(slot instanceof Node){
+					level++;
+					arrays[level] = ((Node)slot).array;
+					positions[level] = 0;
+				}else if(slot instanceof AnagramGroup){
+					return (AnagramGroup)slot;
+				}else{
+					bucket = (AnagramGroup[])slot;
+					inBucket = 1;
+					return bucket[0];
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext(){
+			return next!=null;
+		}
+
+		@Override
+		public AnagramGroup next(){
+			if(next==null) throw new NoSuchElementException();
+			AnagramGroup group = next;
+			next = advance();
+			return group;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.ibotta.main.repository;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Counts and timing of a single batch of words added to the {@link Dictionary}
+ */
+public final class BatchResult {
+
+	private final int words;
+
+	private final int added;
+
+	private final int groups;
+
+	private final long nanos;
+
+	BatchResult(int words, int added, int groups, long nanos){
+		this.words = words;
+		this.added = added;
+		this.groups = groups;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * Getting count of words received
+	 */
+	public int getWords(){
+		return words;
+	}
+
+	/**
+	 * Getting count of words that were not in the dictionary
+	 */
+	public int getAdded(){
+		return added;
+	}
+
+	/**
+	 * Getting count of anagram groups the batch touched
+	 */
+	public int getGroups(){
+		return groups;
+	}
+
+	/**
+	 * Getting time spent on the batch
+	 */
+	public long getNanos(){
+		return nanos;
+	}
+}
@@ -1,16 +1,26 @@
 package com.ibotta.main.repository;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Repository;
@@ -23,123 +33,688 @@ import org.springframework.stereotype.Repository;
 @Scope(value = ConfigurableBeanFactory.SCOPE_SINGLETON)
 public class Dictionary {
 	
+	private static final Logger log = LoggerFactory.getLogger(Dictionary.class);
+	
 	private final String dicFileName = "dictionary.txt";
 	
-	private Map<String, Set<String>> cache;
+	private final String snapshotFileName = "dictionary.snapshot";
+	
+	/**
+	 * hash - O(1) lookups, sorted - ordered iteration of groups, versioned - immutable versions,
+	 * offheap - groups kept in direct buffers
+	 */
+	@Value("${dictionary.store:hash}")
+	private String storeMode = "hash";
+	
+	/**
+	 * text - parse dictionary.txt, snapshot - read the binary snapshot generated by the build,
+	 * none - start empty, i.e. a router in front of the shards
+	 */
+	@Value("${dictionary.source:text}")
+	private String source = "text";
+	
+	/**
+	 * Directory of the write-ahead log of the mutations, they are lost by a restart if it is empty
+	 */
+	@Value("${dictionary.wal.dir:}")
+	private String walDir = "";
+	
+	/**
+	 * write - fsync every mutation, batch - fsync the mutations made meanwhile together,
+	 * interval - fsync every interval, the mutations do not wait for it
+	 */
+	@Value("${dictionary.wal.sync:batch}")
+	private String walSync = "batch";
+	
+	@Value("${dictionary.wal.interval-ms:100}")
+	private long walIntervalMillis = 100;
+	
+	/**
+	 * Segment size that folds the log into a new base snapshot
+	 */
+	@Value("${dictionary.wal.compact-bytes:67108864}")
+	private long walCompactBytes = 64L << 20;
+	
+	/**
+	 * Shards of a sharded dictionary, comma separated base URLs, see {@link ShardRing}
+	 */
+	@Value("${dictionary.shards:}")
+	private String shards = "";
+	
+	/**
+	 * Base URL of this shard among the shards, it loads only the groups it owns. Empty loads all of them.
+	 */
+	@Value("${dictionary.shard:}")
+	private String shard = "";
+	
+	/**
+	 * Count of the last mutated words kept for the read replicas, 0 disables the feed, see {@link DictionaryFeed}
+	 */
+	@Value("${dictionary.feed.capacity:0}")
+	private long feedCapacity = 0;
+	
+	/**
+	 * Base URL of the primary of a read replica, the replica copies its words instead of loading
+	 * a source. Empty if this is not a replica.
+	 */
+	@Value("${dictionary.primary:}")
+	private String primary = "";
+	
+	/**
+	 * auto - signature filter in front of the stores with a costly miss, see {@link AnagramStore.Mode#costlyMiss},
+	 * always - in front of any store, never - no filter
+	 */
+	@Value("${dictionary.filter:auto}")
+	private String filterMode = "auto";
+	
+	/**
+	 * False positive rate of the signature filter, see {@link SignatureFilter}
+	 */
+	@Value("${dictionary.filter.fpp:0.01}")
+	private double filterFpp = 0.01;
+	
+	/**
+	 * Max size of the signature filter, a bigger dictionary gets a higher false positive rate
+	 */
+	@Value("${dictionary.filter.max-bytes:16777216}")
+	private long filterMaxBytes = 16L << 20;
+	
+	private static final int STRIPES = 64;
+	
+	//signatures of the groups this shard loads, null if it is not a shard
+	private LongPredicate owned;
+	
+	private DictionaryLog wal;
+	
+	private DictionaryFeed feed;
 	
-	public Map<String, Set<String>> getDataStorage(){
-		return cache;
+	//order the changes of a group with its word index entries, log records and feed events
+	private final ReentrantLock[] stripes = stripes();
+	
+	private volatile AnagramStore cache;
+	
+	//written before the store it filters, null if it is disabled
+	private volatile SignatureFilter filter;
+	
+	private volatile DictionaryStatistics statistics = new DictionaryStatistics();
+	
+	private volatile GroupSizeIndex sizeIndex = new GroupSizeIndex();
+	
+	private volatile SignatureIndex signatureIndex = new SignatureIndex();
+	
+	private volatile WordIndex wordIndex = new WordIndex();
+	
+	private final DictionaryCounters counters = new DictionaryCounters();
+	
+	//listeners outside of the repository, they follow every store
+	private volatile AnagramStore.Listener[] listeners = new AnagramStore.Listener[0];
+	
+	private volatile LetterIndex.Follower letterIndex;
+	
+	public Dictionary(){
 	}
 	
-	private Map<String, Set<String>> initCache(){
-		
-		/*
-		 * The HashMap implementation provides constant time performance for (get and put) basic operations 
-		 * i.e the complexity of get() and put() is O(1) , assuming the hash function disperses the elements 
-		 * properly among the buckets. 
-		 */
-		//return new ConcurrentHashMap<String, Set<String>>();
-		
+	/**
+	 * Creating dictionary outside of the application context, i.e. in tests and benchmarks
+	 * @param mode store mode
+	 */
+	public Dictionary(AnagramStore.Mode mode){
+		this.storeMode = mode.name();
+	}
+	
+	/**
+	 * Creating dictionary outside of the application context with a signature filter
+	 * @param mode store mode
+	 * @param filterFpp false positive rate of the filter, 0 disables it
+	 */
+	public Dictionary(AnagramStore.Mode mode, double filterFpp){
+		this.storeMode = mode.name();
+		this.filterMode = filterFpp>0?"always":"never";
+		this.filterFpp = filterFpp;
+	}
+	
+	/**
+	 * Getting all anagram groups, iteration is weakly consistent or as of a single version
+	 */
+	public Stream<AnagramGroup> getAnagramGroups(){
+		return StreamSupport.stream(cache.spliterator(), false);
+	}
+	
+	public int getGroupCount(){
+		return cache.groupCount();
+	}
+	
+	/**
+	 * Getting word statistics, they are updated by every mutation
+	 */
+	public DictionaryStatistics getStatistics(){
+		return statistics;
+	}
+	
+	/**
+	 * Getting operation counters, they are not reset by deleteWords
+	 */
+	public DictionaryCounters getCounters(){
+		return counters;
+	}
+	
+	/**
+	 * Getting rough heap footprint of the words and the groups, see {@link AnagramStore.Mode#bytesPerGroup}
+	 */
+	public long getEstimatedMemory(){
+		DictionaryStatistics stats = statistics;
+		return stats.getEstimatedMemory(getStoreMode().bytesPerGroup());
+	}
+	
+	/**
+	 * Getting bytes the store has allocated off the heap, 0 unless the store is off-heap
+	 */
+	public long getOffHeapMemory(){
+		return cache.offHeapMemory();
+	}
+	
+	/**
+	 * Getting anagram groups of the size or bigger from the group size index, or from the
+	 * current version of a versioned store
+	 * @param size min group size, at least 2
+	 * @return the groups in the order of their sorted letters keys
+	 */
+	public List<AnagramGroup> getAnagramSets(int size){
+		AnagramVersion version = cache.version();
+		return version!=null?version.getAnagramSets(size, null):sizeIndex.getAtLeast(size);
+	}
+	
+	/**
+	 * Iterating anagram groups of the size or bigger in the order of their sorted letters keys.
+	 * A versioned store is iterated as of a single version, the others are weakly consistent.
+	 * @param size min group size, at least 2
+	 * @param afterKey key to start after, null to start from the first group
+	 */
+	public Iterator<AnagramGroup> getAnagramSets(int size, String afterKey){
+		AnagramVersion version = cache.version();
+		return version!=null?version.iterator(size, afterKey):sizeIndex.iterator(size, afterKey);
+	}
+	
+	/**
+	 * Getting letter count index of all the groups for the queries by letters, the index is
+	 * built by the first query and follows every mutation
+	 */
+	public LetterIndex getLetterIndex(){
+		return letterIndex.get();
+	}
+	
+	/**
+	 * Getting signature filter of all the groups, the lookups of the letters it does not have skip the store
+	 * @return filter or null if it is disabled
+	 */
+	public SignatureFilter getFilter(){
+		return filter;
+	}
+	
+	/**
+	 * Getting signature index of all the groups for the near anagram lookups, the index follows
+	 * every mutation
+	 */
+	public SignatureIndex getSignatureIndex(){
+		return signatureIndex;
+	}
+	
+	/**
+	 * Getting index of the words for the prefix, suffix and pattern searches, the index follows
+	 * every mutation made through the dictionary
+	 */
+	public WordIndex getWordIndex(){
+		return wordIndex;
+	}
+	
+	/**
+	 * Getting feed of the mutations for the read replicas
+	 * @return feed or null if it is disabled or this is a replica
+	 */
+	public DictionaryFeed getFeed(){
+		return feed;
+	}
+	
+	/**
+	 * Telling whether this is a read replica, its words change only by the feed of its primary
+	 */
+	public boolean isReplica(){
+		return !primary.trim().isEmpty();
+	}
+	
+	/**
+	 * Pinning the current version of the store, see {@link AnagramStore.Mode#VERSIONED}
+	 * @return immutable version or null if the store changes its groups in place
+	 */
+	public AnagramVersion getVersion(){
+		return cache.version();
+	}
+	
+	/**
+	 * Getting one of the biggest anagram groups
+	 * @return group or null if there are no anagrams
+	 */
+	public AnagramGroup getLargestAnagramSet(){
+		return sizeIndex.getLargest();
+	}
+	
+	/**
+	 * Indexing the store and making it current, the indexes follow all the later mutations
+	 */
+	private void publish(AnagramStore store){
+		DictionaryStatistics stats = new DictionaryStatistics();
+		GroupSizeIndex index = new GroupSizeIndex();
+		//a store that is a signature table itself is probed directly, only the others get a table to follow
+		boolean probed = store instanceof SignatureIndex.Groups;
+		SignatureIndex signatures = probed?new SignatureIndex((SignatureIndex.Groups)store):new SignatureIndex(store.groupCount());
+		SignatureFilter bloom = isFiltered()?new SignatureFilter(store, filterFpp, filterMaxBytes):null;
+		LetterIndex.Follower letters = new LetterIndex.Follower(store);
+		for(AnagramGroup group: store){
+			stats.groupChanged(group, 0, group.size());
+			index.groupChanged(group, 0, group.size());
+			if(!probed){
+				signatures.groupChanged(group, 0, group.size());
+			}
+		}
+		store.setListener((group, oldSize, newSize)->{
+			stats.groupChanged(group, oldSize, newSize);
+			index.groupChanged(group, oldSize, newSize);
+			if(!probed){
+				signatures.groupChanged(group, oldSize, newSize);
+			}
+			if(bloom!=null){
+				bloom.groupChanged(group, oldSize, newSize);
+			}
+			letters.groupChanged(group, oldSize, newSize);
+			for(AnagramStore.Listener listener: listeners){
+				listener.groupChanged(group, oldSize, newSize);
+			}
+		});
+		statistics = stats;
+		sizeIndex = index;
+		signatureIndex = signatures;
+		wordIndex = WordIndex.of(store);
+		letterIndex = letters;
+		//a reader that sees the store sees its filter
+		filter = bloom;
+		cache = store;
+		for(AnagramStore.Listener listener: listeners){
+			listener.storeReplaced();
+		}
+	}
+	
+	/**
+	 * Following all the mutations, i.e. to invalidate derived data. The listener is called
+	 * by the writer under the store lock of the group, it has to be quick.
+	 * @param listener listener of the current and all the later stores
+	 */
+	public synchronized void addListener(AnagramStore.Listener listener){
+		AnagramStore.Listener[] copy = Arrays.copyOf(listeners, listeners.length+1);
+		copy[listeners.length] = listener;
+		listeners = copy;
+	}
+	
+	private AnagramStore initCache(){
 		
 		/*
-		 * Treemap(ConcurrentSkipListMap) is sorted according to the natural ordering of its keys, or by a 
-		 * Comparator provided at map creation time, depending on which constructor is used. This implementation 
-		 * provides guaranteed log(n)time cost for the containsKey, get, put and remove operations. 
-		 * For search operation,in java 7,it will take O(n) with a linked list. 
-		 * While in java 8 , the same search operation in a tree will cost O(log(n)).
+		 * The HASH store is an open addressing table keyed by a primitive letter signature, 
+		 * constant time get, add and remove without entry nodes or String keys.
+		 * 
+		 * The SORTED store is a ConcurrentSkipListMap keyed by the sorted letters, log(n) time cost 
+		 * but groups are iterated in the natural ordering of their keys.
+		 * 
+		 * The VERSIONED store publishes immutable versions of a hash array mapped trie, readers
+		 * pin a version and see it unchanged, writes are serialized.
+		 * 
+		 * The OFFHEAP store keeps the signature table and the packed words in direct buffers,
+		 * so a big dictionary does not fill the old generation with small objects.
 		 */
-		return new ConcurrentSkipListMap<String, Set<String>>();
+		return AnagramStore.create(getStoreMode());
+	}
+	
+	private boolean isFiltered(){
+		switch(filterMode.trim().toLowerCase()){
+		case "always":
+			return true;
+		case "never":
+			return false;
+		default:
+			return getStoreMode().costlyMiss();
+		}
 	}
 	
-	private Set<String> initAnagramGroup(){
-		return new CopyOnWriteArraySet<String>();
+	private AnagramStore.Mode getStoreMode(){
+		return AnagramStore.Mode.valueOf(storeMode.trim().toUpperCase());
 	}
 
 	@PostConstruct
     public void init() {
-        cache = initCache();
-        
-        try (BufferedReader br =  new BufferedReader(new InputStreamReader(
-                this.getClass().getResourceAsStream("/" + dicFileName)))) {
-
-			String word;
-			while ((word = br.readLine()) != null) {
-				String key = this.getDictionaryKey(word);
-	        	Set<String> set = cache.get(key);
-	        	if(set==null){
-	        		cache.put(key, initAnagramGroup());
-	        	}
-	        	cache.get(key).add(word);
+		long start = System.nanoTime();
+		if(!shard.trim().isEmpty()){
+			ShardRing ring = ShardRing.parse(shards);
+			int self = ring!=null?ring.indexOf(shard.trim()):-1;
+			if(self<0){
+				throw new IllegalStateException("Shard " + shard + " is not one of the dictionary.shards " + shards);
 			}
+			owned = signature->ring.owner(signature)==self;
+		}
+		if(isFiltered()&&!(filterFpp>0&&filterFpp<1)){
+			throw new IllegalStateException("dictionary.filter.fpp has to be between 0 and 1: " + filterFpp);
+		}
+		if(isReplica()&&!walDir.trim().isEmpty()){
+			throw new IllegalStateException("A replica of " + primary + " has the words of the primary, it has no write-ahead log");
+		}
+		if(!walDir.trim().isEmpty()){
+			try {
+				wal = new DictionaryLog(Paths.get(walDir.trim()), DictionaryLog.Sync.valueOf(walSync.trim().toUpperCase()), walIntervalMillis, walCompactBytes);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Cannot open the write-ahead log in " + walDir, e);
+			}
+		}
+		if(feedCapacity>0&&!isReplica()){
+			feed = new DictionaryFeed(feedCapacity);
+		}
+		load();
+		counters.initNanos = System.nanoTime()-start;
+	}
+
+	/**
+	 * Forcing the pending log records
+	 */
+	@PreDestroy
+	public void close() throws IOException {
+		if(wal!=null){
+			wal.close();
+		}
+	}
+
+	private void load() {
+        URL text = this.getClass().getResource("/" + dicFileName);
+        if(isReplica()){
+        	//the words are copied from the primary, see DictionaryReplication
+        	publish(initCache());
+        	return;
+        }
+        if(wal==null){
+        	publish(loadBase(text));
+        	return;
+        }
+        try {
+        	//a compacted log has its own base, the segments before it are gone
+        	URL base = wal.getBase();
+        	long start = System.nanoTime();
+        	AnagramStore store = base!=null?DictionarySnapshot.read(base, null, getStoreMode(), owned):loadBase(text);
+        	AnagramStore[] replayed = {store};
+        	long records = wal.replay((op, words)->replayed[0] = replay(replayed[0], op, words));
+        	log.info("Replayed {} log records in {} ms", records, (System.nanoTime()-start)/1_000_000);
+        	publish(replayed[0]);
+        	wal.start(()->cache, DictionarySnapshot.Source.of(text));
+        } catch (IOException e) {
+        	throw new UncheckedIOException("Cannot replay the write-ahead log in " + walDir, e);
+        }
+    }
+
+	private AnagramStore loadBase(URL text) {
+        AnagramStore store = loadSource(text);
+        if(owned!=null){
+        	log.info("Shard {} owns {} groups", shard.trim(), store.groupCount());
+        }
+        return store;
+    }
+
+	private AnagramStore loadSource(URL text) {
+        if("none".equalsIgnoreCase(source.trim())){
+        	return initCache();
+        }
+        if("snapshot".equalsIgnoreCase(source.trim())){
+        	URL snapshot = this.getClass().getResource("/" + snapshotFileName);
+        	if(snapshot!=null){
+        		try {
+        			long start = System.nanoTime();
+        			AnagramStore store = DictionarySnapshot.read(snapshot, DictionarySnapshot.Source.of(text), getStoreMode(), owned);
+        			log.info("Loaded {} groups from {} in {} ms", store.groupCount(), snapshot, (System.nanoTime()-start)/1_000_000);
+        			return store;
+        		} catch (IOException e) {
+        			log.warn("Falling back to {}: {}", dicFileName, e.getMessage());
+        		}
+        	}else{
+        		log.warn("Falling back to {}: {} not found", dicFileName, snapshotFileName);
+        	}
+        }
+        try {
+        	return new DictionaryLoader(getStoreMode(), ForkJoinPool.commonPool(), owned).load(text);
 		} catch (IOException e) {
 			e.printStackTrace();
+			return initCache();
 		}
     }
 
-	private String getDictionaryKey(String word){
-		if(word==null) return null;
-		return word.chars().sorted().
-		collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append).
-		toString();
+	/**
+	 * Applying a log record to the store before it is published
+	 * @return the store, a new one after a clear
+	 */
+	private AnagramStore replay(AnagramStore store, byte op, String[] words){
+		switch(op){
+		case DictionaryLog.ADD:
+			if(words.length==1){
+				store.add(words[0]);
+			}else{
+				WordBatch batch = new WordBatch(words.length);
+				Arrays.stream(words).forEach(batch::add);
+				batch.sort();
+				store.addBatch(batch);
+			}
+			return store;
+		case DictionaryLog.DELETE:
+			store.remove(words[0]);
+			return store;
+		case DictionaryLog.DELETE_GROUP:
+			store.removeGroup(words[0]);
+			return store;
+		case DictionaryLog.CLEAR:
+			return initCache();
+		default:
+			throw new IllegalStateException("Unknown log record " + op);
+		}
+	}
+
+	private static ReentrantLock[] stripes(){
+		ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+		for(int i=0; i<STRIPES; i++){
+			stripes[i] = new ReentrantLock();
+		}
+		return stripes;
+	}
+
+	/**
+	 * Locking the group of the word, so its word index entries, log records and feed events are
+	 * in the order of its changes
+	 */
+	private ReentrantLock lock(String word){
+		long signature = AnagramKeys.signature(word);
+		ReentrantLock lock = stripes[(int)((signature^signature>>>32)*0x9E3779B9L>>>26)&STRIPES-1];
+		lock.lock();
+		return lock;
 	}
 
-	public Set<String> getAnagramSet(String word){
+	/**
+	 * Locking all the groups for a batch or a clear
+	 */
+	private void lockAll(){
+		for(ReentrantLock lock: stripes){
+			lock.lock();
+		}
+	}
+
+	private void unlockAll(){
+		for(int i=STRIPES-1; i>=0; i--){
+			stripes[i].unlock();
+		}
+	}
+
+	/**
+	 * Appending log record and feed event of a change, under the lock of the change
+	 * @return sequence to wait for once the lock is released, 0 if there is no log
+	 */
+	private long log(byte op, String...words){
+		if(feed!=null){
+			feed.append(op, words);
+		}
+		return wal!=null?wal.append(op, words):0;
+	}
+
+	/**
+	 * Waiting until the log records are durable as the sync policy says
+	 */
+	private void await(long sequence){
+		if(sequence>0) wal.await(sequence);
+	}
+
+	public AnagramGroup getAnagramSet(String word){
 		//retrieving anagrams, word can be out of set
-		return cache.get(this.getDictionaryKey(word));
+		AnagramGroup group = find(word);
+		(group!=null?counters.hits:counters.misses).increment();
+		return group;
+	}
+
+	/**
+	 * Getting anagram group of the word, the letters the filter does not have are not looked up in the store
+	 */
+	private AnagramGroup find(String word){
+		AnagramStore store = cache;
+		SignatureFilter bloom = filter;
+		if(bloom==null) return store.get(word);
+		if(!bloom.mightContain(AnagramKeys.signature(word))){
+			counters.filtered.increment();
+			return null;
+		}
+		AnagramGroup group = store.get(word);
+		if(group==null){
+			counters.falsePositives.increment();
+		}
+		return group;
 	}
 
+	/**
+	 * Adding words, safe to call from many threads: the store locks only the group of every word
+	 */
 	public void addWords(String...words){
-		Arrays.stream(words).forEach(
-			word->{
-				String key = this.getDictionaryKey(word);
-				Set<String> set = cache.get(key);
-				if(set==null){
-					set = new CopyOnWriteArraySet<String>();
+		long sequence = 0;
+		for(String word: words){
+			ReentrantLock lock = lock(word);
+			try {
+				if(cache.add(word)){
+					wordIndex.add(word);
+					counters.added.increment();
+					sequence = log(DictionaryLog.ADD, word);
 				}
-				set.add(word);
-				cache.put(key, set);
+			} finally {
+				lock.unlock();
+			}
+		}
+		await(sequence);
+	}
+
+	/**
+	 * Adding a batch of words at once: the words are sorted by signature, so the duplicates and
+	 * the anagrams are adjacent, and every anagram group of the batch is changed once
+	 * @param words any words, duplicates are dropped
+	 * @return counts and timing of the batch
+	 */
+	public BatchResult addBatch(List<String> words){
+		long start = System.nanoTime();
+		WordBatch batch = new WordBatch(words.size());
+		words.forEach(batch::add);
+		int groups = batch.sort();
+		long sequence = 0;
+		int added;
+		lockAll();
+		try {
+			WordIndex index = wordIndex;
+			added = cache.addBatch(batch);
+			if(added>0){
+				//the store does not tell which words were new, the index drops the known ones
+				words.forEach(index::add);
+				sequence = log(DictionaryLog.ADD, words.toArray(new String[words.size()]));
 			}
-		);
+		} finally {
+			unlockAll();
+		}
+		await(sequence);
+		counters.added.add(added);
+		return new BatchResult(words.size(), added, groups, System.nanoTime()-start);
 	}
 
 	public boolean deleteWord(String word){
-		String key = this.getDictionaryKey(word);
-		Set<String> set = cache.get(key);
-		if(set!=null&&set.contains(word)){
-			set.remove(word);
-			return true;
+		long sequence = 0;
+		ReentrantLock lock = lock(word);
+		try {
+			if(!cache.remove(word)) return false;
+			wordIndex.remove(word);
+			counters.deleted.increment();
+			sequence = log(DictionaryLog.DELETE, word);
+		} finally {
+			lock.unlock();
 		}
-		return false;
+		await(sequence);
+		return true;
 	}
 
+	/**
+	 * Replacing the store with an empty one, the volatile write publishes it together with its
+	 * indexes. The writes are locked out during the clear, so the store and the word index are
+	 * swapped together.
+	 */
 	public void deleteWords(){
-		cache = initCache();
+		long sequence;
+		lockAll();
+		try {
+			publish(initCache());
+			sequence = log(DictionaryLog.CLEAR);
+		} finally {
+			unlockAll();
+		}
+		await(sequence);
+		counters.clears.increment();
 	}
 	
 	//Optional
 
 	public boolean deleteAnagramsByWord(String word){
-		String key = this.getDictionaryKey(word);
-		Set<String> set = cache.get(key);
+		AnagramGroup set = find(word);
 		//Note that a word is not considered to be its own anagram.
 		if(set!=null&&set.size()>1){
-			cache.remove(key);
-			return true;
+			return removeGroup(word);
 		}
 		return false;
 	}
 
+	private boolean removeGroup(String word){
+		long sequence;
+		AnagramGroup group;
+		ReentrantLock lock = lock(word);
+		try {
+			group = cache.removeGroup(word);
+			if(group==null) return false;
+			WordIndex index = wordIndex;
+			group.forEach(index::remove);
+			sequence = log(DictionaryLog.DELETE_GROUP, word);
+		} finally {
+			lock.unlock();
+		}
+		await(sequence);
+		counters.groupsDeleted.increment();
+		counters.deleted.add(group.size());
+		return true;
+	}
+
 	public boolean checkIfAllWordsAreInOneAnagramSet(String...words){
 		if(words.length<1) return false;
 		
 		if(Arrays.stream(words).
-			map(this::getDictionaryKey).
-			distinct().
-			count()>1) return false;
+			anyMatch(s->!AnagramKeys.sameLetters(words[0], s))) return false;
 		
-		String key = this.getDictionaryKey(words[0]);
-		
-		Set<String> set = cache.get(key);
+		AnagramGroup set = find(words[0]);
 		if(set!=null&&set.size()>1){
 			return Arrays.stream(words).
 			filter(s->!set.contains(s)).
@@ -147,4 +722,48 @@ public class Dictionary {
 		}
 		return false;
 	}
+	/**
+	 * Writing snapshot of the words for a new read replica. The store changes meanwhile, so the
+	 * snapshot has all the events of the feed up to the sequence read before it, and maybe some
+	 * later ones.
+	 */
+	public void writeSnapshot(OutputStream out) throws IOException {
+		DictionarySnapshot.write(cache, DictionarySnapshot.Source.of(this.getClass().getResource("/" + dicFileName)), out);
+	}
+
+	/**
+	 * Replacing the words of a replica with a snapshot of its primary
+	 * @param snapshot snapshot written by {@link #writeSnapshot}
+	 * @throws IOException if the snapshot is corrupted
+	 */
+	public void follow(ByteBuffer snapshot) throws IOException {
+		publish(DictionarySnapshot.read(snapshot, "snapshot of " + primary, null, getStoreMode(), owned));
+	}
+
+	/**
+	 * Applying an event of the feed of the primary to a replica, through the mutations so the
+	 * indexes and the listeners follow it. Unlike DELETE /anagrams/{word}, the group of the word
+	 * is removed whatever its size is: an event applied again after a snapshot that already has
+	 * it removes the words the primary removed.
+	 */
+	public void apply(DictionaryFeed.Op op, String[] words){
+		switch(op){
+		case ADD:
+			if(words.length==1){
+				addWords(words[0]);
+			}else{
+				addBatch(Arrays.asList(words));
+			}
+			break;
+		case DELETE:
+			deleteWord(words[0]);
+			break;
+		case DELETE_GROUP:
+			removeGroup(words[0]);
+			break;
+		case CLEAR:
+			deleteWords();
+			break;
+		}
+	}
 }
@@ -0,0 +1,97 @@
+package com.ibotta.main.repository;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Monotonic operation counters of the {@link Dictionary}, they survive DELETE /words.
+ * Counting is a LongAdder increment, there is no allocation and no shared cache line
+ * on the hot path.
+ */
+public final class DictionaryCounters {
+
+	final LongAdder hits = new LongAdder();
+
+	final LongAdder misses = new LongAdder();
+
+	final LongAdder added = new LongAdder();
+
+	final LongAdder deleted = new LongAdder();
+
+	final LongAdder groupsDeleted = new LongAdder();
+
+	final LongAdder clears = new LongAdder();
+
+	final LongAdder filtered = new LongAdder();
+
+	final LongAdder falsePositives = new LongAdder();
+
+	volatile long initNanos;
+
+	DictionaryCounters(){
+	}
+
+	/**
+	 * Getting count of anagram group lookups that found a group
+	 */
+	public long getLookupHits(){
+		return hits.sum();
+	}
+
+	/**
+	 * Getting count of anagram group lookups that found nothing
+	 */
+	public long getLookupMisses(){
+		return misses.sum();
+	}
+
+	/**
+	 * Getting count of words added, duplicates are not counted
+	 */
+	public long getAddedWords(){
+		return added.sum();
+	}
+
+	/**
+	 * Getting count of words deleted one by one or with their anagram group
+	 */
+	public long getDeletedWords(){
+		return deleted.sum();
+	}
+
+	/**
+	 * Getting count of anagram groups deleted at once
+	 */
+	public long getDeletedGroups(){
+		return groupsDeleted.sum();
+	}
+
+	/**
+	 * Getting count of the times the whole dictionary was deleted
+	 */
+	public long getClears(){
+		return clears.sum();
+	}
+
+	/**
+	 * Getting count of lookups the signature filter answered without the store
+	 */
+	public long getFilteredLookups(){
+		return filtered.sum();
+	}
+
+	/**
+	 * Getting count of lookups the signature filter let through and the store did not find
+	 */
+	public long getFilterFalsePositives(){
+		return falsePositives.sum();
+	}
+
+	/**
+	 * Getting time the last init took, 0 before the init
+	 */
+	public long getInitNanos(){
+		return initNanos;
+	}
+}
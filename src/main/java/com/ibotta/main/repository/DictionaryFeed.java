@@ -0,0 +1,177 @@
+package com.ibotta.main.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Ordered feed of the dictionary mutations for the read replicas. Every mutation gets the next
+ * sequence number when it is made, under the lock that orders the changes of its anagram group
+ * like a log record, see {@link Dictionary}, so the events of a group are in the order of its
+ * changes and a clear is ordered with all the others.
+ *
+ * The feed keeps the events of the last mutated words in a ring, a follower that falls further
+ * behind than that has to take a new snapshot. A batch is split into events of at most
+ * {@link #MAX_EVENT_WORDS} words, so a big batch is not kept whole and a read of the feed is
+ * bounded by words as well as by events. The sequence numbers start over with every start, the
+ * id tells the feeds of the starts apart.
+ */
+public final class DictionaryFeed {
+
+	public enum Op {
+
+		ADD(DictionaryLog.ADD),
+
+		DELETE(DictionaryLog.DELETE),
+
+		DELETE_GROUP(DictionaryLog.DELETE_GROUP),
+
+		CLEAR(DictionaryLog.CLEAR);
+
+		//op of the log record of the same change
+		final byte code;
+
+		Op(byte code){
+			this.code = code;
+		}
+
+		static Op of(byte code){
+			for(Op op: values()){
+				if(op.code==code) return op;
+			}
+			throw new IllegalArgumentException("Unknown op " + code);
+		}
+	}
+
+	public static final class Event {
+
+		private final long sequence;
+
+		private final Op op;
+
+		private final String[] words;
+
+		private Event(long sequence, Op op, String[] words){
+			this.sequence = sequence;
+			this.op = op;
+			this.words = words;
+		}
+
+		public long getSequence(){
+			return sequence;
+		}
+
+		public Op getOp(){
+			return op;
+		}
+
+		public String[] getWords(){
+			return words;
+		}
+	}
+
+	/**
+	 * Max count of words of an event
+	 */
+	public static final int MAX_EVENT_WORDS = 1000;
+
+	/**
+	 * Max count of words read at once, a read gets at least one event
+	 */
+	public static final int MAX_READ_WORDS = 16*MAX_EVENT_WORDS;
+
+	private final String id = UUID.randomUUID().toString();
+
+	private final long capacity;
+
+	//events kept in order from head, the length is a power of 2
+	private Event[] events = new Event[16];
+
+	private int head;
+
+	private int count;
+
+	//words of the events kept, an event without words counts as one
+	private long words;
+
+	//sequence of the last event, 0 before the first one
+	private long last;
+
+	/**
+	 * @param capacity count of the last mutated words kept
+	 */
+	DictionaryFeed(long capacity){
+		this.capacity = capacity;
+	}
+
+	public String getId(){
+		return id;
+	}
+
+	/**
+	 * Getting sequence of the last event
+	 */
+	public synchronized long getSequence(){
+		return last;
+	}
+
+	/**
+	 * Appending event of a change the caller has made, the caller still holds the lock that
+	 * orders the changes of the group
+	 */
+	synchronized void append(byte op, String[] words){
+		for(int from=0; from==0||from<words.length; from+=MAX_EVENT_WORDS){
+			String[] chunk = words.length<=MAX_EVENT_WORDS?words:Arrays.copyOfRange(words, from, Math.min(from+MAX_EVENT_WORDS, words.length));
+			add(new Event(++last, Op.of(op), chunk));
+		}
+	}
+
+	private void add(Event event){
+		if(count==events.length){
+			Event[] grown = new Event[events.length*2];
+			for(int i=0; i<count; i++){
+				grown[i] = events[(head+i)&(events.length-1)];
+			}
+			events = grown;
+			head = 0;
+		}
+		events[(head+count)&(events.length-1)] = event;
+		count++;
+		words += weight(event);
+		//the oldest events go once the words are over the capacity, the last one is always kept
+		while(words>capacity&&count>1){
+			words -= weight(events[head]);
+			events[head] = null;
+			head = (head+1)&(events.length-1);
+			count--;
+		}
+	}
+
+	private static int weight(Event event){
+		return Math.max(event.words.length, 1);
+	}
+
+	/**
+	 * Reading the events after the sequence, up to {@link #MAX_READ_WORDS} words
+	 * @param after sequence of the last event the reader has
+	 * @param max max count of events
+	 * @return events in order, empty if there are none yet, or null if the feed does not keep
+	 * the next event anymore or the sequence is not one of this feed
+	 */
+	public synchronized List<Event> read(long after, int max){
+		long first = last-count+1;
+		if(after<0||after>last||after+1<first) return null;
+		int n = (int)Math.min(max, last-after);
+		List<Event> result = new ArrayList<Event>(Math.min(n, 1024));
+		int read = 0;
+		for(int i=(int)(after+1-first); result.size()<n&&(result.isEmpty()||read<MAX_READ_WORDS); i++){
+			Event event = events[(head+i)&(events.length-1)];
+			result.add(event);
+			read += weight(event);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,186 @@
+package com.ibotta.main.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Parallel bootstrap of a word list, one word per line.
+ *
+ * A file is memory mapped, any other resource (i.e. inside a jar) is streamed into memory.
+ * The bytes are split on newline boundaries and every chunk is decoded into a batch of words
+ * and signatures on the fork-join pool. The store then builds its partial tables from the
+ * batches in parallel (one per hash segment) and publishes them as the final store.
+ */
+class DictionaryLoader {
+
+	private static final Logger log = LoggerFactory.getLogger(DictionaryLoader.class);
+
+	//bytes per chunk, about 20k words of the bundled dictionary
+	private static final int CHUNK_SIZE = 1 << 18;
+
+	private final AnagramStore.Mode mode;
+
+	private final ForkJoinPool pool;
+
+	//signatures of the words to load, null for all of them
+	private final LongPredicate filter;
+
+	DictionaryLoader(AnagramStore.Mode mode){
+		this(mode, ForkJoinPool.commonPool());
+	}
+
+	DictionaryLoader(AnagramStore.Mode mode, ForkJoinPool pool){
+		this(mode, pool, null);
+	}
+
+	/**
+	 * @param filter signatures of the words to load, i.e. the ones a shard owns, null for all of them
+	 */
+	DictionaryLoader(AnagramStore.Mode mode, ForkJoinPool pool, LongPredicate filter){
+		this.mode = mode;
+		this.pool = pool;
+		this.filter = filter;
+	}
+
+	/**
+	 * Loading words into a new store
+	 * @param url word list, one word per line in UTF-8
+	 * @return store with all the words
+	 */
+	AnagramStore load(URL url) throws IOException {
+		long start = System.nanoTime();
+		ByteBuffer bytes = read(url);
+		int[] bounds = split(bytes);
+		List<ChunkTask> tasks = new ArrayList<ChunkTask>(bounds.length-1);
+		for(int i=1; i<bounds.length; i++){
+			tasks.add(new ChunkTask(bytes, bounds[i-1], bounds[i], filter));
+		}
+		//decoding and signatures are computed per chunk, then every store segment is filled by its own task
+		List<WordBatch> batches = pool.invoke(new RecursiveTask<List<WordBatch>>(){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected List<WordBatch> compute(){
+				return invokeAll(tasks).stream().map(ChunkTask::join).collect(Collectors.toList());
+			}
+		});
+		AnagramStore store = AnagramStore.create(mode);
+		store.addAll(batches, pool);
+		long nanos = Math.max(1, System.nanoTime()-start);
+		int words = batches.stream().mapToInt(WordBatch::size).sum();
+		log.info("Loaded {} words ({} bytes, {} chunks) into {} groups from {} in {} ms: {} words/s, {} MB/s",
+				words, bytes.limit(), tasks.size(), store.groupCount(), url, nanos/1_000_000,
+				Math.round(words*1e9/nanos), String.format("%.1f", bytes.limit()*1e3/nanos));
+		return store;
+	}
+
+	/**
+	 * Getting the whole resource, a file is memory mapped read-only
+	 */
+	static ByteBuffer read(URL url) throws IOException {
+		if("file".equals(url.getProtocol())){
+			try (FileChannel channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ)) {
+				//a single mapping is limited to 2GB
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} catch (URISyntaxException e) {
+				throw new IOException(e);
+			}
+		}
+		try (InputStream in = url.openStream()) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return ByteBuffer.wrap(out.toByteArray());
+		}
+	}
+
+	/**
+	 * Getting chunk bounds, every chunk but the last one ends right after a newline
+	 */
+	private static int[] split(ByteBuffer bytes){
+		int size = bytes.limit();
+		int chunks = Math.max(1, (size+CHUNK_SIZE-1)/CHUNK_SIZE);
+		int[] bounds = new int[chunks+1];
+		int n = 1;
+		for(int i=1; i<chunks; i++){
+			int bound = Math.max(i*CHUNK_SIZE, bounds[n-1]);
+			while(bound<size&&bytes.get(bound-1)!='\n'){
+				bound++;
+			}
+			if(bound<size&&bound>bounds[n-1]){
+				bounds[n++] = bound;
+			}
+		}
+		bounds[n++] = size;
+		int[] result = new int[n];
+		System.arraycopy(bounds, 0, result, 0, n);
+		return result;
+	}
+
+	private static class ChunkTask extends RecursiveTask<WordBatch> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer bytes;
+
+		private final int start, end;
+
+		private final LongPredicate filter;
+
+		ChunkTask(ByteBuffer bytes, int start, int end, LongPredicate filter){
+			this.bytes = bytes;
+			this.start = start;
+			this.end = end;
+			this.filter = filter;
+		}
+
+		@Override
+		protected WordBatch compute(){
+			byte[] chunk = new byte[end-start];
+			ByteBuffer view = bytes.duplicate();
+			view.position(start);
+			view.get(chunk);
+			//about 10 bytes per word
+			WordBatch batch = new WordBatch(chunk.length/8);
+			int line = 0;
+			for(int i=0; i<=chunk.length; i++){
+				if(i==chunk.length||chunk[i]=='\n'){
+					int length = i-line;
+					if(length>0&&chunk[line+length-1]=='\r'){
+						length--;
+					}
+					if(length>0){
+						String word = new String(chunk, line, length, StandardCharsets.UTF_8);
+						if(filter==null||filter.test(AnagramKeys.signature(word))){
+							batch.add(word);
+						}
+					}
+					line = i+1;
+				}
+			}
+			return batch;
+		}
+	}
+}
@@ -0,0 +1,439 @@
+package com.ibotta.main.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Append-only write-ahead log of the dictionary mutations, so the words added and deleted at
+ * runtime survive a restart. The log is a directory of numbered files:
+ *
+ * <pre>
+ * wal-N.log        records  int length, int crc32, byte op, int count, (int length, UTF-8 word)[count]
+ * base-N.snapshot  {@link DictionarySnapshot} of the dictionary with all the segments before N
+ * </pre>
+ *
+ * A record is appended by the writer that made the change, while the change of its anagram
+ * group is still ordered, see {@link Dictionary}, and forced to disk as the {@link Sync}
+ * policy says. Once a segment outgrows the compaction size, the next segment is started and
+ * the dictionary is written as the base of it, the older files are then deleted. Replaying
+ * the segments after the base gives the same words: a record the base already has is applied
+ * again with no effect, the records of a group are in the order of its changes.
+ *
+ * Every start opens a new segment, so a torn record at the end of a segment (a crash in the
+ * middle of a write) ends the replay of that segment only.
+ */
+final class DictionaryLog implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(DictionaryLog.class);
+
+	static final byte ADD = 1;
+
+	static final byte DELETE = 2;
+
+	static final byte DELETE_GROUP = 3;
+
+	static final byte CLEAR = 4;
+
+	private static final Pattern FILE = Pattern.compile("(wal|base)-(\\d+)\\.(log|snapshot)");
+
+	enum Sync {
+		/**
+		 * Every record is forced before its write returns, by the writer itself once it has
+		 * released the lock of its group, the records appended meanwhile are forced with it
+		 */
+		WRITE,
+		/**
+		 * Records appended during a force are forced together (group commit), writes wait for it
+		 */
+		BATCH,
+		/**
+		 * Records are forced every interval, writes do not wait and a crash loses the last interval
+		 */
+		INTERVAL
+	}
+
+	/**
+	 * Receives the records of the log in order
+	 */
+	interface Replay {
+
+		void apply(byte op, String[] words);
+	}
+
+	private final Path directory;
+
+	private final Sync sync;
+
+	private final long intervalMillis;
+
+	private final long compactBytes;
+
+	//taken before the log lock, guards the segment and its channel
+	private final Object channelLock = new Object();
+
+	private FileChannel channel;
+
+	private long segment;
+
+	private long segmentBytes;
+
+	//records not written yet, guarded by the log lock
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	private long appended;
+
+	private volatile long durable;
+
+	private volatile IOException failure;
+
+	private volatile boolean closed;
+
+	private Thread flusher;
+
+	private Supplier<AnagramStore> store;
+
+	private DictionarySnapshot.Source source;
+
+	private boolean compacting;
+
+	//last base and last segment found when the log was opened
+	private final long base;
+
+	private final long last;
+
+	/**
+	 * @param directory log directory, created if it does not exist
+	 * @param sync force policy
+	 * @param intervalMillis force interval of the {@link Sync#INTERVAL} policy
+	 * @param compactBytes segment size that starts a compaction
+	 */
+	DictionaryLog(Path directory, Sync sync, long intervalMillis, long compactBytes) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.sync = sync;
+		this.intervalMillis = intervalMillis;
+		this.compactBytes = compactBytes;
+		long base = -1, last = -1;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for(Path file: files){
+				Matcher m = FILE.matcher(file.getFileName().toString());
+				if(!m.matches()) continue;
+				long n = Long.parseLong(m.group(2));
+				if(m.group(1).equals("base")){
+					base = Math.max(base, n);
+				}else{
+					last = Math.max(last, n);
+				}
+			}
+		}
+		this.base = base;
+		this.last = last;
+	}
+
+	private Path segmentFile(long n){
+		return directory.resolve(String.format("wal-%08d.log", n));
+	}
+
+	private Path baseFile(long n){
+		return directory.resolve(String.format("base-%08d.snapshot", n));
+	}
+
+	/**
+	 * Getting the last base snapshot
+	 * @return snapshot or null if the log has never been compacted
+	 */
+	URL getBase() throws IOException {
+		return base>=0?baseFile(base).toUri().toURL():null;
+	}
+
+	/**
+	 * Reading the records of all the segments after the base in order
+	 * @return count of records
+	 */
+	long replay(Replay replay) throws IOException {
+		long records = 0;
+		for(long n=Math.max(base, 0); n<=last; n++){
+			Path file = segmentFile(n);
+			if(!Files.exists(file)) continue;
+			ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+			CRC32 crc = new CRC32();
+			while(bytes.remaining()>=8){
+				int length = bytes.getInt();
+				int checksum = bytes.getInt();
+				if(length<5||length>bytes.remaining()) break;
+				crc.reset();
+				crc.update(bytes.array(), bytes.position(), length);
+				if((int)crc.getValue()!=checksum) break;
+				ByteBuffer record = (ByteBuffer)bytes.slice().limit(length);
+				bytes.position(bytes.position()+length);
+				byte op = record.get();
+				String[] words = new String[record.getInt()];
+				for(int i=0; i<words.length; i++){
+					byte[] word = new byte[record.getInt()];
+					record.get(word);
+					words[i] = new String(word, StandardCharsets.UTF_8);
+				}
+				replay.apply(op, words);
+				records++;
+			}
+			if(bytes.hasRemaining()){
+				log.warn("Torn record at {} of {}, the rest of the segment is skipped", bytes.position(), file);
+			}
+		}
+		return records;
+	}
+
+	/**
+	 * Opening a new segment for the records to come
+	 * @param store current store, written as the base of a compaction
+	 * @param source text word list of the store
+	 */
+	void start(Supplier<AnagramStore> store, DictionarySnapshot.Source source) throws IOException {
+		this.store = store;
+		this.source = source;
+		synchronized(channelLock){
+			segment = Math.max(base, last+1);
+			channel = FileChannel.open(segmentFile(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			segmentBytes = channel.size();
+		}
+		if(sync!=Sync.WRITE){
+			flusher = new Thread(this::flush, "dictionary-log");
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+	}
+
+	/**
+	 * Appending record of a change the caller has made, the caller still holds the lock that
+	 * orders the changes of the group. The record is only buffered, it is written by
+	 * {@link #await} or by the flusher, so no lock of a group is held during a force.
+	 * @return sequence of the record for {@link #await}
+	 */
+	long append(byte op, String[] words){
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(16*words.length+8);
+		DataOutputStream data = new DataOutputStream(payload);
+		try {
+			data.writeByte(op);
+			data.writeInt(words.length);
+			for(String word: words){
+				byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+				data.writeInt(bytes.length);
+				data.write(bytes);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(payload.toByteArray());
+		long sequence;
+		synchronized(this){
+			DataOutputStream out = new DataOutputStream(pending);
+			try {
+				out.writeInt(payload.size());
+				out.writeInt((int)crc.getValue());
+				payload.writeTo(out);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			sequence = ++appended;
+			if(sync!=Sync.WRITE){
+				notifyAll();
+			}
+		}
+		return sequence;
+	}
+
+	/**
+	 * Waiting for the record to be forced, the caller does not hold the lock of the group anymore
+	 * @throws IllegalStateException if the log has failed
+	 */
+	void await(long sequence){
+		if(sync==Sync.WRITE){
+			/*
+			 * A writer that took the record holds the channel lock until it is forced, so once
+			 * this write has the lock the record is durable, whoever wrote it
+			 */
+			if(durable<sequence){
+				write();
+			}
+		}else if(sync==Sync.BATCH){
+			synchronized(this){
+				while(durable<sequence&&failure==null&&!closed){
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}
+		check();
+	}
+
+	private void check(){
+		IOException e = failure;
+		if(e!=null) throw new IllegalStateException("Write-ahead log failed", e);
+	}
+
+	private void flush(){
+		while(!closed){
+			try {
+				if(sync==Sync.INTERVAL){
+					Thread.sleep(intervalMillis);
+				}else{
+					synchronized(this){
+						while(pending.size()==0&&!closed){
+							wait();
+						}
+					}
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			write();
+		}
+	}
+
+	/**
+	 * Writing and forcing all the pending records, a failure fails all the later writes
+	 */
+	private void write(){
+		boolean compact = false;
+		synchronized(channelLock){
+			if(failure!=null||channel==null) return;
+			byte[] bytes;
+			long sequence;
+			synchronized(this){
+				if(pending.size()==0) return;
+				bytes = pending.toByteArray();
+				pending.reset();
+				sequence = appended;
+			}
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				while(buffer.hasRemaining()){
+					channel.write(buffer);
+				}
+				channel.force(false);
+				segmentBytes += bytes.length;
+			} catch (IOException e) {
+				log.error("Write-ahead log failed, later writes fail", e);
+				failure = e;
+			}
+			synchronized(this){
+				if(failure==null) durable = sequence;
+				notifyAll();
+				if(segmentBytes>compactBytes&&!compacting&&failure==null){
+					compact = compacting = true;
+				}
+			}
+		}
+		if(compact){
+			Thread compaction = new Thread(this::compact, "dictionary-log-compaction");
+			compaction.setDaemon(true);
+			compaction.start();
+		}
+	}
+
+	/**
+	 * Starting the next segment and writing the dictionary as its base, then deleting the older
+	 * segments and bases. The store is read once the segment has been started, so it has every
+	 * change of the older segments.
+	 */
+	void compact(){
+		try {
+			long next = rotate();
+			long start = System.nanoTime();
+			Path base = baseFile(next);
+			Path temporary = directory.resolve(base.getFileName() + ".tmp");
+			AnagramStore current = store.get();
+			try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+				OutputStream out = new BufferedOutputStream(file, 1 << 16);
+				DictionarySnapshot.write(current, source, out);
+				out.flush();
+				file.getFD().sync();
+			}
+			Files.move(temporary, base, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+				for(Path file: files){
+					Matcher m = FILE.matcher(file.getFileName().toString());
+					if(m.matches()&&Long.parseLong(m.group(2))<next){
+						Files.delete(file);
+					}
+				}
+			}
+			log.info("Compacted the write-ahead log into {} in {} ms", base, (System.nanoTime()-start)/1_000_000);
+		} catch (IOException e) {
+			log.error("Write-ahead log compaction failed, the segments are kept", e);
+		} finally {
+			synchronized(this){
+				compacting = false;
+			}
+		}
+	}
+
+	/**
+	 * Writing the pending records into the current segment and opening the next one
+	 * @return number of the next segment
+	 */
+	private long rotate() throws IOException {
+		synchronized(channelLock){
+			write();
+			check();
+			channel.close();
+			segment++;
+			channel = FileChannel.open(segmentFile(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			segmentBytes = 0;
+			return segment;
+		}
+	}
+
+	/**
+	 * Forcing the pending records and closing the segment
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		if(flusher!=null){
+			flusher.interrupt();
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		write();
+		synchronized(channelLock){
+			if(channel!=null){
+				channel.close();
+				channel = null;
+			}
+		}
+		synchronized(this){
+			notifyAll();
+		}
+	}
+}
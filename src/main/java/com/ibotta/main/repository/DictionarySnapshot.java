@@ -0,0 +1,231 @@
+package com.ibotta.main.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongPredicate;
+import java.util.zip.CRC32;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Binary snapshot of the anagram groups, so that a restart does not have to re-derive the keys.
+ *
+ * <pre>
+ * header   int magic, int version, long signature probe, long source length, long source crc32,
+ *          int groups, int words, int pool size, long payload crc32
+ * payload  long[groups] signatures, int[groups+1] first word of every group,
+ *          int[words+1] word offsets in the pool, byte[pool size] UTF-8 words
+ * </pre>
+ *
+ * The signature probe is the signature of a fixed word, a snapshot written with another
+ * signature function is stale. So is a snapshot of another text file (length or crc32 differ).
+ */
+public final class DictionarySnapshot {
+
+	private static final int MAGIC = 0x414E4753; //ANGS
+
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 4+4+8+8+8+4+4+4+8;
+
+	private static final long SIGNATURE_PROBE = AnagramKeys.signature("abcdefghijklmnopqrstuvwxyz");
+
+	private DictionarySnapshot(){
+	}
+
+	/**
+	 * Writing snapshot of the store
+	 * @param store groups to write
+	 * @param source text file the store was loaded from
+	 * @param out snapshot stream
+	 */
+	static void write(AnagramStore store, Source source, OutputStream out) throws IOException {
+		//the words of every group are read once, a group of a live store may change meanwhile
+		List<AnagramGroup> groups = new ArrayList<AnagramGroup>(store.groupCount());
+		List<String[]> groupWords = new ArrayList<String[]>(store.groupCount());
+		int words = 0;
+		for(AnagramGroup group: store){
+			String[] array = group.toArray();
+			if(array.length==0) continue;
+			groups.add(group);
+			groupWords.add(array);
+			words += array.length;
+		}
+		ByteBuffer index = ByteBuffer.allocate(groups.size()*8+(groups.size()+1)*4+(words+1)*4);
+		ByteArrayOutputStream pool = new ByteArrayOutputStream(words*10);
+		int word = 0;
+		for(AnagramGroup group: groups){
+			index.putLong(group.getSignature());
+		}
+		for(String[] array: groupWords){
+			index.putInt(word);
+			word += array.length;
+		}
+		index.putInt(word);
+		for(String[] array: groupWords){
+			for(String w: array){
+				index.putInt(pool.size());
+				byte[] bytes = w.getBytes(StandardCharsets.UTF_8);
+				pool.write(bytes, 0, bytes.length);
+			}
+		}
+		index.putInt(pool.size());
+
+		CRC32 crc = new CRC32();
+		crc.update(index.array(), 0, index.position());
+		crc.update(pool.toByteArray());
+
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		data.writeLong(SIGNATURE_PROBE);
+		data.writeLong(source.length);
+		data.writeLong(source.crc);
+		data.writeInt(groups.size());
+		data.writeInt(words);
+		data.writeInt(pool.size());
+		data.writeLong(crc.getValue());
+		data.write(index.array(), 0, index.position());
+		pool.writeTo(data);
+		data.flush();
+	}
+
+	/**
+	 * Reading snapshot into a new store
+	 * @param url snapshot, a file is memory mapped read-only
+	 * @param source text file the snapshot has to match, null if it does not have to
+	 * @param mode store mode
+	 * @param filter signatures of the groups to read, i.e. the ones a shard owns, null for all of them
+	 * @return store with all the groups that pass the filter
+	 * @throws IOException if the snapshot is corrupted or stale
+	 */
+	static AnagramStore read(URL url, Source source, AnagramStore.Mode mode, LongPredicate filter) throws IOException {
+		return read(DictionaryLoader.read(url), url.toString(), source, mode, filter);
+	}
+
+	/**
+	 * Reading snapshot into a new store, i.e. a snapshot of the primary a replica has received
+	 * @param bytes whole snapshot
+	 * @param name name of the snapshot for the errors
+	 * @see #read(URL, Source, AnagramStore.Mode, LongPredicate)
+	 */
+	static AnagramStore read(ByteBuffer bytes, String name, Source source, AnagramStore.Mode mode, LongPredicate filter) throws IOException {
+		if(bytes.limit()<HEADER_SIZE||bytes.getInt(0)!=MAGIC){
+			throw new IOException("Not a dictionary snapshot: " + name);
+		}
+		if(bytes.getInt(4)!=VERSION||bytes.getLong(8)!=SIGNATURE_PROBE){
+			throw new IOException("Stale snapshot format: " + name);
+		}
+		if(source!=null&&(bytes.getLong(16)!=source.length||bytes.getLong(24)!=source.crc)){
+			throw new IOException("Stale snapshot of the word list: " + name);
+		}
+		int groups = bytes.getInt(32);
+		int words = bytes.getInt(36);
+		int poolSize = bytes.getInt(40);
+		long payloadCrc = bytes.getLong(44);
+
+		int signatures = HEADER_SIZE;
+		int groupStartsOffset = signatures+groups*8;
+		int wordStartsOffset = groupStartsOffset+(groups+1)*4;
+		int pool = wordStartsOffset+(words+1)*4;
+		if(bytes.limit()!=pool+poolSize){
+			throw new IOException("Truncated snapshot: " + name);
+		}
+		ByteBuffer payload = bytes.duplicate();
+		payload.position(HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		if(crc.getValue()!=payloadCrc){
+			throw new IOException("Snapshot checksum mismatch: " + name);
+		}
+
+		long[] groupSignatures = new long[groups];
+		int[] groupStarts = new int[groups+1];
+		int[] wordStarts = new int[words+1];
+		byte[] poolBytes = new byte[poolSize];
+		payload.position(signatures);
+		payload.asLongBuffer().get(groupSignatures);
+		payload.position(groupStartsOffset);
+		payload.asIntBuffer().get(groupStarts);
+		payload.position(wordStartsOffset);
+		payload.asIntBuffer().get(wordStarts);
+		payload.position(pool);
+		payload.get(poolBytes);
+
+		List<AnagramGroup> result = new ArrayList<AnagramGroup>(groups);
+		for(int g=0; g<groups; g++){
+			if(filter!=null&&!filter.test(groupSignatures[g])) continue;
+			String[] group = new String[groupStarts[g+1]-groupStarts[g]];
+			for(int w=0; w<group.length; w++){
+				int start = wordStarts[groupStarts[g]+w];
+				group[w] = new String(poolBytes, start, wordStarts[groupStarts[g]+w+1]-start, StandardCharsets.UTF_8);
+			}
+			if(group.length>0){
+				result.add(new AnagramGroup(groupSignatures[g], group));
+			}
+		}
+		AnagramStore store = AnagramStore.create(mode);
+		store.addGroups(result);
+		return store;
+	}
+
+	/**
+	 * Length and crc32 of the text word list
+	 */
+	static final class Source {
+
+		final long length;
+
+		final long crc;
+
+		private Source(long length, long crc){
+			this.length = length;
+			this.crc = crc;
+		}
+
+		static Source of(URL url) throws IOException {
+			CRC32 crc = new CRC32();
+			long length = 0;
+			try (InputStream in = url.openStream()) {
+				byte[] buffer = new byte[1 << 16];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					crc.update(buffer, 0, n);
+					length += n;
+				}
+			}
+			return new Source(length, crc.getValue());
+		}
+	}
+
+	/**
+	 * Generating snapshot at build time
+	 * @param args text word list and snapshot file
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length!=2){
+			System.err.println("Usage: DictionarySnapshot <dictionary.txt> <dictionary.snapshot>");
+			System.exit(2);
+		}
+		URL url = new File(args[0]).toURI().toURL();
+		AnagramStore store = new DictionaryLoader(AnagramStore.Mode.HASH).load(url);
+		File target = new File(args[1]);
+		if(target.getParentFile()!=null){
+			target.getParentFile().mkdirs();
+		}
+		try (OutputStream out = new FileOutputStream(target)) {
+			write(store, Source.of(url), out);
+		}
+		System.out.println("Dictionary snapshot " + target + ": " + store.groupCount() + " groups, " + target.length() + " bytes");
+	}
+}
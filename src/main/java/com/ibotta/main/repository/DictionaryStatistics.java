@@ -0,0 +1,131 @@
+package com.ibotta.main.repository;
+
+import java.util.Arrays;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Word statistics maintained on every mutation instead of scanning the store.
+ * Word lengths are counted once per anagram group, the same way the statistics
+ * were computed over the dictionary keys.
+ */
+public class DictionaryStatistics implements AnagramStore.Listener {
+
+	private long words;
+
+	private long groups;
+
+	private long lengthSum;
+
+	//letters of all the words, the words of a group have the same length
+	private long letters;
+
+	//count of groups by word length
+	private long[] lengths = new long[32];
+
+	public DictionaryStatistics(){
+	}
+
+	/**
+	 * Length statistics of groups counted elsewhere, i.e. the counts of all the shards added up.
+	 * There are no word counts, only the lengths are known.
+	 * @param lengths count of groups by word length
+	 */
+	public DictionaryStatistics(long[] lengths){
+		this.lengths = lengths.clone();
+		for(int length=0; length<lengths.length; length++){
+			groups += lengths[length];
+			lengthSum += lengths[length]*length;
+		}
+	}
+
+	@Override
+	public synchronized void groupChanged(AnagramGroup group, int oldSize, int newSize){
+		words += newSize-oldSize;
+		int length = group.getWordLength();
+		letters += (long)(newSize-oldSize)*length;
+		if(oldSize==0&&newSize>0){
+			if(length>=lengths.length){
+				lengths = Arrays.copyOf(lengths, Math.max(length+1, lengths.length*2));
+			}
+			lengths[length]++;
+			lengthSum += length;
+			groups++;
+		}else if(oldSize>0&&newSize==0){
+			lengths[length]--;
+			lengthSum -= length;
+			groups--;
+		}
+	}
+
+	/**
+	 * Getting count of words
+	 */
+	public synchronized long getWordCount(){
+		return words;
+	}
+
+	/**
+	 * Getting count of anagram groups
+	 */
+	public synchronized long getGroupCount(){
+		return groups;
+	}
+
+	/**
+	 * Getting rough heap footprint on a 64-bit JVM with compressed oops: a byte per letter of
+	 * the packed words, a group and its byte array (about 4 bytes of padding) per group
+	 * @param bytesPerGroup store overhead of a group
+	 * @return bytes
+	 */
+	public synchronized long getEstimatedMemory(int bytesPerGroup){
+		return letters+groups*(40+16+4+bytesPerGroup);
+	}
+
+	/**
+	 * Getting count of anagram groups by word length, up to the max length
+	 */
+	public synchronized long[] getLengths(){
+		return Arrays.copyOf(lengths, getMaxLength()+1);
+	}
+
+	/**
+	 * Getting max word length, 0 if there are no words
+	 */
+	public synchronized int getMaxLength(){
+		for(int length=lengths.length-1; length>=0; length--){
+			if(lengths[length]>0) return length;
+		}
+		return 0;
+	}
+
+	/**
+	 * Getting min word length, 0 if there are no words
+	 */
+	public synchronized int getMinLength(){
+		for(int length=0; length<lengths.length; length++){
+			if(lengths[length]>0) return length;
+		}
+		return 0;
+	}
+
+	/**
+	 * Getting rounded average word length, 0 if there are no words
+	 */
+	public synchronized long getAverageLength(){
+		return groups<1?0:Math.round((double)lengthSum/groups);
+	}
+
+	/**
+	 * Getting median word length (the upper one for an even count), 0 if there are no words
+	 */
+	public synchronized int getMedianLength(){
+		long middle = groups/2;
+		long count = 0;
+		for(int length=0; length<lengths.length; length++){
+			count += lengths[length];
+			if(count>middle) return length;
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,149 @@
+package com.ibotta.main.repository;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Buckets of anagram groups by size, maintained on every mutation. Every bucket is
+ * sorted by the group keys, so the groups of size N and bigger are iterated in a stable
+ * order (sorted letters) by merging just those buckets. Single word groups are not
+ * anagrams and are not indexed.
+ *
+ * Readers never lock, iteration is weakly consistent. Updates of a group come in order under
+ * the store lock of that group, so only adding a bucket needs a lock here.
+ */
+public class GroupSizeIndex implements AnagramStore.Listener {
+
+	//buckets.get(size) holds the groups of that size
+	private final List<ConcurrentSkipListMap<String, AnagramGroup>> buckets = new CopyOnWriteArrayList<ConcurrentSkipListMap<String, AnagramGroup>>();
+
+	//the biggest group size ever indexed, the buckets above it are empty
+	private final AtomicInteger maxSize = new AtomicInteger();
+
+	@Override
+	public void groupChanged(AnagramGroup group, int oldSize, int newSize){
+		if(oldSize>1){
+			//a versioned store passes a new copy of the group
+			buckets.get(oldSize).remove(group.getKey());
+		}
+		if(newSize>1){
+			bucket(newSize).put(group.getKey(), group);
+			if(newSize>maxSize.get()){
+				maxSize.accumulateAndGet(newSize, Math::max);
+			}
+		}
+	}
+
+	private ConcurrentSkipListMap<String, AnagramGroup> bucket(int size){
+		if(size>=buckets.size()){
+			synchronized(buckets){
+				//a bulk add can make a group much bigger at once, the list is copied once
+				List<ConcurrentSkipListMap<String, AnagramGroup>> added = new ArrayList<ConcurrentSkipListMap<String, AnagramGroup>>();
+				for(int i=buckets.size(); i<=size; i++){
+					added.add(new ConcurrentSkipListMap<String, AnagramGroup>());
+				}
+				buckets.addAll(added);
+			}
+		}
+		return buckets.get(size);
+	}
+
+	/**
+	 * Getting anagram groups of the size or bigger, only the matching buckets are visited
+	 * @param size min group size, at least 2
+	 * @return the groups in the order of their keys
+	 */
+	public List<AnagramGroup> getAtLeast(int size){
+		List<AnagramGroup> groups = new ArrayList<AnagramGroup>();
+		iterator(size, null).forEachRemaining(groups::add);
+		return groups;
+	}
+
+	/**
+	 * Iterating anagram groups of the size or bigger in the order of their keys
+	 * @param size min group size, at least 2
+	 * @param after key to start after, null to start from the first group
+	 */
+	public Iterator<AnagramGroup> iterator(int size, String after){
+		final PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Comparator.comparing(Cursor::key));
+		int max = maxSize.get();
+		for(int i=Math.max(size, 2); i<=max&&i<buckets.size(); i++){
+			ConcurrentSkipListMap<String, AnagramGroup> bucket = buckets.get(i);
+			Cursor cursor = new Cursor((after==null?bucket:bucket.tailMap(after, false)).values().iterator());
+			if(cursor.current!=null){
+				queue.add(cursor);
+			}
+		}
+		return new Iterator<AnagramGroup>(){
+			private String last;
+
+			@Override
+			public boolean hasNext(){
+				//a group moving between buckets can be met twice
+				while(!queue.isEmpty()&&queue.peek().key().equals(last)){
+					advance();
+				}
+				return !queue.isEmpty();
+			}
+
+			@Override
+			public AnagramGroup next(){
+				if(!hasNext()) throw new NoSuchElementException();
+				AnagramGroup group = queue.peek().current;
+				last = group.getKey();
+				advance();
+				return group;
+			}
+
+			private void advance(){
+				Cursor cursor = queue.poll();
+				if(cursor.next()){
+					queue.add(cursor);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Getting one of the biggest anagram groups
+	 * @return group or null if there are no anagrams
+	 */
+	public AnagramGroup getLargest(){
+		for(int i=Math.min(maxSize.get(), buckets.size()-1); i>1; i--){
+			Map.Entry<String, AnagramGroup> entry = buckets.get(i).firstEntry();
+			if(entry!=null) return entry.getValue();
+		}
+		return null;
+	}
+
+	private static final class Cursor {
+
+		private final Iterator<AnagramGroup> iterator;
+
+		private AnagramGroup current;
+
+		Cursor(Iterator<AnagramGroup> iterator){
+			this.iterator = iterator;
+			next();
+		}
+
+		boolean next(){
+			current = iterator.hasNext()?iterator.next():null;
+			return current!=null;
+		}
+
+		String key(){
+			return current.getKey();
+		}
+	}
+}
@@ -0,0 +1,386 @@
+package com.ibotta.main.repository;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Open addressing (linear probing) tables of anagram groups keyed by the primitive letter
+ * signature, see {@link AnagramKeys#signature}. There are no entry nodes and no String keys,
+ * a lookup is a signature computation and a few slot probes, i.e. O(1).
+ *
+ * The high bits of the signature pick one of the segments, the low bits pick the slot.
+ * Segments are independent tables, so a bulk load fills them in parallel.
+ *
+ * Readers never lock, writers lock only the segment of the signature, so writes to different
+ * segments run in parallel and a get-then-append on a group is atomic. Removed groups leave
+ * a tombstone so that concurrent probes are never cut short, the tombstones are dropped on resize.
+ *
+ * The tables are keyed by the signature only, so the store is probed by the {@link SignatureIndex}
+ * directly and no separate signature table is kept for it.
+ */
+class HashAnagramStore implements AnagramStore, SignatureIndex.Groups {
+
+	private static final int SEGMENT_BITS = 6;
+
+	private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+	private static final AnagramGroup TOMBSTONE = new AnagramGroup(0, 0);
+
+	private final Segment[] segments = new Segment[SEGMENTS];
+
+	private volatile Listener listener = Listener.NONE;
+
+	HashAnagramStore(){
+		for(int i=0; i<SEGMENTS; i++){
+			segments[i] = new Segment();
+		}
+	}
+
+	private static int segmentIndex(long signature){
+		return (int)(signature >>> (64-SEGMENT_BITS));
+	}
+
+	private Segment segmentFor(long signature){
+		return segments[segmentIndex(signature)];
+	}
+
+	@Override
+	public void setListener(Listener listener){
+		this.listener = listener;
+	}
+
+	@Override
+	public AnagramGroup get(String word){
+		long signature = AnagramKeys.signature(word);
+		return segmentFor(signature).get(word, signature);
+	}
+
+	@Override
+	public AnagramGroup find(long signature, Predicate<AnagramGroup> filter){
+		return segmentFor(signature).find(signature, filter);
+	}
+
+	@Override
+	public boolean add(String word){
+		long signature = AnagramKeys.signature(word);
+		Segment segment = segmentFor(signature);
+		synchronized(segment){
+			return segment.add(word, signature, listener);
+		}
+	}
+
+	/**
+	 * Adding words with precomputed signatures: the batches are partitioned by segment
+	 * and then every segment is filled by its own task
+	 */
+	@Override
+	public void addAll(final List<WordBatch> batches, ForkJoinPool pool){
+		final int[][] offsets = new int[batches.size()][];
+		final Listener listener = this.listener;
+		pool.invoke(new RecursiveAction(){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute(){
+				List<RecursiveAction> partitions = new ArrayList<RecursiveAction>(batches.size());
+				for(int i=0; i<batches.size(); i++){
+					final int batch = i;
+					partitions.add(action(()->offsets[batch] = batches.get(batch).partition(SEGMENT_BITS)));
+				}
+				invokeAll(partitions);
+				List<RecursiveAction> fills = new ArrayList<RecursiveAction>(SEGMENTS);
+				for(int i=0; i<SEGMENTS; i++){
+					final int segment = i;
+					fills.add(action(()->{
+						synchronized(segments[segment]){
+							for(int j=0; j<batches.size(); j++){
+								String[] words = batches.get(j).getWords();
+								long[] signatures = batches.get(j).getSignatures();
+								for(int k=offsets[j][segment]; k<offsets[j][segment+1]; k++){
+									segments[segment].add(words[k], signatures[k], listener);
+								}
+							}
+						}
+					}));
+				}
+				invokeAll(fills);
+			}
+		});
+	}
+
+	@Override
+	public int addBatch(WordBatch batch){
+		String[] words = batch.getWords();
+		long[] signatures = batch.getSignatures();
+		int added = 0;
+		//the batch is sorted by signature, so every segment is locked once
+		for(int from=0, end; from<batch.size(); from=end){
+			Segment segment = segmentFor(signatures[from]);
+			end = from+1;
+			while(end<batch.size()&&segmentFor(signatures[end])==segment){
+				end++;
+			}
+			synchronized(segment){
+				for(int run=from, next; run<end; run=next){
+					next = batch.runEnd(run);
+					if(batch.isGroup(run, next)){
+						added += segment.addAll(words, signatures[run], run, next, listener);
+					}else{
+						for(int i=run; i<next; i++){
+							if(segment.add(words[i], signatures[i], listener)) added++;
+						}
+					}
+				}
+			}
+		}
+		return added;
+	}
+
+	@Override
+	public void addGroups(List<AnagramGroup> groups){
+		int[] counts = new int[SEGMENTS];
+		for(AnagramGroup group: groups){
+			counts[segmentIndex(group.getSignature())]++;
+		}
+		for(int i=0; i<SEGMENTS; i++){
+			synchronized(segments[i]){
+				segments[i].reserve(counts[i]);
+			}
+		}
+		for(AnagramGroup group: groups){
+			Segment segment = segmentFor(group.getSignature());
+			synchronized(segment){
+				segment.insert(group);
+				listener.groupChanged(group, 0, group.size());
+			}
+		}
+	}
+
+	private static RecursiveAction action(final Runnable runnable){
+		return new RecursiveAction(){
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute(){
+				runnable.run();
+			}
+		};
+	}
+
+	@Override
+	public boolean remove(String word){
+		long signature = AnagramKeys.signature(word);
+		Segment segment = segmentFor(signature);
+		synchronized(segment){
+			AnagramGroup group = segment.get(word, signature);
+			if(group!=null&&group.delete(word)){
+				if(group.isEmpty()){
+					segment.bury(group);
+				}
+				listener.groupChanged(group, group.size()+1, group.size());
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public AnagramGroup removeGroup(String word){
+		long signature = AnagramKeys.signature(word);
+		Segment segment = segmentFor(signature);
+		synchronized(segment){
+			AnagramGroup group = segment.get(word, signature);
+			if(group!=null){
+				segment.bury(group);
+				listener.groupChanged(group, group.size(), 0);
+			}
+			return group;
+		}
+	}
+
+	@Override
+	public int groupCount(){
+		int count = 0;
+		for(Segment segment: segments){
+			count += segment.groups;
+		}
+		return count;
+	}
+
+	@Override
+	public Iterator<AnagramGroup> iterator(){
+		return new Iterator<AnagramGroup>(){
+			private int segment = -1;
+			private AtomicReferenceArray<AnagramGroup> t = new AtomicReferenceArray<AnagramGroup>(0);
+			private int i = -1;
+			private AnagramGroup next = advance();
+
+			private AnagramGroup advance(){
+				while(true){
+					while(++i<t.length()){
+						AnagramGroup group = t.get(i);
+						if(group!=null&&group!=TOMBSTONE) return group;
+					}
+					if(++segment==SEGMENTS) return null;
+					t = segments[segment].table;
+					i = -1;
+				}
+			}
+
+			@Override
+			public boolean hasNext(){
+				return next!=null;
+			}
+
+			@Override
+			public AnagramGroup next(){
+				if(next==null) throw new NoSuchElementException();
+				AnagramGroup group = next;
+				next = advance();
+				return group;
+			}
+		};
+	}
+
+	private static final class Segment {
+
+		private static final int INITIAL_CAPACITY = 1 << 6;
+
+		private volatile AtomicReferenceArray<AnagramGroup> table = new AtomicReferenceArray<AnagramGroup>(INITIAL_CAPACITY);
+
+		//groups and tombstones, load factor is kept under 1/2, guarded by the segment lock
+		private int used;
+
+		private volatile int groups;
+
+		AnagramGroup get(String word, long signature){
+			AtomicReferenceArray<AnagramGroup> t = table;
+			int mask = t.length()-1;
+			for(int i=(int)signature&mask;; i=(i+1)&mask){
+				AnagramGroup group = t.get(i);
+				if(group==null) return null;
+				if(group!=TOMBSTONE&&group.getSignature()==signature&&group.matches(word)){
+					return group;
+				}
+			}
+		}
+
+		AnagramGroup find(long signature, Predicate<AnagramGroup> filter){
+			AtomicReferenceArray<AnagramGroup> t = table;
+			int mask = t.length()-1;
+			for(int i=(int)signature&mask;; i=(i+1)&mask){
+				AnagramGroup group = t.get(i);
+				if(group==null) return null;
+				if(group!=TOMBSTONE&&group.getSignature()==signature&&filter.test(group)) return group;
+			}
+		}
+
+		boolean add(String word, long signature, Listener listener){
+			AnagramGroup group = get(word, signature);
+			if(group!=null){
+				if(group.append(word)){
+					listener.groupChanged(group, group.size()-1, group.size());
+					return true;
+				}
+				return false;
+			}
+			group = new AnagramGroup(signature, word.length());
+			group.append(word);
+			insert(group);
+			listener.groupChanged(group, 0, 1);
+			return true;
+		}
+
+		/**
+		 * Adding anagrams of a single group, the listener is called once
+		 */
+		int addAll(String[] words, long signature, int from, int to, Listener listener){
+			AnagramGroup group = get(words[from], signature);
+			boolean created = group==null;
+			if(created){
+				group = new AnagramGroup(signature, words[from].length());
+			}
+			int oldSize = group.size();
+			int added = group.appendAll(words, from, to);
+			if(created){
+				//readers never see an empty group
+				insert(group);
+			}
+			if(added>0){
+				listener.groupChanged(group, oldSize, group.size());
+			}
+			return added;
+		}
+
+		void insert(AnagramGroup group){
+			if((used+1)*2>table.length()){
+				resize();
+			}
+			AtomicReferenceArray<AnagramGroup> t = table;
+			int mask = t.length()-1;
+			int i = (int)group.getSignature()&mask;
+			while(t.get(i)!=null){
+				i = (i+1)&mask;
+			}
+			t.set(i, group);
+			used++;
+			groups++;
+		}
+
+		void bury(AnagramGroup group){
+			AtomicReferenceArray<AnagramGroup> t = table;
+			int mask = t.length()-1;
+			for(int i=(int)group.getSignature()&mask;; i=(i+1)&mask){
+				if(t.get(i)==group){
+					t.set(i, TOMBSTONE);
+					groups--;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Growing the table ahead of adding groups
+		 */
+		void reserve(int count){
+			if((used+count)*2>table.length()){
+				resize(groups+count);
+			}
+		}
+
+		private void resize(){
+			resize(groups);
+		}
+
+		private void resize(int expected){
+			AtomicReferenceArray<AnagramGroup> t = table;
+			int capacity = t.length();
+			//grow only if the table is full of live groups, otherwise just sweep the tombstones
+			while((expected+1)*4>capacity){
+				capacity <<= 1;
+			}
+			AtomicReferenceArray<AnagramGroup> copy = new AtomicReferenceArray<AnagramGroup>(capacity);
+			int mask = capacity-1;
+			for(int j=0; j<t.length(); j++){
+				AnagramGroup group = t.get(j);
+				if(group!=null&&group!=TOMBSTONE){
+					int i = (int)group.getSignature()&mask;
+					while(copy.get(i)!=null){
+						i = (i+1)&mask;
+					}
+					copy.set(i, group);
+				}
+			}
+			table = copy;
+			used = groups;
+		}
+	}
+}
@@ -0,0 +1,676 @@
+package com.ibotta.main.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Letter count index of the anagram groups for the queries by a set of letters: the words
+ * that can be spelled with some of the letters (a Scrabble rack) and the phrase anagrams,
+ * combinations of words whose letters together are exactly the letters of a phrase.
+ *
+ * The groups are ordered from the longest words, a group is a bit of the bitsets. Every
+ * letter has a column per count: the bitset of the groups with that many of the letter or
+ * more ('a' to 'z' and 'A' to 'Z' have columns of their own, all the other chars share one).
+ * The groups that fit into letters are the ones outside of the column of every letter one
+ * above its count, so a query is an OR of about 50 bitsets from the first group short enough
+ * and no group is compared on its own.
+ *
+ * A phrase search takes the groups that fit into the phrase and subtracts their letter counts
+ * depth first. The words of a combination come in the index order, so every combination is
+ * found once, and a branch is cut as soon as the remaining words are too short to cover the
+ * remaining letters. The first words of the combinations are spread over a fork-join pool, all
+ * the branches stop once the limit of phrases or the step budget is hit.
+ *
+ * The bitsets are immutable. The groups added and removed since they were built are kept
+ * aside, see {@link Follower}: a query skips the indexed groups that changed and checks the
+ * added ones one by one. A group read from a store that does not change its groups in place
+ * is looked up again by its letters, so the query gets the group as it is now.
+ */
+public final class LetterIndex {
+
+	/**
+	 * max count of letters in a query
+	 */
+	public static final int MAX_LETTERS = 64;
+
+	private static final int OTHER = 52;
+
+	private static final int COLUMNS = OTHER+1;
+
+	//search steps of a single phrase, common letters make for billions of combinations
+	private static final long MAX_STEPS = 50_000_000L;
+
+	//steps counted by a branch before the shared budget is checked
+	private static final int STEP_BATCH = 1 << 12;
+
+	//min count of changes that starts a new index
+	private static final int MIN_CHANGES = 1 << 10;
+
+	//change of a removed group
+	private static final String REMOVED = "";
+
+	private final AnagramGroup[] groups;
+
+	//a word of every group, a group of a mutable store can change after the index is built
+	private final String[] samples;
+
+	//first group of the length or shorter
+	private final int[] firstOfLength;
+
+	//columns[letter][count-1] has the bits of the groups with count of the letter or more
+	private final long[][][] columns = new long[COLUMNS][][];
+
+	//store of the groups, they are looked up again unless they change in place
+	private final AnagramStore store;
+
+	private final boolean inPlace;
+
+	//a word of every group added since the index was built, or REMOVED, by the signature
+	private final Map<Long, String> changes;
+
+	//count of changes that starts a new index
+	private final int rebuildAt;
+
+	/**
+	 * Indexing words apart from a dictionary, i.e. the words gathered from the shards
+	 */
+	public static LetterIndex of(Iterable<String> words){
+		AnagramStore store = AnagramStore.create(AnagramStore.Mode.HASH);
+		words.forEach(store::add);
+		return new LetterIndex(store, new ConcurrentHashMap<Long, String>());
+	}
+
+	/**
+	 * @param store groups to index
+	 * @param changes changes of the groups made while and after they are read
+	 */
+	private LetterIndex(AnagramStore store, Map<Long, String> changes){
+		this.store = store;
+		this.inPlace = store.changesInPlace();
+		this.changes = changes;
+		List<AnagramGroup> list = new ArrayList<AnagramGroup>();
+		List<String> words = new ArrayList<String>();
+		int maxLength = 0;
+		for(AnagramGroup group: store){
+			Iterator<String> i = group.iterator();
+			if(i.hasNext()){
+				String word = i.next();
+				list.add(group);
+				words.add(word);
+				maxLength = Math.max(maxLength, word.length());
+			}
+		}
+		//counting sort by length, the longest words first
+		int[] offsets = new int[maxLength+2];
+		for(String word: words){
+			offsets[maxLength-word.length()+1]++;
+		}
+		for(int i=1; i<offsets.length; i++){
+			offsets[i] += offsets[i-1];
+		}
+		firstOfLength = new int[maxLength+1];
+		for(int length=0; length<=maxLength; length++){
+			firstOfLength[length] = offsets[maxLength-length];
+		}
+		groups = new AnagramGroup[list.size()];
+		samples = new String[list.size()];
+		int[] max = new int[COLUMNS];
+		int[] counts = new int[COLUMNS];
+		for(int i=0; i<list.size(); i++){
+			String word = words.get(i);
+			int k = offsets[maxLength-word.length()]++;
+			groups[k] = list.get(i);
+			samples[k] = word;
+			for(int j=0; j<word.length(); j++){
+				int c = column(word.charAt(j));
+				max[c] = Math.max(max[c], ++counts[c]);
+			}
+			reset(word, counts);
+		}
+		int bitsets = (groups.length+63)>>>6;
+		for(int c=0; c<COLUMNS; c++){
+			columns[c] = new long[max[c]][bitsets];
+		}
+		for(int i=0; i<samples.length; i++){
+			String word = samples[i];
+			for(int j=0; j<word.length(); j++){
+				int c = column(word.charAt(j));
+				columns[c][counts[c]++][i>>>6] |= 1L << i;
+			}
+			reset(word, counts);
+		}
+		rebuildAt = Math.max(MIN_CHANGES, groups.length/128);
+	}
+
+	private static int column(char c){
+		if(c>='a'&&c<='z') return c-'a';
+		if(c>='A'&&c<='Z') return 26+c-'A';
+		return OTHER;
+	}
+
+	private static void reset(String word, int[] counts){
+		for(int i=0; i<word.length(); i++){
+			counts[column(word.charAt(i))] = 0;
+		}
+	}
+
+	private static void count(String word, int[] counts){
+		Arrays.fill(counts, 0);
+		for(int i=0; i<word.length(); i++){
+			counts[column(word.charAt(i))]++;
+		}
+	}
+
+	/**
+	 * Getting anagram groups whose words can be spelled with some of the letters
+	 * @param letters letters to use, white space is not a letter, at most {@link #MAX_LETTERS}
+	 * @return the groups, the longest words first
+	 * @throws IllegalArgumentException if there are no letters or too many of them
+	 */
+	public List<AnagramGroup> getContained(String letters){
+		Candidates contained = contained(letters(letters));
+		return Arrays.asList(contained.groups).subList(0, contained.size);
+	}
+
+	/**
+	 * Getting letters of a query without white space
+	 */
+	private static String letters(String letters){
+		StringBuilder builder = new StringBuilder(letters.length());
+		for(int i=0; i<letters.length(); i++){
+			char c = letters.charAt(i);
+			if(!Character.isWhitespace(c)) builder.append(c);
+		}
+		if(builder.length()==0) throw new IllegalArgumentException("No letters");
+		if(builder.length()>MAX_LETTERS) throw new IllegalArgumentException("More than " + MAX_LETTERS + " letters");
+		return builder.toString();
+	}
+
+	/**
+	 * Groups and a word of each, the longest words first
+	 */
+	private static final class Candidates {
+
+		AnagramGroup[] groups = new AnagramGroup[64];
+
+		String[] samples = new String[64];
+
+		int size;
+
+		void add(AnagramGroup group, String sample){
+			if(size==groups.length){
+				groups = Arrays.copyOf(groups, size*2);
+				samples = Arrays.copyOf(samples, size*2);
+			}
+			groups[size] = group;
+			samples[size++] = sample;
+		}
+
+		/**
+		 * Merging the candidates from the index on with the ones before it, both the longest words first
+		 */
+		void merge(int from){
+			if(from==size||from==0) return;
+			AnagramGroup[] g = new AnagramGroup[groups.length];
+			String[] w = new String[samples.length];
+			for(int i=0, j=from, k=0; k<size; k++){
+				boolean first = j==size||i<from&&samples[i].length()>=samples[j].length();
+				int n = first?i++:j++;
+				g[k] = groups[n];
+				w[k] = samples[n];
+			}
+			groups = g;
+			samples = w;
+		}
+	}
+
+	/**
+	 * Getting groups that fit into the letters, the indexed ones that have not changed since and
+	 * the ones added since
+	 */
+	private Candidates contained(String letters){
+		int[] rack = new int[COLUMNS];
+		count(letters, rack);
+		//a version is pinned for the whole query
+		AnagramVersion version = inPlace?null:store.version();
+		Candidates candidates = new Candidates();
+		if(groups.length>0){
+			indexed(letters, rack, version, candidates);
+		}
+		if(!changes.isEmpty()){
+			int from = candidates.size;
+			added(letters, rack, version, candidates);
+			//the added ones come in no order
+			int n = candidates.size-from;
+			Integer[] order = new Integer[n];
+			for(int i=0; i<n; i++){
+				order[i] = from+i;
+			}
+			String[] samples = candidates.samples;
+			Arrays.sort(order, (a, b)->Integer.compare(samples[b].length(), samples[a].length()));
+			AnagramGroup[] g = new AnagramGroup[n];
+			String[] w = new String[n];
+			for(int i=0; i<n; i++){
+				g[i] = candidates.groups[order[i]];
+				w[i] = samples[order[i]];
+			}
+			System.arraycopy(g, 0, candidates.groups, from, n);
+			System.arraycopy(w, 0, candidates.samples, from, n);
+			candidates.merge(from);
+		}
+		return candidates;
+	}
+
+	private void indexed(String letters, int[] rack, AnagramVersion version, Candidates candidates){
+		boolean changed = !changes.isEmpty();
+		int from = firstOfLength[Math.min(letters.length(), firstOfLength.length-1)];
+		int first = from>>>6;
+		int bitsets = (groups.length+63)>>>6;
+		long[] excluded = new long[bitsets];
+		for(int c=0; c<COLUMNS; c++){
+			if(rack[c]<columns[c].length){
+				long[] column = columns[c][rack[c]];
+				for(int w=first; w<bitsets; w++){
+					excluded[w] |= column[w];
+				}
+			}
+		}
+		//the chars other than a to z share a column, their groups are checked one by one
+		long[] other = rack[OTHER]>0?columns[OTHER][0]:null;
+		String key = other!=null?AnagramKeys.sortedKey(letters):null;
+		for(int w=first; w<bitsets; w++){
+			long bits = ~excluded[w];
+			if(w==first) bits &= -1L << from;
+			if(w==bitsets-1&&(groups.length&63)!=0) bits &= (1L << groups.length)-1;
+			while(bits!=0){
+				int i = (w<<6)+Long.numberOfTrailingZeros(bits);
+				bits &= bits-1;
+				if(other!=null&&(other[w]&(1L << i))!=0&&!contains(key, AnagramKeys.sortedKey(samples[i]))) continue;
+				String sample = samples[i];
+				//a group added or removed since is one of the changes
+				if(changed&&changes.containsKey(AnagramKeys.signature(sample))) continue;
+				AnagramGroup group = inPlace?groups[i]:current(sample, version);
+				if(group!=null) candidates.add(group, sample);
+			}
+		}
+	}
+
+	/**
+	 * Checking the groups added since the index was built one by one
+	 */
+	private void added(String letters, int[] rack, AnagramVersion version, Candidates candidates){
+		int[] counts = new int[COLUMNS];
+		String key = null;
+		for(String sample: changes.values()){
+			if(sample==REMOVED||sample.length()>letters.length()) continue;
+			boolean fits = true;
+			for(int j=0; j<sample.length(); j++){
+				int c = column(sample.charAt(j));
+				if(++counts[c]>rack[c]) fits = false;
+			}
+			boolean other = counts[OTHER]>0;
+			reset(sample, counts);
+			if(!fits) continue;
+			if(other){
+				if(key==null) key = AnagramKeys.sortedKey(letters);
+				if(!contains(key, AnagramKeys.sortedKey(sample))) continue;
+			}
+			AnagramGroup group = current(sample, version);
+			if(group!=null) candidates.add(group, sample);
+		}
+	}
+
+	/**
+	 * Getting group of the letters as it is now
+	 * @return group or null if it has been removed
+	 */
+	private AnagramGroup current(String sample, AnagramVersion version){
+		AnagramGroup group = version!=null?version.get(sample):store.get(sample);
+		return group!=null&&!group.isEmpty()?group:null;
+	}
+
+	/**
+	 * Check whether or not the sorted letters are a part of the sorted letters of the key
+	 */
+	private static boolean contains(String key, String letters){
+		int k = 0;
+		for(int i=0; i<letters.length(); i++){
+			char c = letters.charAt(i);
+			while(k<key.length()&&key.charAt(k)<c) k++;
+			if(k==key.length()||key.charAt(k)!=c) return false;
+			k++;
+		}
+		return true;
+	}
+
+	/**
+	 * Searching combinations of words with exactly the letters of the phrase, white space is
+	 * not a letter. The phrases of the same groups are found together, so the limit is met
+	 * by the first combinations of groups found.
+	 * @param phrase letters to use, at most {@link #MAX_LETTERS}
+	 * @param maxWords max count of words in a combination
+	 * @param limit max count of phrases
+	 * @param pool pool for the search
+	 * @return the phrases, sorted if the search is complete
+	 * @throws IllegalArgumentException if there are no letters or too many of them
+	 */
+	public PhraseResult search(String phrase, int maxWords, int limit, ForkJoinPool pool){
+		long start = System.nanoTime();
+		Search search = new Search(letters(phrase), maxWords, limit);
+		Search.Branch branches = search.branches();
+		if(branches!=null){
+			pool.invoke(branches);
+		}
+		List<String[]> phrases = search.phrases();
+		return new PhraseResult(phrases, !search.stopped, search.candidates, System.nanoTime()-start);
+	}
+
+	private final class Search {
+
+		private final int maxWords;
+
+		private final int limit;
+
+		//distinct letters of the phrase and their counts
+		private final char[] alphabet;
+
+		private final int[] letters;
+
+		private final int total;
+
+		private final int candidates;
+
+		private final AnagramGroup[] groups;
+
+		private final int[] lengths;
+
+		//letter counts of the candidates over the alphabet, a row per candidate
+		private final byte[] counts;
+
+		//letters of the candidates as bits of the alphabet
+		private final long[] uses;
+
+		//first candidate of the length or shorter
+		private final int[] firstOfLength;
+
+		private final AtomicLong steps = new AtomicLong();
+
+		private final AtomicLong found = new AtomicLong();
+
+		private final ConcurrentLinkedQueue<int[]> solutions = new ConcurrentLinkedQueue<int[]>();
+
+		private volatile boolean stopped;
+
+		Search(String phrase, int maxWords, int limit){
+			this.maxWords = maxWords;
+			this.limit = limit;
+			int n = phrase.length();
+			char[] distinct = new char[n];
+			int[] count = new int[n];
+			int k = 0;
+			for(int i=0; i<n; i++){
+				char c = phrase.charAt(i);
+				int j = indexOf(distinct, k, c);
+				if(j<0){
+					distinct[k] = c;
+					j = k++;
+				}
+				count[j]++;
+			}
+			alphabet = Arrays.copyOf(distinct, k);
+			letters = Arrays.copyOf(count, k);
+			total = n;
+
+			Candidates fit = contained(phrase);
+			candidates = fit.size;
+			groups = Arrays.copyOf(fit.groups, candidates);
+			lengths = new int[candidates];
+			uses = new long[candidates];
+			counts = new byte[candidates*k];
+			for(int c=0; c<candidates; c++){
+				String word = fit.samples[c];
+				lengths[c] = word.length();
+				for(int i=0; i<word.length(); i++){
+					int j = indexOf(alphabet, k, word.charAt(i));
+					counts[c*k+j]++;
+					uses[c] |= 1L << j;
+				}
+			}
+			firstOfLength = new int[n+1];
+			for(int length=n, c=0; length>=0; length--){
+				while(c<candidates&&lengths[c]>length) c++;
+				firstOfLength[length] = c;
+			}
+		}
+
+		/**
+		 * Getting the first words worth trying: not longer than the phrase and long enough to
+		 * cover it with the words that follow
+		 * @return branches or null if there are none
+		 */
+		Branch branches(){
+			int from = firstOfLength[total];
+			int to = from;
+			while(to<candidates&&lengths[to]*maxWords>=total) to++;
+			return from<to?new Branch(from, to):null;
+		}
+
+		private int indexOf(char[] chars, int k, char c){
+			for(int j=0; j<k; j++){
+				if(chars[j]==c) return j;
+			}
+			return -1;
+		}
+
+		/**
+		 * Range of first words of the combinations
+		 */
+		private final class Branch extends RecursiveAction {
+
+			private static final long serialVersionUID = 1L;
+
+			private final int from;
+
+			private final int to;
+
+			private int steps;
+
+			Branch(int from, int to){
+				this.from = from;
+				this.to = to;
+			}
+
+			@Override
+			protected void compute(){
+				if(to-from>1){
+					int middle = (from+to)>>>1;
+					invokeAll(new Branch(from, middle), new Branch(middle, to));
+					return;
+				}
+				int[] remaining = letters.clone();
+				int[] path = new int[maxWords];
+				long all = (1L << alphabet.length)-1;
+				if(alphabet.length==64) all = -1L;
+				visit(from, remaining, all, total, path, 0);
+				Search.this.steps.addAndGet(steps);
+			}
+
+			/**
+			 * Trying the candidate as the next word, then the candidates after it
+			 */
+			private void visit(int c, int[] remaining, long left, int letters, int[] path, int depth){
+				int k = alphabet.length;
+				int row = c*k;
+				if((uses[c]&~left)!=0) return;
+				for(int j=0; j<k; j++){
+					if(counts[row+j]>remaining[j]) return;
+				}
+				if(++steps==STEP_BATCH){
+					if(Search.this.steps.addAndGet(steps)>MAX_STEPS) stopped = true;
+					steps = 0;
+				}
+				long next = left;
+				for(int j=0; j<k; j++){
+					if((remaining[j] -= counts[row+j])==0) next &= ~(1L << j);
+				}
+				path[depth] = c;
+				int rest = letters-lengths[c];
+				if(rest==0){
+					solution(path, depth+1);
+				}else if(depth+1<maxWords){
+					int slots = maxWords-depth-1;
+					for(int i=Math.max(c, firstOfLength[rest]); i<candidates&&!stopped; i++){
+						//the candidates are getting shorter
+						if(lengths[i]*slots<rest) break;
+						visit(i, remaining, next, rest, path, depth+1);
+					}
+				}
+				for(int j=0; j<k; j++){
+					remaining[j] += counts[row+j];
+				}
+			}
+		}
+
+		private void solution(int[] path, int length){
+			int[] solution = Arrays.copyOf(path, length);
+			solutions.add(solution);
+			if(found.addAndGet(phrases(solution))>=limit){
+				stopped = true;
+			}
+		}
+
+		/**
+		 * Getting count of phrases of the groups, a group used r times gives combinations of r
+		 * of its words with repetition
+		 */
+		private long phrases(int[] solution){
+			long count = 1;
+			for(int i=0, r; i<solution.length; i+=r){
+				r = 1;
+				while(i+r<solution.length&&solution[i+r]==solution[i]) r++;
+				int size = groups[solution[i]].size();
+				//C(size+r-1, r)
+				long combinations = 1;
+				for(int j=1; j<=r; j++){
+					combinations = combinations*(size+j-1)/j;
+				}
+				count = Math.min(count*combinations, limit);
+			}
+			return count;
+		}
+
+		List<String[]> phrases(){
+			int[][] sorted = solutions.toArray(new int[solutions.size()][]);
+			Arrays.sort(sorted, (a, b)->{
+				for(int i=0; i<a.length&&i<b.length; i++){
+					if(a[i]!=b[i]) return Integer.compare(a[i], b[i]);
+				}
+				return Integer.compare(a.length, b.length);
+			});
+			List<String[]> phrases = new ArrayList<String[]>();
+			for(int i=0; i<sorted.length&&phrases.size()<limit; i++){
+				int[] solution = sorted[i];
+				String[][] words = new String[solution.length][];
+				for(int j=0; j<solution.length; j++){
+					words[j] = groups[solution[j]].toArray();
+				}
+				expand(solution, words, 0, 0, new String[solution.length], phrases);
+			}
+			return phrases;
+		}
+
+		private void expand(int[] solution, String[][] words, int depth, int first, String[] phrase, List<String[]> phrases){
+			if(depth==solution.length){
+				phrases.add(phrase.clone());
+				return;
+			}
+			for(int w=first; w<words[depth].length&&phrases.size()<limit; w++){
+				phrase[depth] = words[depth][w];
+				//a group used again starts from the same word, so a phrase is not repeated in another order
+				boolean again = depth+1<solution.length&&solution[depth+1]==solution[depth];
+				expand(solution, words, depth+1, again?w:0, phrase, phrases);
+			}
+		}
+	}
+
+	/**
+	 * Letter index of a store that follows its mutations. The first query builds the index, the
+	 * groups added and removed later go to its changes. Once the changes are more than 1/128 of
+	 * the groups a new index is built on the common pool, the queries keep using the old one and
+	 * its changes meanwhile.
+	 */
+	static final class Follower implements AnagramStore.Listener {
+
+		private final AnagramStore store;
+
+		private volatile LetterIndex index;
+
+		//changes of the index being built, they get the groups changed meanwhile, or null
+		private volatile Map<Long, String> next;
+
+		private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+		Follower(AnagramStore store){
+			this.store = store;
+		}
+
+		LetterIndex get(){
+			LetterIndex current = index;
+			if(current!=null) return current;
+			synchronized(this){
+				if(index==null){
+					index = build();
+					next = null;
+				}
+				return index;
+			}
+		}
+
+		/**
+		 * Building index of the store, the changes are started before the groups are read
+		 */
+		private LetterIndex build(){
+			Map<Long, String> changes = new ConcurrentHashMap<Long, String>();
+			next = changes;
+			return new LetterIndex(store, changes);
+		}
+
+		@Override
+		public void groupChanged(AnagramGroup group, int oldSize, int newSize){
+			if(oldSize!=0&&newSize!=0) return;
+			Long signature = group.getSignature();
+			String sample = newSize!=0?group.iterator().next():REMOVED;
+			//the index being built first, as in the SignatureFilter
+			Map<Long, String> building = next;
+			if(building!=null){
+				building.put(signature, sample);
+			}
+			LetterIndex current = index;
+			if(current==null||current.changes==building) return;
+			current.changes.put(signature, sample);
+			if(current.changes.size()>current.rebuildAt&&rebuilding.compareAndSet(false, true)){
+				ForkJoinPool.commonPool().execute(this::rebuild);
+			}
+		}
+
+		private void rebuild(){
+			try {
+				index = build();
+			} finally {
+				next = null;
+				rebuilding.set(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.ibotta.main.repository;
+
+import java.util.List;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Anagram groups found by the {@link SignatureIndex}
+ */
+public final class NearResult {
+
+	private final List<AnagramGroup> matches;
+
+	private final List<AnagramGroup> near;
+
+	private final boolean complete;
+
+	private final int probes;
+
+	private final long nanos;
+
+	NearResult(List<AnagramGroup> matches, List<AnagramGroup> near, boolean complete, int probes, long nanos){
+		this.matches = matches;
+		this.near = near;
+		this.complete = complete;
+		this.probes = probes;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * Getting the groups with the letters of the word, wildcards resolved
+	 */
+	public List<AnagramGroup> getMatches(){
+		return matches;
+	}
+
+	/**
+	 * Getting the groups one letter added, dropped or substituted away
+	 */
+	public List<AnagramGroup> getNear(){
+		return near;
+	}
+
+	/**
+	 * Check whether or not all the candidates were looked up, false if the lookup ran out of time
+	 */
+	public boolean isComplete(){
+		return complete;
+	}
+
+	/**
+	 * Getting count of candidate signatures looked up
+	 */
+	public int getProbes(){
+		return probes;
+	}
+
+	/**
+	 * Getting time of the lookup
+	 */
+	public long getNanos(){
+		return nanos;
+	}
+}
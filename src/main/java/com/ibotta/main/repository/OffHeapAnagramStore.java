@@ -0,0 +1,488 @@
+package com.ibotta.main.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Store that keeps no objects per group on the heap: an open addressing (linear probing) table
+ * keyed by the letter signature and the packed words of every group, see {@link AnagramGroup},
+ * are kept in direct buffers. A slot is 16 bytes, the signature and the offset of the group
+ * record. A record is the word length, the byte count and the packed words, a change of a group
+ * appends a new record and the old one is garbage until the arena is compacted.
+ *
+ * A group object is only built for the caller: a lookup that misses allocates nothing, a hit
+ * allocates the group it returns. The groups passed to the listener are such copies too.
+ *
+ * Writers are serialized. Readers never lock as long as no write gets in between: they read
+ * optimistically and read again under the read lock once a write has been made meanwhile.
+ * The table and the arena are grown together, both compacted, and the old buffers are freed
+ * by the garbage collector.
+ */
+class OffHeapAnagramStore implements AnagramStore, SignatureIndex.Groups {
+
+	private static final int SLOT = 16;
+
+	//record offsets are stored plus 1, so a zeroed slot is empty
+	private static final int EMPTY = 0;
+
+	private static final int TOMBSTONE = -1;
+
+	private static final int HEADER = 8;
+
+	private static final int WIDE = 1 << 31;
+
+	private static final int INITIAL_CAPACITY = 1 << 6;
+
+	private static final int INITIAL_ARENA = 1 << 12;
+
+	private final StampedLock lock = new StampedLock();
+
+	//replaced under the write lock, read optimistically
+	private ByteBuffer table;
+
+	private ByteBuffer arena;
+
+	//end of the records and bytes of the records replaced since, guarded by the write lock
+	private int top;
+
+	private int garbage;
+
+	//groups and tombstones, load factor is kept under 1/2, guarded by the write lock
+	private int used;
+
+	private volatile int groups;
+
+	private volatile Listener listener = Listener.NONE;
+
+	OffHeapAnagramStore(){
+		table = allocate(INITIAL_CAPACITY*SLOT);
+		arena = allocate(INITIAL_ARENA);
+	}
+
+	private static ByteBuffer allocate(int bytes){
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public void setListener(Listener listener){
+		this.listener = listener;
+	}
+
+	@Override
+	public boolean changesInPlace(){
+		return false;
+	}
+
+	@Override
+	public long offHeapMemory(){
+		long stamp = lock.readLock();
+		try {
+			return (long)table.capacity()+arena.capacity();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public AnagramGroup get(String word){
+		return read(AnagramKeys.signature(word), word, null);
+	}
+
+	@Override
+	public AnagramGroup find(long signature, Predicate<AnagramGroup> filter){
+		return read(signature, null, filter);
+	}
+
+	/**
+	 * Looking up the group optimistically, a read that overlaps a write is made again under the
+	 * read lock. An overlapping read may see a slot or a record half written and even fail,
+	 * nothing it has read is used then.
+	 * @param word word of the group or null
+	 * @param filter filter of the group or null
+	 */
+	private AnagramGroup read(long signature, String word, Predicate<AnagramGroup> filter){
+		long stamp = lock.tryOptimisticRead();
+		if(stamp!=0){
+			try {
+				AnagramGroup group = find(table, arena, signature, word, filter, stamp);
+				if(lock.validate(stamp)) return group;
+			} catch (RuntimeException e) {
+				//read again under the lock
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return find(table, arena, signature, word, filter, 0);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * @param stamp stamp of the optimistic read or 0 if the caller holds the lock
+	 */
+	private AnagramGroup find(ByteBuffer table, ByteBuffer arena, long signature, String word, Predicate<AnagramGroup> filter, long stamp){
+		int mask = table.capacity()/SLOT-1;
+		for(int i=(int)signature&mask, probes=0; probes<=mask; i=(i+1)&mask, probes++){
+			int record = table.getInt(i*SLOT+8);
+			if(record==EMPTY) return null;
+			if(record==TOMBSTONE||table.getLong(i*SLOT)!=signature) continue;
+			//the word length is checked before the group is built
+			if(word!=null&&(arena.getInt(record-1)&~WIDE)!=word.length()) continue;
+			AnagramGroup group = group(arena, record-1, signature, stamp);
+			if(word!=null?group.matches(word):filter.test(group)) return group;
+		}
+		return null;
+	}
+
+	/**
+	 * Copying the group out of the arena. An optimistic read is validated before the words are
+	 * allocated, a torn length could be as large as the arena.
+	 * @param stamp stamp of the optimistic read or 0 if the caller holds the lock
+	 */
+	private AnagramGroup group(ByteBuffer arena, int offset, long signature, long stamp){
+		int header = arena.getInt(offset);
+		int length = arena.getInt(offset+4);
+		int wordLength = header&~WIDE;
+		int stride = Math.max(1, (header&WIDE)!=0?2*wordLength:wordLength);
+		if(length<0||length>arena.capacity()-offset-HEADER||length%stride!=0) throw new IllegalStateException("Torn record");
+		if(stamp!=0&&!lock.validate(stamp)) throw new IllegalStateException("Torn record");
+		byte[] packed = new byte[length];
+		ByteBuffer words = arena.duplicate();
+		words.position(offset+HEADER);
+		words.get(packed);
+		return new AnagramGroup(signature, wordLength, (header&WIDE)!=0, packed);
+	}
+
+	/**
+	 * Getting slot of the group of the word, the caller holds the write lock
+	 * @return slot or -1
+	 */
+	private int slot(long signature, String word){
+		int mask = table.capacity()/SLOT-1;
+		for(int i=(int)signature&mask;; i=(i+1)&mask){
+			int record = table.getInt(i*SLOT+8);
+			if(record==EMPTY) return -1;
+			if(record!=TOMBSTONE&&table.getLong(i*SLOT)==signature&&(arena.getInt(record-1)&~WIDE)==word.length()
+					&&group(arena, record-1, signature, 0).matches(word)) return i;
+		}
+	}
+
+	private AnagramGroup group(int slot){
+		return group(arena, table.getInt(slot*SLOT+8)-1, table.getLong(slot*SLOT), 0);
+	}
+
+	private int recordSize(int record){
+		return HEADER+arena.getInt(record-1+4)+3&~3;
+	}
+
+	/**
+	 * Appending record of the group, the arena is compacted into a bigger one if it is full.
+	 * The caller holds the write lock.
+	 * @return offset of the record plus 1
+	 */
+	private int append(AnagramGroup group){
+		byte[] packed = group.packed();
+		int size = HEADER+packed.length+3&~3;
+		if(size>arena.capacity()-top){
+			long live = (long)top-garbage+size;
+			if(live>Integer.MAX_VALUE/2) throw new IllegalStateException("Off-heap arena is full");
+			rebuild(table.capacity()/SLOT, (int)Math.max(INITIAL_ARENA, Integer.highestOneBit((int)live)*4L));
+		}
+		int offset = top;
+		arena.putInt(offset, group.getWordLength()|(group.isWide()?WIDE:0));
+		arena.putInt(offset+4, packed.length);
+		ByteBuffer target = arena.duplicate();
+		target.position(offset+HEADER);
+		target.put(packed);
+		top = offset+size;
+		return offset+1;
+	}
+
+	/**
+	 * Adding slot of a new group, the caller holds the write lock
+	 */
+	private void insert(AnagramGroup group){
+		if((used+1)*2>table.capacity()/SLOT){
+			rebuild(capacity(groups+1), arena.capacity());
+		}
+		int record = append(group);
+		int mask = table.capacity()/SLOT-1;
+		int i = (int)group.getSignature()&mask;
+		while(table.getInt(i*SLOT+8)!=EMPTY){
+			i = (i+1)&mask;
+		}
+		table.putLong(i*SLOT, group.getSignature());
+		table.putInt(i*SLOT+8, record);
+		used++;
+		groups++;
+	}
+
+	/**
+	 * Pointing slot of the word to the new record of its group, the caller holds the write lock
+	 */
+	private void replace(String word, AnagramGroup group){
+		int record = append(group);
+		//the append may have moved the slot
+		int slot = slot(group.getSignature(), word);
+		garbage += recordSize(table.getInt(slot*SLOT+8));
+		table.putInt(slot*SLOT+8, record);
+	}
+
+	private void bury(int slot){
+		garbage += recordSize(table.getInt(slot*SLOT+8));
+		table.putInt(slot*SLOT+8, TOMBSTONE);
+		groups--;
+	}
+
+	private static int capacity(int groups){
+		int capacity = INITIAL_CAPACITY;
+		while((groups+1)*4>capacity){
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Copying the live records into new buffers, the tombstones and the garbage are dropped.
+	 * The caller holds the write lock, the old buffers are never written again.
+	 */
+	private void rebuild(int capacity, int arenaCapacity){
+		ByteBuffer t = allocate(capacity*SLOT);
+		ByteBuffer a = allocate(arenaCapacity);
+		ByteBuffer source = arena.duplicate();
+		int mask = capacity-1, end = 0;
+		for(int j=0, n=table.capacity()/SLOT; j<n; j++){
+			int record = table.getInt(j*SLOT+8);
+			if(record==EMPTY||record==TOMBSTONE) continue;
+			int size = recordSize(record);
+			source.limit(record-1+size).position(record-1);
+			a.position(end);
+			a.put(source);
+			long signature = table.getLong(j*SLOT);
+			int i = (int)signature&mask;
+			while(t.getInt(i*SLOT+8)!=EMPTY){
+				i = (i+1)&mask;
+			}
+			t.putLong(i*SLOT, signature);
+			t.putInt(i*SLOT+8, end+1);
+			end += size;
+		}
+		table = t;
+		arena = a;
+		top = end;
+		garbage = 0;
+		used = groups;
+	}
+
+	@Override
+	public boolean add(String word){
+		long stamp = lock.writeLock();
+		try {
+			return add(word, AnagramKeys.signature(word));
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	private boolean add(String word, long signature){
+		int slot = slot(signature, word);
+		if(slot<0){
+			AnagramGroup group = new AnagramGroup(signature, word.length());
+			group.append(word);
+			insert(group);
+			listener.groupChanged(group, 0, 1);
+			return true;
+		}
+		AnagramGroup group = group(slot);
+		if(!group.append(word)) return false;
+		replace(word, group);
+		listener.groupChanged(group, group.size()-1, group.size());
+		return true;
+	}
+
+	/**
+	 * Adding all the batches under a single write lock, the pool is not used
+	 */
+	@Override
+	public void addAll(List<WordBatch> batches, ForkJoinPool pool){
+		long stamp = lock.writeLock();
+		try {
+			for(WordBatch batch: batches){
+				String[] words = batch.getWords();
+				long[] signatures = batch.getSignatures();
+				for(int i=0, n=batch.size(); i<n; i++){
+					add(words[i], signatures[i]);
+				}
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public int addBatch(WordBatch batch){
+		String[] words = batch.getWords();
+		long[] signatures = batch.getSignatures();
+		int added = 0;
+		long stamp = lock.writeLock();
+		try {
+			for(int run=0, next; run<batch.size(); run=next){
+				next = batch.runEnd(run);
+				if(!batch.isGroup(run, next)){
+					for(int i=run; i<next; i++){
+						if(add(words[i], signatures[i])) added++;
+					}
+					continue;
+				}
+				int slot = slot(signatures[run], words[run]);
+				AnagramGroup group = slot>=0?group(slot):new AnagramGroup(signatures[run], words[run].length());
+				int count = group.appendAll(words, run, next);
+				if(count==0) continue;
+				if(slot>=0){
+					replace(words[run], group);
+				}else{
+					insert(group);
+				}
+				listener.groupChanged(group, group.size()-count, group.size());
+				added += count;
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+		return added;
+	}
+
+	@Override
+	public void addGroups(List<AnagramGroup> groups){
+		long stamp = lock.writeLock();
+		try {
+			long bytes = 0;
+			for(AnagramGroup group: groups){
+				bytes += HEADER+group.packed().length+3&~3;
+			}
+			if(bytes>Integer.MAX_VALUE/2) throw new IllegalStateException("Off-heap arena is full");
+			rebuild(capacity(this.groups+groups.size()), (int)Math.max(arena.capacity(), top+bytes));
+			for(AnagramGroup group: groups){
+				insert(group);
+				listener.groupChanged(group, 0, group.size());
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public boolean remove(String word){
+		long stamp = lock.writeLock();
+		try {
+			int slot = slot(AnagramKeys.signature(word), word);
+			if(slot<0) return false;
+			AnagramGroup group = group(slot);
+			if(!group.delete(word)) return false;
+			if(group.isEmpty()){
+				bury(slot);
+			}else{
+				replace(group.iterator().next(), group);
+			}
+			listener.groupChanged(group, group.size()+1, group.size());
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public AnagramGroup removeGroup(String word){
+		long stamp = lock.writeLock();
+		try {
+			int slot = slot(AnagramKeys.signature(word), word);
+			if(slot<0) return null;
+			AnagramGroup group = group(slot);
+			bury(slot);
+			listener.groupChanged(group, group.size(), 0);
+			return group;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override
+	public int groupCount(){
+		return groups;
+	}
+
+	/**
+	 * Iterating the slots of the table as of the start, the groups are built one by one. A table
+	 * replaced meanwhile is never written again, so the iteration is weakly consistent.
+	 */
+	@Override
+	public Iterator<AnagramGroup> iterator(){
+		long stamp = lock.readLock();
+		final ByteBuffer t, a;
+		try {
+			t = table;
+			a = arena;
+		} finally {
+			lock.unlockRead(stamp);
+		}
+		return new Iterator<AnagramGroup>(){
+			private int i = -1;
+			private AnagramGroup next = advance();
+
+			private AnagramGroup advance(){
+				int slots = t.capacity()/SLOT;
+				while(++i<slots){
+					AnagramGroup group = read(i);
+					if(group!=null) return group;
+				}
+				return null;
+			}
+
+			private AnagramGroup read(int slot){
+				long stamp = lock.tryOptimisticRead();
+				if(stamp!=0){
+					try {
+						AnagramGroup group = slot(slot, stamp);
+						if(lock.validate(stamp)) return group;
+					} catch (RuntimeException e) {
+						//read again under the lock
+					}
+				}
+				stamp = lock.readLock();
+				try {
+					return slot(slot, 0);
+				} finally {
+					lock.unlockRead(stamp);
+				}
+			}
+
+			private AnagramGroup slot(int slot, long stamp){
+				int record = t.getInt(slot*SLOT+8);
+				if(record==EMPTY||record==TOMBSTONE) return null;
+				return group(a, record-1, t.getLong(slot*SLOT), stamp);
+			}
+
+			@Override
+			public boolean hasNext(){
+				return next!=null;
+			}
+
+			@Override
+			public AnagramGroup next(){
+				if(next==null) throw new NoSuchElementException();
+				AnagramGroup group = next;
+				next = advance();
+				return group;
+			}
+		};
+	}
+}
@@ -0,0 +1,54 @@
+package com.ibotta.main.repository;
+
+import java.util.List;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Phrase anagrams found by the {@link LetterIndex}
+ */
+public final class PhraseResult {
+
+	private final List<String[]> phrases;
+
+	private final boolean complete;
+
+	private final int candidates;
+
+	private final long nanos;
+
+	PhraseResult(List<String[]> phrases, boolean complete, int candidates, long nanos){
+		this.phrases = phrases;
+		this.complete = complete;
+		this.candidates = candidates;
+		this.nanos = nanos;
+	}
+
+	/**
+	 * Getting the phrases, words of a phrase are ordered from the longest one
+	 */
+	public List<String[]> getPhrases(){
+		return phrases;
+	}
+
+	/**
+	 * Check whether or not all the phrases were found, false if the search stopped at a limit
+	 */
+	public boolean isComplete(){
+		return complete;
+	}
+
+	/**
+	 * Getting count of anagram groups that fit into the letters of the phrase
+	 */
+	public int getCandidates(){
+		return candidates;
+	}
+
+	/**
+	 * Getting time of the search
+	 */
+	public long getNanos(){
+		return nanos;
+	}
+}
@@ -0,0 +1,125 @@
+package com.ibotta.main.repository;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Consistent hash ring of the shards of a sharded dictionary. A group belongs to the shard
+ * owning its letter signature, so all the anagrams of a word are on one shard and a lookup
+ * asks a single shard.
+ *
+ * Every shard has 128 virtual nodes on the ring and owns the signatures from the node before
+ * up to each of them: the shards own about the same count of groups, and adding a shard takes
+ * about 1/N of the groups from the others without moving the rest. The positions depend only
+ * on the shard names, so the routers and the shards given the same names agree on the owners
+ * whatever the order of the names is.
+ */
+public final class ShardRing {
+
+	private static final int VIRTUAL_NODES = 128;
+
+	private final String[] shards;
+
+	//sorted positions of the virtual nodes and the shard of every one
+	private final long[] points;
+
+	private final int[] owners;
+
+	/**
+	 * @param shards shard names, i.e. their base URLs
+	 * @throws IllegalArgumentException if there are no shards or a name is repeated
+	 */
+	public ShardRing(String...shards){
+		if(shards.length==0){
+			throw new IllegalArgumentException("No shards");
+		}
+		this.shards = shards.clone();
+		TreeMap<Long, Integer> ring = new TreeMap<Long, Integer>();
+		for(int shard=0; shard<shards.length; shard++){
+			for(int other=0; other<shard; other++){
+				if(shards[other].equals(shards[shard])){
+					throw new IllegalArgumentException("Repeated shard " + shards[shard]);
+				}
+			}
+			for(int node=0; node<VIRTUAL_NODES; node++){
+				Long point = AnagramKeys.mix(hash(shards[shard] + '#' + node));
+				Integer owner = ring.get(point);
+				//a colliding node goes to the lower name, not to the one listed first
+				if(owner==null||shards[shard].compareTo(shards[owner])<0){
+					ring.put(point, shard);
+				}
+			}
+		}
+		points = new long[ring.size()];
+		owners = new int[ring.size()];
+		int i = 0;
+		for(Map.Entry<Long, Integer> entry: ring.entrySet()){
+			points[i] = entry.getKey();
+			owners[i++] = entry.getValue();
+		}
+	}
+
+	/**
+	 * Parsing comma separated shard names
+	 * @return ring or null if there are no names
+	 */
+	public static ShardRing parse(String shards){
+		String[] names = Arrays.stream(shards.split(",")).
+				map(String::trim).
+				filter(name->!name.isEmpty()).
+				toArray(n -> new String[n]);
+		return names.length>0?new ShardRing(names):null;
+	}
+
+	public int size(){
+		return shards.length;
+	}
+
+	public String getShard(int index){
+		return shards[index];
+	}
+
+	/**
+	 * Getting index of the shard name
+	 * @return index or -1 if it is not on the ring
+	 */
+	public int indexOf(String shard){
+		for(int i=0; i<shards.length; i++){
+			if(shards[i].equals(shard)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Getting the shard owning the group of the signature
+	 * @return shard index
+	 */
+	public int owner(long signature){
+		int i = Arrays.binarySearch(points, AnagramKeys.mix(signature));
+		if(i<0){
+			i = -i-1;
+		}
+		//past the last node the ring wraps around to the first one
+		return owners[i<points.length?i:0];
+	}
+
+	/**
+	 * Getting the shard owning the anagrams of the word
+	 * @return shard index
+	 */
+	public int owner(String word){
+		return owner(AnagramKeys.signature(word));
+	}
+
+	//FNV-1a of the chars
+	private static long hash(String s){
+		long hash = 0xCBF29CE484222325L;
+		for(int i=0; i<s.length(); i++){
+			hash = (hash^s.charAt(i))*0x100000001B3L;
+		}
+		return hash;
+	}
+}
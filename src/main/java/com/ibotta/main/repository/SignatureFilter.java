@@ -0,0 +1,218 @@
+package com.ibotta.main.repository;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Bloom filter of the letter signatures of all the groups, a lookup of letters no group has is
+ * answered without touching the store: no sorted key, no skip list descent, no table probe.
+ *
+ * The filter is blocked: the bits of a signature are all in one block of 512 bits, a cache line,
+ * so a test is a single cache miss however many bits are set. The filter is sized for the false
+ * positive rate at a quarter more groups than the store has, capped by the max memory.
+ *
+ * A new group sets its bits as it is added, so the filter never misses a group. A removed group
+ * cannot clear its bits, they may be shared, so the removals only make the filter less selective.
+ * Once the groups removed or added since the filter was built are a quarter of what it is sized
+ * for, the filter is built again from the store in the background. The groups added meanwhile
+ * go into both the old and the new bits.
+ */
+public final class SignatureFilter implements AnagramStore.Listener {
+
+	private static final Logger log = LoggerFactory.getLogger(SignatureFilter.class);
+
+	private static final int BLOCK_LONGS = 8;
+
+	private static final int MIN_GROUPS = 1 << 12;
+
+	/*
+	 * The shard ring places a group by the mixed signature, so a shard owns a few ranges of it.
+	 * Blocks picked from the same mix would leave most of the blocks of a shard empty and the
+	 * rest overfull, the filter mixes the signature with a seed of its own.
+	 */
+	private static final long SEED = 0x5851F42D4C957F2DL;
+
+	private final AnagramStore store;
+
+	private final double fpp;
+
+	private final long maxBytes;
+
+	private volatile Bits bits;
+
+	//bits being built, they get the groups added meanwhile, or null
+	private volatile Bits next;
+
+	private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+	/**
+	 * Bits sized for a count of groups
+	 */
+	private static final class Bits {
+
+		final AtomicLongArray words;
+
+		final int blocks;
+
+		final int hashes;
+
+		final int capacity;
+
+		//groups added and removed since the bits were built
+		final AtomicInteger added = new AtomicInteger();
+
+		final AtomicInteger removed = new AtomicInteger();
+
+		Bits(int capacity, double fpp, long maxBytes){
+			double bitsPerGroup = -Math.log(fpp)/(Math.log(2)*Math.log(2));
+			long bytes = Math.min((long)Math.ceil(capacity*bitsPerGroup/8), maxBytes);
+			this.blocks = (int)Math.max(bytes/(BLOCK_LONGS*8), 1);
+			this.words = new AtomicLongArray(blocks*BLOCK_LONGS);
+			this.capacity = capacity;
+			//optimal count for the bits there are, fewer bits per group than asked for if capped
+			this.hashes = (int)Math.max(1, Math.min(16, Math.round(blocks*BLOCK_LONGS*64.0/capacity*Math.log(2))));
+		}
+
+		void add(long signature){
+			long h = AnagramKeys.mix(signature^SEED);
+			int block = block(h);
+			long g = h*0x9E3779B97F4A7C15L;
+			int a = (int)g, b = (int)(g >>> 32)|1;
+			for(int i=0; i<hashes; i++){
+				int bit = (a+i*b) >>> 23;
+				int index = block+(bit >>> 6);
+				long mask = 1L << bit;
+				long word = words.get(index);
+				while((word&mask)==0&&!words.compareAndSet(index, word, word|mask)){
+					word = words.get(index);
+				}
+			}
+		}
+
+		boolean mightContain(long signature){
+			long h = AnagramKeys.mix(signature^SEED);
+			int block = block(h);
+			long g = h*0x9E3779B97F4A7C15L;
+			int a = (int)g, b = (int)(g >>> 32)|1;
+			for(int i=0; i<hashes; i++){
+				int bit = (a+i*b) >>> 23;
+				if((words.get(block+(bit >>> 6))&1L << bit)==0) return false;
+			}
+			return true;
+		}
+
+		private int block(long h){
+			return (int)(((h >>> 32)*blocks) >>> 32)*BLOCK_LONGS;
+		}
+
+		double expectedFpp(int groups){
+			double bitsPerGroup = blocks*BLOCK_LONGS*64.0/Math.max(groups, 1);
+			return Math.pow(1-Math.exp(-hashes/bitsPerGroup), hashes);
+		}
+	}
+
+	/**
+	 * @param store store of the groups, read when the filter is built
+	 * @param fpp false positive rate the filter is sized for
+	 * @param maxBytes max size of the bits
+	 */
+	SignatureFilter(AnagramStore store, double fpp, long maxBytes){
+		this.store = store;
+		this.fpp = fpp;
+		this.maxBytes = maxBytes;
+		this.bits = build(null);
+	}
+
+	/**
+	 * Building bits from the store, the groups added meanwhile go to them by the listener
+	 * @param current current bits or null if there are none yet
+	 */
+	private Bits build(Bits current){
+		int groups = store.groupCount();
+		Bits built = new Bits(Math.max(groups+groups/4, MIN_GROUPS), fpp, maxBytes);
+		if(current!=null){
+			next = built;
+		}
+		for(AnagramGroup group: store){
+			built.add(group.getSignature());
+		}
+		return built;
+	}
+
+	/**
+	 * Telling whether a group of the signature may be in the store
+	 * @return false if there is no such group for sure
+	 */
+	public boolean mightContain(long signature){
+		return bits.mightContain(signature);
+	}
+
+	@Override
+	public void groupChanged(AnagramGroup group, int oldSize, int newSize){
+		if(oldSize!=0&&newSize!=0) return;
+		if(oldSize==0){
+			/*
+			 * The bits being built are read before the current ones: a rebuild that has not
+			 * started yet reads the group from the store, one that has gets it here, and one
+			 * that has finished has made its bits the current ones.
+			 */
+			Bits building = next;
+			if(building!=null){
+				building.add(group.getSignature());
+			}
+			Bits current = bits;
+			current.add(group.getSignature());
+			if(current.added.incrementAndGet()<=current.capacity/4) return;
+		}else{
+			Bits current = bits;
+			if(current.removed.incrementAndGet()<=current.capacity/4) return;
+		}
+		if(rebuilding.compareAndSet(false, true)){
+			Thread rebuild = new Thread(this::rebuild, "dictionary-filter");
+			rebuild.setDaemon(true);
+			rebuild.start();
+		}
+	}
+
+	private void rebuild(){
+		try {
+			long start = System.nanoTime();
+			bits = build(bits);
+			log.debug("Rebuilt the signature filter of {} groups in {} ms", store.groupCount(), (System.nanoTime()-start)/1_000_000);
+		} finally {
+			next = null;
+			rebuilding.set(false);
+		}
+	}
+
+	/**
+	 * Getting size of the bits
+	 */
+	public long getMemory(){
+		return bits.words.length()*8L;
+	}
+
+	/**
+	 * Getting false positive rate the filter is sized for
+	 */
+	public double getTargetFpp(){
+		return fpp;
+	}
+
+	/**
+	 * Getting false positive rate of the bits with the groups the store has now, the groups
+	 * removed since the bits were built still count. The formula is the one of a plain Bloom
+	 * filter, the blocks make the real rate somewhat higher at the low rates, the dictionary
+	 * counts the real false positives, see {@link DictionaryCounters#getFilterFalsePositives}.
+	 */
+	public double getExpectedFpp(){
+		Bits current = bits;
+		return current.expectedFpp(store.groupCount()+current.removed.get());
+	}
+}
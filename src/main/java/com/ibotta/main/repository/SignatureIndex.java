@@ -0,0 +1,353 @@
+package com.ibotta.main.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Open addressing table of all the anagram groups keyed by the letter signature, maintained
+ * on every mutation of a store that cannot be probed by the signature itself, i.e. the sorted
+ * and the versioned ones. The signature is a sum of the letter values,
+ * see {@link AnagramKeys#letter}, so the signature of a word with a letter added, dropped or
+ * substituted is a long addition away and a near anagram lookup is a few slot probes per
+ * candidate, no candidate string is ever built. A hit is confirmed against the sorted letters
+ * key of the group, signatures can collide.
+ *
+ * Readers never lock, a probe reads the group slot first and the key written before it.
+ * Writers come from many store locks, so the table has a lock of its own. Removed groups
+ * leave a tombstone, the tombstones are dropped on resize.
+ *
+ * A store that is a signature table itself, see {@link Groups}, is probed directly instead,
+ * the index then keeps nothing and is not told about the changes.
+ */
+public class SignatureIndex implements AnagramStore.Listener {
+
+	/**
+	 * Any single letter of the alphabet
+	 */
+	public static final char WILDCARD = '?';
+
+	public static final int MAX_WILDCARDS = 2;
+
+	private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+	private static final long[] ALPHABET_LETTERS = new long[ALPHABET.length];
+
+	static {
+		for(int i=0; i<ALPHABET.length; i++){
+			ALPHABET_LETTERS[i] = AnagramKeys.letter(ALPHABET[i]);
+		}
+	}
+
+	private static final AnagramGroup TOMBSTONE = new AnagramGroup(0, 0);
+
+	/**
+	 * Groups looked up by the letter signature
+	 */
+	interface Groups {
+
+		/**
+		 * Getting the first group of the signature the filter accepts
+		 * @return group or null
+		 */
+		AnagramGroup find(long signature, Predicate<AnagramGroup> filter);
+	}
+
+	private volatile Table table;
+
+	//store probed instead of the table or null
+	private final Groups store;
+
+	//groups and tombstones, load factor is kept under 1/2, guarded by the index lock
+	private int used;
+
+	private int groups;
+
+	public SignatureIndex(){
+		this(0);
+	}
+
+	/**
+	 * @param expected count of groups to make room for
+	 */
+	SignatureIndex(int expected){
+		table = new Table(capacity(expected));
+		store = null;
+	}
+
+	/**
+	 * Creating index that probes the store and keeps no groups of its own
+	 */
+	SignatureIndex(Groups store){
+		table = new Table(0);
+		this.store = store;
+	}
+
+	private static int capacity(int groups){
+		int capacity = 1 << 6;
+		while((groups+1)*4>capacity){
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	@Override
+	public synchronized void groupChanged(AnagramGroup group, int oldSize, int newSize){
+		if(store!=null) return;
+		if(oldSize==0){
+			if(newSize>0) insert(group);
+			return;
+		}
+		Table t = table;
+		int slot = t.find(group);
+		if(slot<0) return;
+		if(newSize==0){
+			t.groups.set(slot, TOMBSTONE);
+			groups--;
+		}else if(t.groups.get(slot)!=group){
+			//a versioned store passes a new copy of the group
+			t.groups.set(slot, group);
+		}
+	}
+
+	private void insert(AnagramGroup group){
+		if((used+1)*2>table.groups.length()){
+			resize();
+		}
+		Table t = table;
+		int mask = t.keys.length-1;
+		int i = (int)group.getSignature()&mask;
+		while(t.groups.get(i)!=null){
+			i = (i+1)&mask;
+		}
+		t.keys[i] = group.getSignature();
+		t.groups.set(i, group);
+		used++;
+		groups++;
+	}
+
+	private void resize(){
+		Table t = table;
+		Table copy = new Table(capacity(groups));
+		int mask = copy.keys.length-1;
+		for(int j=0; j<t.keys.length; j++){
+			AnagramGroup group = t.groups.get(j);
+			if(group!=null&&group!=TOMBSTONE){
+				int i = (int)t.keys[j]&mask;
+				while(copy.groups.get(i)!=null){
+					i = (i+1)&mask;
+				}
+				copy.keys[i] = t.keys[j];
+				copy.groups.set(i, group);
+			}
+		}
+		table = copy;
+		used = groups;
+	}
+
+	/**
+	 * Looking up the groups of a word and of its near anagrams. Letters of the word are taken
+	 * as they are, up to {@link #MAX_WILDCARDS} {@link #WILDCARD} chars match any letter a-z.
+	 * With fuzzy set the groups one letter a-z added, one letter dropped or one letter
+	 * substituted with a-z away are looked up as well, unless the word has wildcards.
+	 * @param word letters with optional wildcards
+	 * @param fuzzy whether or not to look up the near anagrams
+	 * @param maxProbes limit of the candidate signatures to look up, checked before every 26 of them
+	 * @return groups found, complete is false if the lookup ran out of probes
+	 * @throws IllegalArgumentException if there are no letters or too many wildcards
+	 */
+	public NearResult search(String word, boolean fuzzy, int maxProbes){
+		long start = System.nanoTime();
+		char[] letters = new char[word.length()];
+		int count = 0, wildcards = 0;
+		long signature = 0;
+		for(int i=0; i<word.length(); i++){
+			char c = word.charAt(i);
+			if(c==WILDCARD){
+				wildcards++;
+			}else{
+				letters[count++] = c;
+				signature += AnagramKeys.letter(c);
+			}
+		}
+		if(count+wildcards==0) throw new IllegalArgumentException("No letters");
+		if(wildcards>MAX_WILDCARDS) throw new IllegalArgumentException("Max " + MAX_WILDCARDS + " wildcards");
+		letters = Arrays.copyOf(letters, count);
+		Arrays.sort(letters);
+		Search search = new Search(store!=null?store:table, letters, maxProbes);
+		boolean complete;
+		if(wildcards>0){
+			complete = search.wildcards(signature, wildcards);
+		}else{
+			search.probe(signature, -1, 0, search.matches);
+			complete = !fuzzy||search.edits(signature);
+		}
+		return new NearResult(search.matches, search.near, complete, search.probes, System.nanoTime()-start);
+	}
+
+	private static final class Table implements Groups {
+
+		//signatures of the slots, written before the group of the slot
+		private final long[] keys;
+
+		private final AtomicReferenceArray<AnagramGroup> groups;
+
+		Table(int capacity){
+			keys = new long[capacity];
+			groups = new AtomicReferenceArray<AnagramGroup>(capacity);
+		}
+
+		/**
+		 * Getting slot of the group or of its previous copy, the caller holds the index lock
+		 * @return slot or -1
+		 */
+		int find(AnagramGroup group){
+			long signature = group.getSignature();
+			int mask = keys.length-1;
+			for(int i=(int)signature&mask;; i=(i+1)&mask){
+				AnagramGroup indexed = groups.get(i);
+				if(indexed==null) return -1;
+				if(indexed==group) return i;
+				if(indexed!=TOMBSTONE&&keys[i]==signature&&sameKey(indexed, group)) return i;
+			}
+		}
+
+		@Override
+		public AnagramGroup find(long signature, Predicate<AnagramGroup> filter){
+			int mask = keys.length-1;
+			for(int i=(int)signature&mask;; i=(i+1)&mask){
+				AnagramGroup group = groups.get(i);
+				if(group==null) return null;
+				if(keys[i]==signature&&group!=TOMBSTONE&&filter.test(group)) return group;
+			}
+		}
+
+		private static boolean sameKey(AnagramGroup a, AnagramGroup b){
+			String key = a.getKey();
+			return key!=null&&key.equals(b.getKey());
+		}
+	}
+
+	/**
+	 * Probes of a single lookup. A candidate is the sorted letters of the word with at most one
+	 * letter removed and at most two letters added, it is never built: the signature is summed
+	 * and the key of a hit is compared with the letters merged on the fly.
+	 */
+	private static final class Search implements Predicate<AnagramGroup> {
+
+		private final Groups groups;
+
+		private final char[] letters;
+
+		private final int maxProbes;
+
+		private final List<AnagramGroup> matches = new ArrayList<AnagramGroup>();
+
+		private final List<AnagramGroup> near = new ArrayList<AnagramGroup>();
+
+		//added letters in ascending order
+		private final char[] added = new char[MAX_WILDCARDS];
+
+		private int probes;
+
+		//candidate of the current probe
+		private int removed;
+
+		private int addedCount;
+
+		Search(Groups groups, char[] letters, int maxProbes){
+			this.groups = groups;
+			this.letters = letters;
+			this.maxProbes = maxProbes;
+		}
+
+		/**
+		 * Looking up the letters with a letter added, dropped or substituted
+		 * @return false if the probes ran out
+		 */
+		boolean edits(long signature){
+			for(int a=0; a<ALPHABET.length; a++){
+				added[0] = ALPHABET[a];
+				probe(signature+ALPHABET_LETTERS[a], -1, 1, near);
+			}
+			for(int i=0; i<letters.length; i++){
+				char removed = letters[i];
+				//the same letter again is the same candidates
+				if(i>0&&letters[i-1]==removed) continue;
+				if(probes>=maxProbes) return false;
+				long base = signature-AnagramKeys.letter(removed);
+				if(letters.length>1){
+					probe(base, removed, 0, near);
+				}
+				for(int a=0; a<ALPHABET.length; a++){
+					if(ALPHABET[a]==removed) continue;
+					added[0] = ALPHABET[a];
+					probe(base+ALPHABET_LETTERS[a], removed, 1, near);
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Looking up the letters with every combination of the wildcard letters
+		 * @return false if the probes ran out
+		 */
+		boolean wildcards(long signature, int wildcards){
+			for(int a=0; a<ALPHABET.length; a++){
+				added[0] = ALPHABET[a];
+				if(wildcards==1){
+					probe(signature+ALPHABET_LETTERS[a], -1, 1, matches);
+					continue;
+				}
+				if(probes>=maxProbes) return false;
+				//combinations, the letters are added in ascending order
+				for(int b=a; b<ALPHABET.length; b++){
+					added[1] = ALPHABET[b];
+					probe(signature+ALPHABET_LETTERS[a]+ALPHABET_LETTERS[b], -1, 2, matches);
+				}
+			}
+			return true;
+		}
+
+		void probe(long signature, int removed, int addedCount, List<AnagramGroup> found){
+			probes++;
+			this.removed = removed;
+			this.addedCount = addedCount;
+			AnagramGroup group = groups.find(signature, this);
+			if(group!=null){
+				found.add(group);
+			}
+		}
+
+		/**
+		 * Check whether or not the sorted key of the group is the letters with one occurrence
+		 * of removed taken out and the added letters merged in
+		 */
+		@Override
+		public boolean test(AnagramGroup group){
+			String key = group.getKey();
+			if(key==null) return false;
+			if(key.length()!=letters.length-(removed>=0?1:0)+addedCount) return false;
+			boolean skip = removed>=0;
+			int i = 0, j = 0;
+			for(int k=0; k<key.length(); k++){
+				if(skip&&i<letters.length&&letters[i]==removed){
+					i++;
+					skip = false;
+				}
+				char next;
+				if(j<addedCount&&(i==letters.length||added[j]<=letters[i])){
+					next = added[j++];
+				}else{
+					next = letters[i++];
+				}
+				if(key.charAt(k)!=next) return false;
+			}
+			return true;
+		}
+	}
+}
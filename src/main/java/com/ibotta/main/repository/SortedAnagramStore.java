@@ -0,0 +1,171 @@
+package com.ibotta.main.repository;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Treemap(ConcurrentSkipListMap) is sorted according to the natural ordering of its keys, or by a 
+ * Comparator provided at map creation time, depending on which constructor is used. This implementation 
+ * provides guaranteed log(n)time cost for the containsKey, get, put and remove operations. 
+ * Groups are iterated in the order of their sorted letters keys.
+ *
+ * Readers never lock. Writers lock one of the stripes picked by the letter signature, so all
+ * the anagrams of a word share a stripe and a get-then-put on a group is atomic.
+ */
+class SortedAnagramStore implements AnagramStore {
+
+	private static final int STRIPE_BITS = 6;
+
+	private final ConcurrentSkipListMap<String, AnagramGroup> map = new ConcurrentSkipListMap<String, AnagramGroup>();
+
+	private final Object[] stripes = new Object[1 << STRIPE_BITS];
+
+	private volatile Listener listener = Listener.NONE;
+
+	//size() of the skip list walks all the nodes
+	private final AtomicInteger groups = new AtomicInteger();
+
+	SortedAnagramStore(){
+		for(int i=0; i<stripes.length; i++){
+			stripes[i] = new Object();
+		}
+	}
+
+	private Object stripeFor(long signature){
+		return stripes[(int)(signature >>> (64-STRIPE_BITS))];
+	}
+
+	@Override
+	public void setListener(Listener listener){
+		this.listener = listener;
+	}
+
+	@Override
+	public AnagramGroup get(String word){
+		return map.get(AnagramKeys.sortedKey(word));
+	}
+
+	@Override
+	public boolean add(String word){
+		String key = AnagramKeys.sortedKey(word);
+		long signature = AnagramKeys.signature(word);
+		synchronized(stripeFor(signature)){
+			AnagramGroup group = map.get(key);
+			if(group==null){
+				group = new AnagramGroup(signature, word.length());
+				group.append(word);
+				map.put(key, group);
+				groups.incrementAndGet();
+				listener.groupChanged(group, 0, 1);
+				return true;
+			}
+			if(group.append(word)){
+				listener.groupChanged(group, group.size()-1, group.size());
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public void addAll(List<WordBatch> batches, ForkJoinPool pool){
+		for(WordBatch batch: batches){
+			String[] words = batch.getWords();
+			for(int i=0, n=batch.size(); i<n; i++){
+				add(words[i]);
+			}
+		}
+	}
+
+	@Override
+	public int addBatch(WordBatch batch){
+		String[] words = batch.getWords();
+		long[] signatures = batch.getSignatures();
+		int added = 0;
+		for(int run=0, next; run<batch.size(); run=next){
+			next = batch.runEnd(run);
+			if(!batch.isGroup(run, next)){
+				for(int i=run; i<next; i++){
+					if(add(words[i])) added++;
+				}
+				continue;
+			}
+			String key = AnagramKeys.sortedKey(words[run]);
+			synchronized(stripeFor(signatures[run])){
+				AnagramGroup group = map.get(key);
+				boolean created = group==null;
+				if(created){
+					group = new AnagramGroup(signatures[run], words[run].length());
+				}
+				int oldSize = group.size();
+				int count = group.appendAll(words, run, next);
+				if(created){
+					map.put(key, group);
+					groups.incrementAndGet();
+				}
+				if(count>0){
+					listener.groupChanged(group, oldSize, group.size());
+				}
+				added += count;
+			}
+		}
+		return added;
+	}
+
+	@Override
+	public void addGroups(List<AnagramGroup> list){
+		for(AnagramGroup group: list){
+			synchronized(stripeFor(group.getSignature())){
+				if(map.put(group.getKey(), group)==null){
+					groups.incrementAndGet();
+				}
+				listener.groupChanged(group, 0, group.size());
+			}
+		}
+	}
+
+	@Override
+	public boolean remove(String word){
+		String key = AnagramKeys.sortedKey(word);
+		synchronized(stripeFor(AnagramKeys.signature(word))){
+			AnagramGroup group = map.get(key);
+			if(group!=null&&group.delete(word)){
+				if(group.isEmpty()){
+					map.remove(key);
+					groups.decrementAndGet();
+				}
+				listener.groupChanged(group, group.size()+1, group.size());
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public AnagramGroup removeGroup(String word){
+		String key = AnagramKeys.sortedKey(word);
+		synchronized(stripeFor(AnagramKeys.signature(word))){
+			AnagramGroup group = map.remove(key);
+			if(group!=null){
+				groups.decrementAndGet();
+				listener.groupChanged(group, group.size(), 0);
+			}
+			return group;
+		}
+	}
+
+	@Override
+	public int groupCount(){
+		return groups.get();
+	}
+
+	@Override
+	public Iterator<AnagramGroup> iterator(){
+		return map.values().iterator();
+	}
+}
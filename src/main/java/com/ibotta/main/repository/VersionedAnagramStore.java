@@ -0,0 +1,221 @@
+package com.ibotta.main.repository;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Multiversion store: the groups are kept in immutable versions, see {@link AnagramVersion}.
+ * Readers never lock and never wait, they read the current version once and then work with
+ * it. Writers are serialized, every write builds the next version from the current one and
+ * publishes it with a single volatile write, so a batch of words is seen all at once or not
+ * at all.
+ *
+ * Groups are copied on write, a group that has been published never changes. The listener is
+ * called once the version with the change is published.
+ */
+class VersionedAnagramStore implements AnagramStore {
+
+	private volatile AnagramVersion version = AnagramVersion.EMPTY;
+
+	private volatile Listener listener = Listener.NONE;
+
+	@Override
+	public void setListener(Listener listener){
+		this.listener = listener;
+	}
+
+	@Override
+	public AnagramVersion version(){
+		return version;
+	}
+
+	@Override
+	public boolean changesInPlace(){
+		return false;
+	}
+
+	@Override
+	public AnagramGroup get(String word){
+		return version.get(word);
+	}
+
+	@Override
+	public synchronized boolean add(String word){
+		AnagramVersion.Edit edit = version.edit();
+		Changes changes = new Changes(1);
+		boolean added = add(edit, word, AnagramKeys.signature(word), changes);
+		if(added){
+			publish(edit, changes);
+		}
+		return added;
+	}
+
+	private static boolean add(AnagramVersion.Edit edit, String word, long signature, Changes changes){
+		AnagramGroup group = edit.get(signature, word);
+		if(group==null){
+			AnagramGroup created = new AnagramGroup(signature, word.length());
+			created.append(word);
+			edit.replace(null, created);
+			changes.add(created, 0, 1);
+			return true;
+		}
+		if(group.contains(word)) return false;
+		AnagramGroup copy = group.copy();
+		copy.append(word);
+		edit.replace(group, copy);
+		changes.add(copy, group.size(), copy.size());
+		return true;
+	}
+
+	/**
+	 * Adding words with precomputed signatures as a single version
+	 */
+	@Override
+	public synchronized void addAll(List<WordBatch> batches, ForkJoinPool pool){
+		AnagramVersion.Edit edit = version.edit();
+		Changes changes = new Changes(1024);
+		for(WordBatch batch: batches){
+			String[] words = batch.getWords();
+			long[] signatures = batch.getSignatures();
+			for(int i=0, n=batch.size(); i<n; i++){
+				add(edit, words[i], signatures[i], changes);
+			}
+		}
+		publish(edit, changes);
+	}
+
+	@Override
+	public synchronized int addBatch(WordBatch batch){
+		String[] words = batch.getWords();
+		long[] signatures = batch.getSignatures();
+		AnagramVersion.Edit edit = version.edit();
+		Changes changes = new Changes(batch.size());
+		int added = 0;
+		for(int run=0, next; run<batch.size(); run=next){
+			next = batch.runEnd(run);
+			if(!batch.isGroup(run, next)){
+				for(int i=run; i<next; i++){
+					if(add(edit, words[i], signatures[i], changes)) added++;
+				}
+				continue;
+			}
+			AnagramGroup group = edit.get(signatures[run], words[run]);
+			AnagramGroup copy = group!=null?group.copy():new AnagramGroup(signatures[run], words[run].length());
+			int count = copy.appendAll(words, run, next);
+			if(count>0){
+				edit.replace(group, copy);
+				changes.add(copy, copy.size()-count, copy.size());
+				added += count;
+			}
+		}
+		if(added>0){
+			publish(edit, changes);
+		}
+		return added;
+	}
+
+	@Override
+	public synchronized void addGroups(List<AnagramGroup> groups){
+		AnagramVersion.Edit edit = version.edit();
+		Changes changes = new Changes(groups.size());
+		for(AnagramGroup group: groups){
+			edit.replace(null, group);
+			changes.add(group, 0, group.size());
+		}
+		publish(edit, changes);
+	}
+
+	@Override
+	public synchronized boolean remove(String word){
+		AnagramVersion current = version;
+		long signature = AnagramKeys.signature(word);
+		AnagramGroup group = current.get(signature, word);
+		if(group==null||!group.contains(word)) return false;
+		AnagramVersion.Edit edit = current.edit();
+		Changes changes = new Changes(1);
+		if(group.size()==1){
+			edit.replace(group, null);
+			changes.add(group, 1, 0);
+		}else{
+			AnagramGroup copy = group.copy();
+			copy.delete(word);
+			edit.replace(group, copy);
+			changes.add(copy, group.size(), copy.size());
+		}
+		publish(edit, changes);
+		return true;
+	}
+
+	@Override
+	public synchronized AnagramGroup removeGroup(String word){
+		AnagramVersion current = version;
+		AnagramGroup group = current.get(word);
+		if(group!=null){
+			AnagramVersion.Edit edit = current.edit();
+			edit.replace(group, null);
+			Changes changes = new Changes(1);
+			changes.add(group, group.size(), 0);
+			publish(edit, changes);
+		}
+		return group;
+	}
+
+	/**
+	 * Making the version current and then passing its changes to the listener, so the listener
+	 * never runs ahead of the readers. The caller holds the store lock.
+	 */
+	private void publish(AnagramVersion.Edit edit, Changes changes){
+		version = edit.publish();
+		Listener listener = this.listener;
+		for(int i=0; i<changes.count; i++){
+			listener.groupChanged(changes.groups[i], changes.oldSizes[i], changes.newSizes[i]);
+		}
+	}
+
+	@Override
+	public int groupCount(){
+		return version.groupCount();
+	}
+
+	/**
+	 * Iterating the groups of the current version, iteration is consistent
+	 */
+	@Override
+	public Iterator<AnagramGroup> iterator(){
+		return version.iterator();
+	}
+
+	private static final class Changes {
+
+		private AnagramGroup[] groups;
+
+		private int[] oldSizes;
+
+		private int[] newSizes;
+
+		private int count;
+
+		Changes(int capacity){
+			groups = new AnagramGroup[capacity];
+			oldSizes = new int[capacity];
+			newSizes = new int[capacity];
+		}
+
+		void add(AnagramGroup group, int oldSize, int newSize){
+			if(count==groups.length){
+				int capacity = Math.max(16, count*2);
+				groups = Arrays.copyOf(groups, capacity);
+				oldSizes = Arrays.copyOf(oldSizes, capacity);
+				newSizes = Arrays.copyOf(newSizes, capacity);
+			}
+			groups[count] = group;
+			oldSizes[count] = oldSize;
+			newSizes[count] = newSize;
+			count++;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.ibotta.main.repository;
+
+import java.util.Arrays;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Words with their precomputed signatures, see {@link AnagramKeys#signature}
+ */
+final class WordBatch {
+
+	private String[] words;
+
+	private long[] signatures;
+
+	private int size;
+
+	WordBatch(int capacity){
+		words = new String[Math.max(capacity, 1)];
+		signatures = new long[words.length];
+	}
+
+	void add(String word){
+		if(size==words.length){
+			words = Arrays.copyOf(words, size*2);
+			signatures = Arrays.copyOf(signatures, size*2);
+		}
+		words[size] = word;
+		signatures[size++] = AnagramKeys.signature(word);
+	}
+
+	/**
+	 * Reordering words by the high bits of their signatures (counting sort)
+	 * @param bits count of the high signature bits
+	 * @return offsets of every partition, partition i is [offsets[i], offsets[i+1])
+	 */
+	int[] partition(int bits){
+		int partitions = 1 << bits;
+		int shift = 64-bits;
+		int[] offsets = new int[partitions+1];
+		for(int i=0; i<size; i++){
+			offsets[(int)(signatures[i] >>> shift)+1]++;
+		}
+		for(int i=0; i<partitions; i++){
+			offsets[i+1] += offsets[i];
+		}
+		int[] next = Arrays.copyOf(offsets, partitions);
+		String[] sortedWords = new String[size];
+		long[] sortedSignatures = new long[size];
+		for(int i=0; i<size; i++){
+			int j = next[(int)(signatures[i] >>> shift)]++;
+			sortedWords[j] = words[i];
+			sortedSignatures[j] = signatures[i];
+		}
+		words = sortedWords;
+		signatures = sortedSignatures;
+		return offsets;
+	}
+
+	/**
+	 * Sorting words by signature (LSD radix sort, unsigned), so the words of every anagram
+	 * group are adjacent and the groups of every hash segment are contiguous
+	 * @return count of distinct signatures
+	 */
+	int sort(){
+		long[] s = signatures, sortedSignatures = new long[s.length];
+		String[] w = words, sortedWords = new String[w.length];
+		int[] offsets = new int[257];
+		for(int shift=0; shift<64; shift+=8){
+			Arrays.fill(offsets, 0);
+			for(int i=0; i<size; i++){
+				offsets[((int)(s[i] >>> shift)&0xFF)+1]++;
+			}
+			for(int i=0; i<256; i++){
+				offsets[i+1] += offsets[i];
+			}
+			for(int i=0; i<size; i++){
+				int j = offsets[(int)(s[i] >>> shift)&0xFF]++;
+				sortedSignatures[j] = s[i];
+				sortedWords[j] = w[i];
+			}
+			long[] ts = s; s = sortedSignatures; sortedSignatures = ts;
+			String[] tw = w; w = sortedWords; sortedWords = tw;
+		}
+		signatures = s;
+		words = w;
+		int runs = 0;
+		for(int i=0; i<size; i=runEnd(i)){
+			runs++;
+		}
+		return runs;
+	}
+
+	/**
+	 * Getting end of the run of equal signatures in a sorted batch
+	 * @param from first word of the run
+	 * @return index after the last word of the run
+	 */
+	int runEnd(int from){
+		int end = from+1;
+		while(end<size&&signatures[end]==signatures[from]){
+			end++;
+		}
+		return end;
+	}
+
+	/**
+	 * Check whether or not all the words of a run are anagrams of its first word,
+	 * false only for a signature collision
+	 */
+	boolean isGroup(int from, int to){
+		for(int i=from+1; i<to; i++){
+			if(!AnagramKeys.sameLetters(words[from], words[i])) return false;
+		}
+		return true;
+	}
+
+	String[] getWords(){
+		return words;
+	}
+
+	long[] getSignatures(){
+		return signatures;
+	}
+
+	int size(){
+		return size;
+	}
+}
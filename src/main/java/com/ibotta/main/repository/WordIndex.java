@@ -0,0 +1,349 @@
+package com.ibotta.main.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Index of the words themselves for the prefix, suffix and pattern searches, the store only
+ * knows the letters. The words are kept in two immutable {@link WordTrie}s, one of the words
+ * and one of the reversed words, so a suffix is a prefix of the reversed trie. A pattern is
+ * walked on the trie of its longer literal end.
+ *
+ * The tries are built once and then changed by a small delta, sorted words added or deleted
+ * since. Once the delta outgrows 1/16 of the words it is frozen and merged into new tries on
+ * the common pool, the writes go to a fresh delta meanwhile.
+ *
+ * Readers never lock. The delta is written by the {@link Dictionary} under the lock of the
+ * group it changes in the store, so the changes of a word reach the index in the order they
+ * reach the store. A reader may still see a word in one and not yet in the other.
+ */
+public class WordIndex {
+
+	private static final int MIN_DELTA = 1 << 12;
+
+	private volatile State state;
+
+	public WordIndex(){
+		this(WordTrie.EMPTY, WordTrie.EMPTY);
+	}
+
+	private WordIndex(WordTrie words, WordTrie reversed){
+		state = new State(words, reversed, null);
+	}
+
+	/**
+	 * Indexing all the words of the store
+	 */
+	static WordIndex of(AnagramStore store){
+		List<String> words = new ArrayList<String>();
+		for(AnagramGroup group: store){
+			for(String word: group){
+				words.add(word);
+			}
+		}
+		return new WordIndex(words.toArray(new String[words.size()]));
+	}
+
+	/**
+	 * Building both tries at once on the common pool
+	 */
+	private WordIndex(String[] words){
+		ForkJoinTask<WordTrie> reversed = ForkJoinTask.adapt(()->sorted(reverse(words))).fork();
+		state = new State(sorted(words.clone()), reversed.join(), null);
+	}
+
+	private static WordTrie sorted(String[] words){
+		Arrays.sort(words);
+		//a store has distinct words, a merge may not
+		int n = 0;
+		for(int i=0; i<words.length; i++){
+			if(n==0||!words[i].equals(words[n-1])) words[n++] = words[i];
+		}
+		return WordTrie.build(words, n);
+	}
+
+	private static String[] reverse(String[] words){
+		String[] reversed = new String[words.length];
+		for(int i=0; i<words.length; i++){
+			reversed[i] = reverse(words[i]);
+		}
+		return reversed;
+	}
+
+	private static String reverse(String word){
+		//chars, not code points: the reversed trie only has to be consistent with itself
+		char[] chars = new char[word.length()];
+		for(int i=0, n=chars.length; i<n; i++){
+			chars[n-1-i] = word.charAt(i);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Getting heap size of the tries, the delta is not counted
+	 */
+	public long getMemory(){
+		State s = state;
+		return s.words.memory()+s.reversed.memory();
+	}
+
+	public boolean contains(String word){
+		return state.contains(word);
+	}
+
+	/**
+	 * Following an added word, the caller has added it to the store
+	 */
+	public synchronized void add(String word){
+		update(word, true);
+	}
+
+	/**
+	 * Following a deleted word, the caller has deleted it from the store
+	 */
+	public synchronized void remove(String word){
+		update(word, false);
+	}
+
+	private void update(String word, boolean present){
+		State s = state;
+		Boolean frozen = s.frozen!=null?s.frozen.get(word):null;
+		boolean indexed = frozen!=null?frozen:s.words.contains(word);
+		//the delta holds only the words that differ from the tries
+		if(indexed==present){
+			if(s.delta.remove(word)!=null) s.changes--;
+		}else{
+			if(s.delta.put(word, present)==null) s.changes++;
+		}
+		if(s.frozen==null&&s.changes>Math.max(MIN_DELTA, s.words.size()/16)){
+			freeze(s);
+		}
+	}
+
+	/**
+	 * Starting a new delta and merging the old one into new tries, the caller holds the lock
+	 */
+	private void freeze(State s){
+		final State frozen = new State(s.words, s.reversed, s.delta);
+		state = frozen;
+		ForkJoinPool.commonPool().execute(()->{
+			List<String> words = new ArrayList<String>(s.words.size()+frozen.frozen.size());
+			Iterator<Map.Entry<String, Boolean>> changes = frozen.frozen.entrySet().iterator();
+			Map.Entry<String, Boolean> change = changes.hasNext()?changes.next():null;
+			for(Iterator<String> i=s.words.iterator(WordPattern.glob("*")); i.hasNext();){
+				String word = i.next();
+				//added words before this one
+				while(change!=null&&change.getKey().compareTo(word)<0){
+					if(change.getValue()) words.add(change.getKey());
+					change = changes.hasNext()?changes.next():null;
+				}
+				if(change!=null&&change.getKey().equals(word)){
+					if(change.getValue()) words.add(word);
+					change = changes.hasNext()?changes.next():null;
+				}else{
+					words.add(word);
+				}
+			}
+			for(; change!=null; change=changes.hasNext()?changes.next():null){
+				if(change.getValue()) words.add(change.getKey());
+			}
+			WordIndex merged = new WordIndex(words.toArray(new String[words.size()]));
+			synchronized(WordIndex.this){
+				State current = state;
+				State next = new State(merged.state.words, merged.state.reversed, null, current.delta);
+				next.changes = current.changes;
+				state = next;
+			}
+		});
+	}
+
+	/**
+	 * Getting the words starting with the prefix and ending with the suffix, both can be empty.
+	 * The words are in ascending order, by their last chars first if only the suffix is given.
+	 * @throws IllegalArgumentException if the prefix and the suffix are too long
+	 */
+	public Stream<String> find(String prefix, String suffix){
+		return find(WordPattern.affixes(prefix, suffix));
+	}
+
+	/**
+	 * Getting the words matching the glob pattern, ? matches any char and * any chars. The words
+	 * are in ascending order, by their last chars first if the pattern ends with more literal
+	 * chars than it starts with.
+	 * @throws IllegalArgumentException if the pattern is empty or too long
+	 */
+	public Stream<String> match(String glob){
+		return find(WordPattern.glob(glob));
+	}
+
+	/**
+	 * Getting the order of the words found by {@link #find}, i.e. to merge the words of several shards
+	 * @throws IllegalArgumentException if the prefix and the suffix are too long
+	 */
+	public static Comparator<String> findOrder(String prefix, String suffix){
+		return order(WordPattern.affixes(prefix, suffix));
+	}
+
+	/**
+	 * Getting the order of the words found by {@link #match}
+	 * @throws IllegalArgumentException if the pattern is empty or too long
+	 */
+	public static Comparator<String> matchOrder(String glob){
+		return order(WordPattern.glob(glob));
+	}
+
+	private static Comparator<String> order(WordPattern pattern){
+		return pattern.reverse().literalPrefix()>pattern.literalPrefix()?Comparator.comparing(WordIndex::reverse):Comparator.naturalOrder();
+	}
+
+	private Stream<String> find(WordPattern pattern){
+		State s = state;
+		WordPattern reversed = pattern.reverse();
+		//the same order as the one of order(pattern)
+		boolean reverse = reversed.literalPrefix()>pattern.literalPrefix();
+		WordTrie trie = reverse?s.reversed:s.words;
+		WordPattern walk = reverse?reversed:pattern;
+		//added words in the order of the trie
+		List<String> added = new ArrayList<String>();
+		s.forEachAdded(word->{
+			if(pattern.matches(word)) added.add(reverse?reverse(word):word);
+		});
+		Collections.sort(added);
+		Iterator<String> words = new Merge(trie.iterator(walk), added.iterator(), s.hasChanges()?s:null, reverse);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(words, Spliterator.ORDERED|Spliterator.DISTINCT|Spliterator.NONNULL), false);
+	}
+
+	private static final class State {
+
+		private final WordTrie words;
+
+		private final WordTrie reversed;
+
+		//delta being merged into new tries or null
+		private final ConcurrentSkipListMap<String, Boolean> frozen;
+
+		//true for an added word, false for a deleted one
+		private final ConcurrentSkipListMap<String, Boolean> delta;
+
+		//size of the delta, guarded by the index lock
+		private int changes;
+
+		State(WordTrie words, WordTrie reversed, ConcurrentSkipListMap<String, Boolean> frozen){
+			this(words, reversed, frozen, new ConcurrentSkipListMap<String, Boolean>());
+		}
+
+		State(WordTrie words, WordTrie reversed, ConcurrentSkipListMap<String, Boolean> frozen, ConcurrentSkipListMap<String, Boolean> delta){
+			this.words = words;
+			this.reversed = reversed;
+			this.frozen = frozen;
+			this.delta = delta;
+		}
+
+		boolean hasChanges(){
+			return !delta.isEmpty()||frozen!=null;
+		}
+
+		/**
+		 * Check whether or not a word the tries have was not deleted since
+		 */
+		boolean kept(String word){
+			Boolean present = delta.get(word);
+			if(present==null&&frozen!=null) present = frozen.get(word);
+			return present==null||present;
+		}
+
+		boolean contains(String word){
+			Boolean present = delta.get(word);
+			if(present==null&&frozen!=null) present = frozen.get(word);
+			return present!=null?present:words.contains(word);
+		}
+
+		void forEachAdded(Consumer<String> action){
+			delta.forEach((word, present)->{
+				if(present) action.accept(word);
+			});
+			if(frozen!=null){
+				frozen.forEach((word, present)->{
+					if(present&&!delta.containsKey(word)) action.accept(word);
+				});
+			}
+		}
+	}
+
+	/**
+	 * Merging the words of a trie that were not deleted with the added words, both in the
+	 * order of the trie, a word in both is taken once
+	 */
+	private static final class Merge implements Iterator<String> {
+
+		private final Iterator<String> indexed;
+
+		private final Iterator<String> added;
+
+		//null if nothing was deleted
+		private final State state;
+
+		private final boolean reverse;
+
+		//words in the order of the trie, reversed for the reversed trie
+		private String nextIndexed;
+
+		private String nextAdded;
+
+		//the word of nextIndexed
+		private String indexedWord;
+
+		Merge(Iterator<String> indexed, Iterator<String> added, State state, boolean reverse){
+			this.indexed = indexed;
+			this.added = added;
+			this.state = state;
+			this.reverse = reverse;
+			advanceIndexed();
+			nextAdded = added.hasNext()?added.next():null;
+		}
+
+		private void advanceIndexed(){
+			while(indexed.hasNext()){
+				nextIndexed = indexed.next();
+				indexedWord = reverse?reverse(nextIndexed):nextIndexed;
+				if(state==null||state.kept(indexedWord)) return;
+			}
+			nextIndexed = indexedWord = null;
+		}
+
+		@Override
+		public boolean hasNext(){
+			return nextIndexed!=null||nextAdded!=null;
+		}
+
+		@Override
+		public String next(){
+			if(!hasNext()) throw new NoSuchElementException();
+			int order = nextIndexed==null?1:nextAdded==null?-1:nextIndexed.compareTo(nextAdded);
+			String word = order<=0?indexedWord:reverse?reverse(nextAdded):nextAdded;
+			if(order<=0){
+				advanceIndexed();
+			}
+			if(order>=0){
+				nextAdded = added.hasNext()?added.next():null;
+			}
+			return word;
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.ibotta.main.repository;
+
+import java.util.Arrays;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Glob pattern of a word search: ? matches any single char, * matches any chars. The pattern
+ * is run as a bit parallel NFA, bit i of a state set is the position i of the pattern, so a
+ * trie walk carries the whole state in a long and drops a subtrie once the set is empty.
+ */
+final class WordPattern {
+
+	static final char ANY = '?';
+
+	static final char STAR = '*';
+
+	//the accepting state is a bit too
+	static final int MAX_LENGTH = 63;
+
+	private final char[] chars;
+
+	//positions of ? and *
+	private final long any;
+
+	private final long star;
+
+	private final long accept;
+
+	//the last position if it is a *, every word matches once it is reached
+	private final long tail;
+
+	private WordPattern(char[] chars, long any, long star){
+		this.chars = chars;
+		this.any = any;
+		this.star = star;
+		this.accept = 1L << chars.length;
+		this.tail = star&(accept >>> 1);
+	}
+
+	/**
+	 * @param glob pattern with ? and *
+	 * @throws IllegalArgumentException if the pattern is empty or too long
+	 */
+	static WordPattern glob(String glob){
+		char[] chars = new char[glob.length()];
+		long any = 0, star = 0;
+		int n = 0;
+		for(int i=0; i<glob.length(); i++){
+			char c = glob.charAt(i);
+			//** is the same as *
+			if(c==STAR&&n>0&&chars[n-1]==STAR) continue;
+			if(n==MAX_LENGTH) throw new IllegalArgumentException("Max pattern length is " + MAX_LENGTH);
+			if(c==ANY) any |= 1L << n;
+			if(c==STAR) star |= 1L << n;
+			chars[n++] = c;
+		}
+		if(n==0) throw new IllegalArgumentException("Empty pattern");
+		return new WordPattern(Arrays.copyOf(chars, n), any, star);
+	}
+
+	/**
+	 * Pattern of the words starting with the prefix and ending with the suffix, both are literal
+	 * @throws IllegalArgumentException if the pattern is too long
+	 */
+	static WordPattern affixes(String prefix, String suffix){
+		int n = prefix.length()+1+suffix.length();
+		if(n>MAX_LENGTH) throw new IllegalArgumentException("Max pattern length is " + MAX_LENGTH);
+		char[] chars = new char[n];
+		prefix.getChars(0, prefix.length(), chars, 0);
+		chars[prefix.length()] = STAR;
+		suffix.getChars(0, suffix.length(), chars, prefix.length()+1);
+		return new WordPattern(chars, 0, 1L << prefix.length());
+	}
+
+	/**
+	 * Getting the pattern of the reversed words
+	 */
+	WordPattern reverse(){
+		int n = chars.length;
+		char[] reversed = new char[n];
+		long any = 0, star = 0;
+		for(int i=0; i<n; i++){
+			reversed[n-1-i] = chars[i];
+			any |= (this.any >>> i&1) << (n-1-i);
+			star |= (this.star >>> i&1) << (n-1-i);
+		}
+		return new WordPattern(reversed, any, star);
+	}
+
+	/**
+	 * Getting count of the literal chars the pattern starts with, a trie walk follows a single path along them
+	 */
+	int literalPrefix(){
+		int i = 0;
+		while(i<chars.length&&((any|star) >>> i&1)==0) i++;
+		return i;
+	}
+
+	long start(){
+		return closure(1L);
+	}
+
+	/**
+	 * Getting the state set after the char, empty if no word with the chars read so far can match
+	 */
+	long step(long states, char c){
+		long next = states&star;
+		for(long m=states&~star&~accept; m!=0; m&=m-1){
+			int i = Long.numberOfTrailingZeros(m);
+			if((any >>> i&1)!=0||chars[i]==c){
+				next |= 1L << (i+1);
+			}
+		}
+		return closure(next);
+	}
+
+	/**
+	 * Check whether or not every word that starts with the chars read so far matches
+	 */
+	boolean acceptsAll(long states){
+		return (states&tail)!=0;
+	}
+
+	boolean accepts(long states){
+		return (states&accept)!=0;
+	}
+
+	boolean matches(String word){
+		long states = start();
+		for(int i=0; i<word.length()&&states!=0; i++){
+			states = step(states, word.charAt(i));
+		}
+		return accepts(states);
+	}
+
+	/*
+	 * A * may match nothing, so its position implies the next one
+	 */
+	private long closure(long states){
+		for(long next=states|(states&star)<<1; next!=states; next=states|(states&star)<<1){
+			states = next;
+		}
+		return states;
+	}
+}
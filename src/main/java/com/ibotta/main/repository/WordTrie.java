@@ -0,0 +1,255 @@
+package com.ibotta.main.repository;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Immutable radix trie of distinct words in a few flat arrays, there are no node objects.
+ * Nodes are numbered breadth first, so the children of node n are the nodes children[n] to
+ * children[n+1]-1 in the order of their first char, and the label of node n (a run of chars
+ * no word branches off) is pool[labels[n]] to pool[labels[n+1]-1]. A node costs 8 bytes and
+ * a bit, the chars of the shared prefixes are stored once, in a byte each if all of them are
+ * Latin-1.
+ */
+final class WordTrie {
+
+	static final WordTrie EMPTY = build(new String[0], 0);
+
+	private final int[] children;
+
+	private final int[] labels;
+
+	//one of the two is null
+	private final byte[] latin1;
+
+	private final char[] pool;
+
+	//nodes that end a word
+	private final long[] terminal;
+
+	private final int size;
+
+	private final int maxLength;
+
+	private WordTrie(int[] children, int[] labels, char[] pool, long[] terminal, int size, int maxLength){
+		this.children = children;
+		this.labels = labels;
+		boolean narrow = true;
+		for(int i=0; i<pool.length&&narrow; i++){
+			narrow = pool[i]<256;
+		}
+		if(narrow){
+			latin1 = new byte[pool.length];
+			for(int i=0; i<pool.length; i++){
+				latin1[i] = (byte)pool[i];
+			}
+			this.pool = null;
+		}else{
+			latin1 = null;
+			this.pool = pool;
+		}
+		this.terminal = terminal;
+		this.size = size;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Building the trie level by level, every node is a range of the sorted words
+	 * @param words distinct words in ascending order
+	 * @param count count of the words to take
+	 */
+	static WordTrie build(String[] words, int count){
+		//every node but the leaves has 2 children or ends a word
+		int max = 2*count+1;
+		int[] from = new int[max];
+		int[] to = new int[max];
+		int[] depths = new int[max];
+		int[] children = new int[max+1];
+		int[] labels = new int[max+1];
+		long[] terminal = new long[(max+63) >>> 6];
+		int chars = 0, maxLength = 0;
+		for(int i=0; i<count; i++){
+			chars += words[i].length();
+			maxLength = Math.max(maxLength, words[i].length());
+		}
+		char[] pool = new char[chars];
+		to[0] = count;
+		int nodes = 1, p = 0;
+		for(int n=0; n<nodes; n++){
+			int lo = from[n], hi = to[n], depth = depths[n];
+			//the range shares the prefix of its first and its last word
+			int end = depth;
+			if(lo<hi){
+				String first = words[lo], last = words[hi-1];
+				int limit = Math.min(first.length(), last.length());
+				while(end<limit&&first.charAt(end)==last.charAt(end)) end++;
+				first.getChars(depth, end, pool, p);
+			}
+			labels[n] = p;
+			p += end-depth;
+			children[n] = nodes;
+			int i = lo;
+			//only the first word of the range can be the prefix itself
+			if(i<hi&&words[i].length()==end){
+				terminal[n >>> 6] |= 1L << n;
+				i++;
+			}
+			while(i<hi){
+				char c = words[i].charAt(end);
+				int j = i+1;
+				while(j<hi&&words[j].charAt(end)==c) j++;
+				from[nodes] = i;
+				to[nodes] = j;
+				depths[nodes] = end;
+				nodes++;
+				i = j;
+			}
+		}
+		children[nodes] = nodes;
+		labels[nodes] = p;
+		return new WordTrie(Arrays.copyOf(children, nodes+1), Arrays.copyOf(labels, nodes+1),
+				Arrays.copyOf(pool, p), Arrays.copyOf(terminal, (nodes+63) >>> 6), count, maxLength);
+	}
+
+	int size(){
+		return size;
+	}
+
+	/**
+	 * Getting heap size of the arrays
+	 */
+	long memory(){
+		return 16L*4+4L*children.length+4L*labels.length+(latin1!=null?latin1.length:2L*pool.length)+8L*terminal.length;
+	}
+
+	private char charAt(int k){
+		return latin1!=null?(char)(latin1[k]&0xFF):pool[k];
+	}
+
+	private boolean isTerminal(int node){
+		return (terminal[node >>> 6] >>> node&1)!=0;
+	}
+
+	boolean contains(String word){
+		int node = 0, i = 0;
+		while(true){
+			for(int k=labels[node], end=labels[node+1]; k<end; k++, i++){
+				if(i==word.length()||charAt(k)!=word.charAt(i)) return false;
+			}
+			if(i==word.length()) return isTerminal(node);
+			node = child(node, word.charAt(i));
+			if(node<0) return false;
+		}
+	}
+
+	/**
+	 * Binary search of the child by its first char
+	 * @return child or -1
+	 */
+	private int child(int node, char c){
+		int lo = children[node], hi = children[node+1]-1;
+		while(lo<=hi){
+			int mid = (lo+hi) >>> 1;
+			char first = charAt(labels[mid]);
+			if(first<c) lo = mid+1;
+			else if(first>c) hi = mid-1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Iterating the words matching the pattern in ascending order, lazily
+	 */
+	Iterator<String> iterator(WordPattern pattern){
+		return new Walk(pattern);
+	}
+
+	/**
+	 * Depth first walk, a subtrie is skipped once no word in it can match
+	 */
+	private final class Walk implements Iterator<String> {
+
+		private final WordPattern pattern;
+
+		private final char[] path = new char[maxLength];
+
+		//frames of the nodes on the path
+		private final int[] nodes = new int[maxLength+1];
+
+		private final int[] cursors = new int[maxLength+1];
+
+		private final long[] states = new long[maxLength+1];
+
+		private final int[] lengths = new int[maxLength+1];
+
+		//whether or not the word of the frame has been checked
+		private final boolean[] checked = new boolean[maxLength+1];
+
+		private int top = -1;
+
+		private String next;
+
+		Walk(WordPattern pattern){
+			this.pattern = pattern;
+			push(0, pattern.start(), 0);
+			next = advance();
+		}
+
+		/**
+		 * Reading the label of the node, the node is entered only if the pattern can still match
+		 */
+		private void push(int node, long state, int length){
+			for(int k=labels[node], end=labels[node+1]; k<end&&state!=0; k++){
+				char c = charAt(k);
+				path[length++] = c;
+				//the rest of the subtrie is just copied
+				if(!pattern.acceptsAll(state)){
+					state = pattern.step(state, c);
+				}
+			}
+			if(state==0) return;
+			top++;
+			nodes[top] = node;
+			cursors[top] = children[node];
+			states[top] = state;
+			lengths[top] = length;
+			checked[top] = false;
+		}
+
+		private String advance(){
+			while(top>=0){
+				int node = nodes[top];
+				if(!checked[top]){
+					checked[top] = true;
+					//a word comes before its extensions
+					if(isTerminal(node)&&pattern.accepts(states[top])){
+						return new String(path, 0, lengths[top]);
+					}
+				}
+				if(cursors[top]<children[node+1]){
+					push(cursors[top]++, states[top], lengths[top]);
+				}else{
+					top--;
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext(){
+			return next!=null;
+		}
+
+		@Override
+		public String next(){
+			if(next==null) throw new NoSuchElementException();
+			String word = next;
+			next = advance();
+			return word;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.ibotta.main.service;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ibotta.main.model.AnagramModel;
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.AnagramKeys;
+import com.ibotta.main.repository.AnagramStore;
+import com.ibotta.main.repository.Dictionary;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Read-through cache of GET /anagrams/{word} responses as serialized JSON, a repeated
+ * lookup skips both the service and Jackson. Caffeine bounds the cache (W-TinyLFU eviction,
+ * skewed traffic keeps its popular words).
+ *
+ * Entries are keyed by the letter signature of the word with the limit and self parameters.
+ * A mutation does not search the cache: it bumps the generation of the signature stripe and
+ * an entry filled under an older generation is a miss, deleting all the words bumps the
+ * epoch and empties the cache. The generation is read before the response is built, so a
+ * mutation racing with a fill always wins.
+ */
+@Component
+public class AnagramResponseCache implements AnagramStore.Listener {
+
+	private static final int STRIPES = 1 << 12;
+
+	//no anagrams, the endpoint responds with an empty body
+	private static final byte[] EMPTY = new byte[0];
+
+	@Autowired
+	private IAnagaramService service;
+
+	@Autowired
+	private Dictionary dictionary;
+
+	@Autowired
+	private ObjectMapper mapper;
+
+	@Autowired(required = false)
+	private MeterRegistry registry;
+
+	/**
+	 * max count of cached responses, 0 disables the cache
+	 */
+	@Value("${anagrams.cache.size:10000}")
+	private long maximumSize = 10000;
+
+	private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+	private final AtomicLong epoch = new AtomicLong();
+
+	private Cache<Key, Entry> cache;
+
+	@PostConstruct
+	public void init(){
+		cache = Caffeine.newBuilder().
+				maximumSize(maximumSize).
+				recordStats().
+				build();
+		if(registry!=null){
+			CaffeineCacheMetrics.monitor(registry, cache, "anagrams.byWord");
+		}
+		dictionary.addListener(this);
+	}
+
+	/**
+	 * Getting anagrams by word as JSON
+	 * @return JSON of {@link AnagramModel}, empty if there are no anagrams
+	 */
+	public byte[] getAnagramsByWord(String word, Optional<Long> limit, Optional<Boolean> self) throws JsonProcessingException {
+		if(maximumSize<1){
+			//disabled, i.e. the words change behind the router of a sharded dictionary
+			return toJson(service.getAnagramsByWord(word, limit, self));
+		}
+		long signature = AnagramKeys.signature(word);
+		boolean excludeSelf = self.orElse(false);
+		//no limit is the same as the max one
+		Key key = new Key(signature, limit.orElse(Long.MAX_VALUE), excludeSelf?word:null);
+		long epoch = this.epoch.get();
+		long generation = generations.get(stripe(signature));
+		Entry entry = cache.getIfPresent(key);
+		//the signature can collide, the words have to share letters
+		if(entry!=null&&entry.epoch==epoch&&entry.generation==generation&&AnagramKeys.sameLetters(entry.word, word)){
+			return entry.json;
+		}
+		byte[] json = toJson(service.getAnagramsByWord(word, limit, self));
+		cache.put(key, new Entry(word, epoch, generation, json));
+		return json;
+	}
+
+	private byte[] toJson(AnagramModel anagrams) throws JsonProcessingException {
+		return anagrams==null?EMPTY:mapper.writeValueAsBytes(anagrams);
+	}
+
+	@Override
+	public void groupChanged(AnagramGroup group, int oldSize, int newSize){
+		generations.incrementAndGet(stripe(group.getSignature()));
+	}
+
+	@Override
+	public void storeReplaced(){
+		epoch.incrementAndGet();
+		cache.invalidateAll();
+	}
+
+	private static int stripe(long signature){
+		return (int)signature&(STRIPES-1);
+	}
+
+	private static final class Key {
+
+		private final long signature;
+
+		private final long limit;
+
+		//only when the word itself is excluded
+		private final String word;
+
+		Key(long signature, long limit, String word){
+			this.signature = signature;
+			this.limit = limit;
+			this.word = word;
+		}
+
+		@Override
+		public boolean equals(Object o){
+			if(!(o instanceof Key)) return false;
+			Key key = (Key)o;
+			return signature==key.signature&&limit==key.limit&&
+					(word==null?key.word==null:word.equals(key.word));
+		}
+
+		@Override
+		public int hashCode(){
+			int hash = Long.hashCode(signature)*31+Long.hashCode(limit);
+			return word==null?hash:hash*31+word.hashCode();
+		}
+	}
+
+	private static final class Entry {
+
+		private final String word;
+
+		private final long epoch;
+
+		private final long generation;
+
+		private final byte[] json;
+
+		Entry(String word, long epoch, long generation, byte[] json){
+			this.word = word;
+			this.epoch = epoch;
+			this.generation = generation;
+			this.json = json;
+		}
+	}
+}
@@ -1,22 +1,45 @@
 package com.ibotta.main.service;
 
-import java.util.Collection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.ibotta.main.model.AnagramModel;
+import com.ibotta.main.model.AnagramPageModel;
+import com.ibotta.main.model.BatchModel;
+import com.ibotta.main.model.IngestModel;
+import com.ibotta.main.model.NearAnagramModel;
+import com.ibotta.main.model.PhraseModel;
 import com.ibotta.main.model.ResultModel;
 import com.ibotta.main.model.WordModel;
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.AnagramKeys;
+import com.ibotta.main.repository.BatchResult;
 import com.ibotta.main.repository.Dictionary;
+import com.ibotta.main.repository.NearResult;
+import com.ibotta.main.repository.PhraseResult;
 
 /**
  * @author Alexandr Savenkov
@@ -25,26 +48,104 @@ import com.ibotta.main.repository.Dictionary;
 @Service
 public class AnagramService implements IAnagaramService {
 	
+	//distinct groups of a batch lookup looked up in parallel, a probe is about 100 ns
+	private static final int PARALLEL_LOOKUPS = 4096;
+	
+	//order of the contained words
+	static final Comparator<String> LONGEST_FIRST = Comparator.comparing(String::length).reversed().thenComparing(Comparator.naturalOrder());
+	
 	@Autowired
 	private Dictionary dictionary;
 	
+	@Autowired
+	private DictionaryReplication replication;
+	
+	/**
+	 * max count of candidate signatures of a near anagram lookup, about 50-100 ns each
+	 */
+	@Value("${anagrams.fuzzy.max-probes:4096}")
+	private int fuzzyMaxProbes = 4096;
+	
 	/**
 	 * Getting all dictionary anagrams
 	 * @param size to get all anagram groups of size >= X
 	 * @return AnagramModel list
 	 */
 	public List<AnagramModel> getAnagrams(Optional<Integer> size){
-		return dictionary.getDataStorage().entrySet().stream().map(e->{
-			if((size.isPresent()&&size.get()>1&&e.getValue().size()>=size.get())||
-					(!size.isPresent()&&e.getValue().size()>1)){
+		return streamAnagrams(size).collect(Collectors.toList());
+	}
+	
+	/**
+	 * Streaming all dictionary anagrams, groups are read from the dictionary one by one
+	 * in the order of their sorted letters
+	 * @param size to get all anagram groups of size >= X
+	 * @return lazy AnagramModel stream
+	 */
+	public Stream<AnagramModel> streamAnagrams(Optional<Integer> size){
+		if(size.isPresent()&&size.get()<=1){
+			//Note that a word is not considered to be its own anagram.
+			return Stream.empty();
+		}
+		return toModels(dictionary.getAnagramSets(size.orElse(2), null), size.orElse(2));
+	}
+	
+	/**
+	 * Getting a page of dictionary anagrams
+	 * @param size to get all anagram groups of size >= X
+	 * @param cursor cursor of the previous page, the first page if empty
+	 * @param pageSize max count of anagram groups on the page
+	 * @return AnagramPageModel, the cursor is null on the last page
+	 * @throws IllegalArgumentException if the cursor is malformed
+	 */
+	public AnagramPageModel getAnagramsPage(Optional<Integer> size, Optional<String> cursor, int pageSize){
+		AnagramPageModel page = new AnagramPageModel();
+		page.setAnagrams(new ArrayList<AnagramModel>());
+		if(size.isPresent()&&size.get()<=1){
+			//Note that a word is not considered to be its own anagram.
+			return page;
+		}
+		int min = size.orElse(2);
+		String afterKey = cursor.isPresent()?decodeCursor(cursor.get()):null;
+		Iterator<AnagramGroup> groups = dictionary.getAnagramSets(min, afterKey);
+		String lastKey = null;
+		while(groups.hasNext()&&page.getAnagrams().size()<pageSize){
+			AnagramGroup group = groups.next();
+			String[] words = group.toArray();
+			//a group can shrink after the index lookup
+			if(words.length>=min){
 				AnagramModel anagram = new AnagramModel();
-				anagram.setAnagrams(e.getValue().stream().toArray(n -> new String[n]));
-				return anagram;
+				anagram.setAnagrams(words);
+				page.getAnagrams().add(anagram);
+				lastKey = group.getKey();
 			}
-			//Note that a word is not considered to be its own anagram.
-			return null;
-		}).filter(Objects::nonNull).
-		collect(Collectors.toList());
+		}
+		if(lastKey!=null&&groups.hasNext()){
+			page.setCursor(encodeCursor(lastKey));
+		}
+		return page;
+	}
+	
+	private Stream<AnagramModel> toModels(Iterator<AnagramGroup> groups, int min){
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(groups, Spliterator.ORDERED), false).
+		map(AnagramGroup::toArray).
+		//a group can shrink after the index lookup
+		filter(words->words.length>=min).
+		map(words->{
+			AnagramModel anagram = new AnagramModel();
+			anagram.setAnagrams(words);
+			return anagram;
+		});
+	}
+	
+	/*
+	 * Cursors are opaque to the clients, they wrap the sorted letters key of the last group
+	 */
+	static String encodeCursor(String key){
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	static String decodeCursor(String cursor){
+		return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
 	}
 	
 	/**
@@ -71,19 +172,215 @@ public class AnagramService implements IAnagaramService {
 		return null;
 	}
 	
+	/**
+	 * Getting dictionary anagrams of many words at once. The words are deduplicated by letter
+	 * signature, every group is probed once, a big batch is probed in parallel chunks on the
+	 * common fork-join pool.
+	 * @param words words, duplicates are dropped
+	 * @param limit to restrict every anagram list
+	 * @param self to exclude every word itself
+	 * @return anagrams of every distinct word in the order of the words, an empty array if there are none
+	 */
+	public Map<String, String[]> getAnagramsByWords(String[] words, Optional<Long> limit, Optional<Boolean> self){
+		Map<String, String[]> result = new LinkedHashMap<String, String[]>(words.length*4/3+1);
+		//first word of every signature, the words sharing it are looked up once
+		Map<Long, Integer> signatures = new HashMap<Long, Integer>(words.length*4/3+1);
+		List<String> probes = new ArrayList<String>();
+		int[] probe = new int[words.length];
+		int distinct = 0;
+		for(String word: words){
+			if(word==null||result.containsKey(word)) continue;
+			result.put(word, null);
+			Integer first = signatures.putIfAbsent(AnagramKeys.signature(word), probes.size());
+			//the signature can collide, the words have to share letters
+			if(first==null||!AnagramKeys.sameLetters(probes.get(first), word)){
+				first = probes.size();
+				probes.add(word);
+			}
+			probe[distinct++] = first;
+		}
+		String[][] groups = new String[probes.size()][];
+		IntStream lookups = IntStream.range(0, groups.length);
+		(groups.length<PARALLEL_LOOKUPS?lookups:lookups.parallel()).forEach(i->{
+			AnagramGroup group = dictionary.getAnagramSet(probes.get(i));
+			//Note that a word is not considered to be its own anagram.
+			String[] anagrams = group!=null?group.toArray():null;
+			groups[i] = anagrams!=null&&anagrams.length>1?anagrams:new String[0];
+		});
+		boolean excludeSelf = self.isPresent()&&self.get();
+		long max = limit.orElse(Long.MAX_VALUE);
+		int i = 0;
+		for(Map.Entry<String, String[]> entry: result.entrySet()){
+			String[] anagrams = groups[probe[i++]];
+			if(excludeSelf||anagrams.length>max){
+				String word = entry.getKey();
+				anagrams = Arrays.stream(anagrams).filter(s->!excludeSelf||!s.equals(word)).limit(max).toArray(n -> new String[n]);
+			}
+			entry.setValue(anagrams);
+		}
+		return result;
+	}
+	
+	/**
+	 * Getting dictionary anagrams by word together with the near anagrams, the words one letter
+	 * added, dropped or substituted away. Wildcard letters ? match any letter a-z, the near
+	 * anagrams of a word with wildcards are not looked up.
+	 * @param word letters with optional wildcards
+	 * @param limit to restrict both anagram lists
+	 * @param self to exclude the word itself
+	 * @return NearAnagramModel, complete is false if the lookup ran out of probes
+	 * @throws IllegalArgumentException if there are no letters or too many wildcards
+	 */
+	public NearAnagramModel getNearAnagrams(String word, Optional<Long> limit, Optional<Boolean> self){
+		NearResult result = dictionary.getSignatureIndex().search(word, true, fuzzyMaxProbes);
+		boolean excludeSelf = self.isPresent()&&self.get();
+		Stream<String> anagrams = result.getMatches().stream().
+				//Note that a word is not considered to be its own anagram.
+				filter(group->group.size()>1||!group.contains(word)).
+				flatMap(AnagramGroup::stream).
+				filter(s->!excludeSelf||!s.equals(word));
+		Stream<String> near = result.getNear().stream().
+				flatMap(AnagramGroup::stream).
+				sorted();
+		NearAnagramModel model = new NearAnagramModel();
+		model.setAnagrams((limit.isPresent()?anagrams.limit(limit.get()):anagrams).toArray(n -> new String[n]));
+		model.setNear((limit.isPresent()?near.limit(limit.get()):near).toArray(n -> new String[n]));
+		model.setComplete(result.isComplete());
+		return model;
+	}
+	
+	/**
+	 * Getting combinations of dictionary words with exactly the letters of the phrase, the
+	 * search runs on the common fork-join pool
+	 * @param phrase letters to use, white space is ignored
+	 * @param words max count of words in a combination
+	 * @param limit max count of combinations
+	 * @return PhraseModel, complete is false if the search stopped at a limit
+	 * @throws IllegalArgumentException if there are no letters or too many of them
+	 */
+	public PhraseModel getPhraseAnagrams(String phrase, int words, int limit){
+		return toModel(phrase, dictionary.getLetterIndex().search(phrase, words, limit, ForkJoinPool.commonPool()));
+	}
+	
+	static PhraseModel toModel(String phrase, PhraseResult result){
+		PhraseModel model = new PhraseModel();
+		model.setPhrase(phrase);
+		model.setAnagrams(result.getPhrases().stream().
+				map(p->String.join(" ", p)).
+				toArray(n -> new String[n]));
+		model.setComplete(result.isComplete());
+		return model;
+	}
+	
+	/**
+	 * Getting dictionary words that can be spelled with some of the letters
+	 * @param letters letters to use, white space is ignored
+	 * @param limit max count of words
+	 * @return WordModel, the longest words first and then in alphabetical order
+	 * @throws IllegalArgumentException if there are no letters or too many of them
+	 */
+	public WordModel getContainedWords(String letters, Optional<Integer> limit){
+		Stream<String> words = dictionary.getLetterIndex().getContained(letters).stream().
+				flatMap(AnagramGroup::stream).
+				sorted(LONGEST_FIRST);
+		WordModel model = new WordModel();
+		model.setWords((limit.isPresent()?words.limit(limit.get()):words).toArray(n -> new String[n]));
+		return model;
+	}
+	
+	/**
+	 * Streaming dictionary words by prefix and suffix or by glob pattern, ? matches any char
+	 * and * any chars
+	 * @param prefix literal start of the words
+	 * @param suffix literal end of the words
+	 * @param pattern glob pattern, instead of the prefix and the suffix
+	 * @param limit max count of words
+	 * @return lazy stream of the words, see {@link com.ibotta.main.repository.WordIndex} for the order
+	 * @throws IllegalArgumentException if there is no pattern, both kinds or a pattern is too long
+	 */
+	public Stream<String> findWords(Optional<String> prefix, Optional<String> suffix, Optional<String> pattern, int limit){
+		if(pattern.isPresent()){
+			if(prefix.isPresent()||suffix.isPresent()){
+				throw new IllegalArgumentException("Either a pattern or a prefix and a suffix");
+			}
+			return dictionary.getWordIndex().match(pattern.get()).limit(limit);
+		}
+		if(!prefix.isPresent()&&!suffix.isPresent()){
+			throw new IllegalArgumentException("No prefix, suffix or pattern");
+		}
+		return dictionary.getWordIndex().find(prefix.orElse(""), suffix.orElse("")).limit(limit);
+	}
+	
 	/**
 	 * Adding words to dictionary
 	 * @param word in dictionary
 	 */
 	public void addWords(WordModel wordModel){
+		replication.checkWritable();
 		dictionary.addWords(wordModel.getWords());
 	}
 	
+	/**
+	 * Adding words batch by batch, every batch is grouped by letters and deduplicated
+	 * before it is applied, empty words are skipped
+	 * @param words words, read lazily
+	 * @param batchSize max count of words per batch
+	 * @return counts and timing of every batch
+	 */
+	public IngestModel addWords(Stream<String> words, int batchSize){
+		replication.checkWritable();
+		return ingest(words, batchSize, this::addBatch);
+	}
+	
+	/**
+	 * Reading the words batch by batch, see {@link #addWords(Stream, int)}
+	 * @param add adding a batch, the list is reused for the next one
+	 */
+	static IngestModel ingest(Stream<String> words, int batchSize, Function<List<String>, BatchModel> add){
+		IngestModel result = new IngestModel();
+		result.setBatches(new ArrayList<BatchModel>());
+		List<String> batch = new ArrayList<String>(batchSize);
+		Iterator<String> iterator = words.iterator();
+		while(iterator.hasNext()){
+			String word = iterator.next();
+			if(word==null||word.isEmpty()) continue;
+			batch.add(word);
+			if(batch.size()==batchSize){
+				add(result, add.apply(batch));
+				batch.clear();
+			}
+		}
+		if(!batch.isEmpty()){
+			add(result, add.apply(batch));
+		}
+		return result;
+	}
+	
+	private static void add(IngestModel result, BatchModel model){
+		result.getBatches().add(model);
+		result.setWords(result.getWords()+model.getWords());
+		result.setAdded(result.getAdded()+model.getAdded());
+		result.setDuplicates(result.getDuplicates()+model.getDuplicates());
+		result.setMicros(result.getMicros()+model.getMicros());
+	}
+	
+	private BatchModel addBatch(List<String> words){
+		BatchResult batch = dictionary.addBatch(words);
+		BatchModel model = new BatchModel();
+		model.setWords(batch.getWords());
+		model.setAdded(batch.getAdded());
+		model.setDuplicates(batch.getWords()-batch.getAdded());
+		model.setGroups(batch.getGroups());
+		model.setMicros(batch.getNanos()/1000);
+		return model;
+	}
+	
 	/**
 	 * Removing single word in dictionary
 	 * @param word in dictionary
 	 */
 	public boolean deleteWord(String word){
+		replication.checkWritable();
 		return dictionary.deleteWord(word);
 	}
 	
@@ -91,6 +388,7 @@ public class AnagramService implements IAnagaramService {
 	 * Removing words in dictionary
 	 */
 	public void deleteWords(){
+		replication.checkWritable();
 		dictionary.deleteWords();
 	}
 	
@@ -101,6 +399,7 @@ public class AnagramService implements IAnagaramService {
 	 * @param word in dictionary
 	 */
 	public boolean deleteAnagramsByWord(String word){
+		replication.checkWritable();
 		return dictionary.deleteAnagramsByWord(word);
 	}
 	
@@ -109,15 +408,8 @@ public class AnagramService implements IAnagaramService {
 	 * Getting count of words in dictionary
 	 */
 	public ResultModel countOfWordsInDictionary(){
-		Collection<Set<String>> values = dictionary.getDataStorage().values();
-		
-		Number result = (values.size()<1)?0:
-						values.stream().
-						map(v->v.size()).
-						reduce((s1, s2)->s1+s2).get();
-		
 		ResultModel res = new ResultModel();
-		res.setResult(result);
+		res.setResult(dictionary.getStatistics().getWordCount());
 		return res;
 	}
 	
@@ -126,16 +418,8 @@ public class AnagramService implements IAnagaramService {
 	 * Getting max word length in dictionary
 	 */
 	public ResultModel maxWordLength(){
-		Set<String> keys = dictionary.getDataStorage().keySet();
-		
-		Number result = (keys.size()<1)?0:
-						keys.stream().
-						map(k->k.length()).
-						max(Comparator.comparing(Integer::valueOf)).
-				        get();
-		
 		ResultModel res = new ResultModel();
-		res.setResult(result);
+		res.setResult(dictionary.getStatistics().getMaxLength());
 		return res;
 	}
 	
@@ -144,16 +428,8 @@ public class AnagramService implements IAnagaramService {
 	 * Getting min word length in dictionary
 	 */
 	public ResultModel minWordLength(){
-		Set<String> keys = dictionary.getDataStorage().keySet();
-		
-		Number result = (keys.size()<1)?0:
-						keys.stream().
-						map(k->k.length()).
-						min(Comparator.comparing(Integer::valueOf)).
-				        get();
-
 		ResultModel res = new ResultModel();
-		res.setResult(result);
+		res.setResult(dictionary.getStatistics().getMinLength());
 		return res;
 	}
 	
@@ -162,17 +438,8 @@ public class AnagramService implements IAnagaramService {
 	 * Getting average word length in dictionary
 	 */
 	public ResultModel avgWordLength(){
-		Set<String> keys = dictionary.getDataStorage().keySet();
-		
-		Number result = (keys.size()<1)?0:
-				Math.round( 
-						keys.stream().
-						mapToInt(k->k.length()).
-					    summaryStatistics().getAverage()
-				);
-		
 		ResultModel res = new ResultModel();
-		res.setResult(result);
+		res.setResult(dictionary.getStatistics().getAverageLength());
 		return res;
 	}
 	
@@ -181,30 +448,28 @@ public class AnagramService implements IAnagaramService {
 	 * Getting median word length in dictionary
 	 */
 	public ResultModel medianWordLength(){
-		Set<String> keys = dictionary.getDataStorage().keySet();
-		
-		List<Integer> list = keys.stream().
-				map(k->k.length()).
-				sorted(Comparator.comparingInt(Integer::intValue)).
-		        collect(Collectors.toList());
-		
-		Number result = (keys.size()<1)?0:list.get(Math.round(list.size()/2));
-		
 		ResultModel res = new ResultModel();
-		res.setResult(result);
+		res.setResult(dictionary.getStatistics().getMedianLength());
 		return res;
 	}
 	
+	/**
+	 * Getting count of anagram groups by word length, the one the length statistics are computed from
+	 */
+	public long[] wordLengths(){
+		return dictionary.getStatistics().getLengths();
+	}
+	
 	//Optional
 	/**
 	 * Getting most anagrams in dictionary
 	 */
 	public AnagramModel getMostAnagrams(){
-		Set<String> anagramSet = dictionary.getDataStorage().entrySet().stream().
-				filter(e->e.getValue().size()>1).
-				reduce((e1, e2)->e1.getValue().size()>e2.getValue().size()?e1:e2).
-				map(e->e.getValue()).
-				get();
+		Set<String> anagramSet = dictionary.getLargestAnagramSet();
+		if(anagramSet==null){
+			//Note that a word is not considered to be its own anagram.
+			return null;
+		}
 		
 		AnagramModel anagram = new AnagramModel();
 		anagram.setAnagrams(anagramSet.stream().toArray(n -> new String[n]));
@@ -0,0 +1,297 @@
+package com.ibotta.main.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.ibotta.main.model.FeedEventModel;
+import com.ibotta.main.model.FeedModel;
+import com.ibotta.main.model.ReplicaModel;
+import com.ibotta.main.repository.Dictionary;
+import com.ibotta.main.repository.DictionaryFeed;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Read replicas of the dictionary. A primary publishes the mutations of its words as an ordered
+ * feed, see {@link DictionaryFeed}, and a snapshot of them, the feed is off unless the primary is
+ * started with the primary profile, see application-primary.properties. An instance started
+ * with dictionary.primary is a replica, see application-replica.properties: it copies the
+ * snapshot, then tails the feed in batches and applies the events in order. The replica serves
+ * all the reads and refuses the mutations, they go to the primary.
+ *
+ * The sequence of the primary is read before the snapshot is written, so the snapshot has all
+ * the events up to it and maybe some later ones, which the replica applies again. An event
+ * sets whether its words are in the dictionary, so applying it twice has no effect and the
+ * replica ends up with the words of the primary. A replica that falls behind the events the
+ * primary keeps, or finds a primary that has restarted with a new feed, copies a new snapshot.
+ */
+@Service
+public class DictionaryReplication {
+
+	private static final Logger log = LoggerFactory.getLogger(DictionaryReplication.class);
+
+	@Autowired
+	private Dictionary dictionary;
+
+	@Autowired
+	private WebClient.Builder builder;
+
+	/**
+	 * Base URL of the primary, empty if this is not a replica
+	 */
+	@Value("${dictionary.primary:}")
+	private String primary = "";
+
+	/**
+	 * Max count of events read from the primary at once, the primary also bounds the words of a read
+	 */
+	@Value("${dictionary.replica.batch-size:1000}")
+	private int batchSize = 1000;
+
+	/**
+	 * Time to wait before reading the feed again once the replica has all the events
+	 */
+	@Value("${dictionary.replica.interval-ms:100}")
+	private long intervalMillis = 100;
+
+	@Value("${dictionary.replica.timeout-ms:10000}")
+	private long timeoutMillis = 10000;
+
+	private WebClient client;
+
+	private Duration timeout;
+
+	private Thread follower;
+
+	private volatile boolean closed;
+
+	//feed of the primary the words were copied from, null until the first snapshot
+	private volatile String feed;
+
+	//last event applied and last event of the primary, written by the follower only
+	private volatile long sequence;
+
+	private volatile long primarySequence;
+
+	//when the replica last had all the events of the primary
+	private volatile long caughtUpMillis = System.currentTimeMillis();
+
+	@PostConstruct
+	public void init(){
+		if(!dictionary.isReplica()) return;
+		client = builder.baseUrl(primary.trim()).build();
+		timeout = Duration.ofMillis(timeoutMillis);
+		follower = new Thread(this::follow, "dictionary-replica");
+		follower.setDaemon(true);
+		follower.start();
+	}
+
+	@PreDestroy
+	public void close(){
+		closed = true;
+		if(follower!=null){
+			follower.interrupt();
+		}
+	}
+
+	/**
+	 * Getting the events of the feed after the sequence
+	 * @return events or null if the feed does not keep them anymore, the reader has to copy a new snapshot
+	 * @throws ResponseStatusException if there is no feed
+	 */
+	public FeedModel getFeed(long after, int max){
+		DictionaryFeed feed = feed();
+		//the sequence is read first, so the events read after it cover it
+		long last = feed.getSequence();
+		List<DictionaryFeed.Event> events = feed.read(after, max);
+		if(events==null) return null;
+		FeedModel model = new FeedModel();
+		model.setFeed(feed.getId());
+		model.setSequence(Math.max(last, after+events.size()));
+		model.setEvents(events.stream().map(event->{
+			FeedEventModel e = new FeedEventModel();
+			e.setSequence(event.getSequence());
+			e.setOp(event.getOp().name());
+			e.setWords(event.getWords());
+			return e;
+		}).collect(Collectors.toList()));
+		return model;
+	}
+
+	/**
+	 * Getting snapshot of the words, it has all the events up to the sequence {@link #getStatus} read before it
+	 * @throws ResponseStatusException if there is no feed
+	 */
+	public byte[] getSnapshot(){
+		feed();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+		try {
+			dictionary.writeSnapshot(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	private DictionaryFeed feed(){
+		DictionaryFeed feed = dictionary.getFeed();
+		if(feed==null){
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No feed, dictionary.feed.capacity is 0 or this is a replica");
+		}
+		return feed;
+	}
+
+	/**
+	 * Getting position of a replica in the feed of its primary, or the position of the feed of a primary
+	 */
+	public ReplicaModel getStatus(){
+		ReplicaModel model = new ReplicaModel();
+		if(dictionary.isReplica()){
+			model.setPrimary(primary.trim());
+			model.setFeed(feed);
+		}else if(dictionary.getFeed()!=null){
+			model.setFeed(dictionary.getFeed().getId());
+		}
+		model.setSequence(getSequence());
+		model.setPrimarySequence(dictionary.isReplica()?primarySequence:getSequence());
+		model.setLag(getLag());
+		model.setLagMillis(getLagMillis());
+		return model;
+	}
+
+	/**
+	 * Getting sequence of the last event applied by a replica, or of the last event of the feed of a primary
+	 */
+	public long getSequence(){
+		if(dictionary.isReplica()) return sequence;
+		DictionaryFeed feed = dictionary.getFeed();
+		return feed!=null?feed.getSequence():0;
+	}
+
+	/**
+	 * Getting count of the events of the primary a replica has not applied yet, as of the last read of the feed
+	 */
+	public long getLag(){
+		return dictionary.isReplica()?Math.max(primarySequence-sequence, 0):0;
+	}
+
+	/**
+	 * Getting time since a replica last had all the events of the primary, the reads of the
+	 * replica may miss the mutations made since. 0 on a primary.
+	 */
+	public long getLagMillis(){
+		return dictionary.isReplica()?System.currentTimeMillis()-caughtUpMillis:0;
+	}
+
+	/**
+	 * Refusing a mutation of a replica
+	 * @throws ResponseStatusException if this is a replica
+	 */
+	void checkWritable(){
+		if(dictionary.isReplica()){
+			throw new ResponseStatusException(HttpStatus.FORBIDDEN, "Read-only replica, the mutations go to " + primary.trim());
+		}
+	}
+
+	/**
+	 * Copying the snapshot of the primary, then tailing its feed until the application stops.
+	 * A failure is retried after the interval, the replica keeps serving the words it has.
+	 */
+	private void follow(){
+		boolean failing = false;
+		while(!closed){
+			try {
+				if(feed==null){
+					copy();
+				}
+				long polled = System.currentTimeMillis();
+				FeedModel page = client.get().
+					uri(uri->uri.path("/feed").queryParam("after", sequence).queryParam("max", batchSize).build()).
+					exchange().
+					flatMap(response->{
+						if(response.statusCode()==HttpStatus.GONE){
+							return response.bodyToMono(Void.class).then(Mono.<FeedModel>empty());
+						}
+						if(response.statusCode().isError()){
+							return response.bodyToMono(Void.class).then(Mono.error(new IllegalStateException("Primary failed to read the feed: " + response.statusCode())));
+						}
+						return response.bodyToMono(FeedModel.class);
+					}).
+					block(timeout);
+				if(page==null||!page.getFeed().equals(feed)){
+					log.info("Feed {} of {} is gone, copying a new snapshot", feed, primary);
+					feed = null;
+					continue;
+				}
+				for(FeedEventModel event: page.getEvents()){
+					if(event.getSequence()!=sequence+1){
+						throw new IllegalStateException("Event " + event.getSequence() + " follows " + sequence);
+					}
+					dictionary.apply(DictionaryFeed.Op.valueOf(event.getOp()), event.getWords());
+					sequence = event.getSequence();
+				}
+				primarySequence = page.getSequence();
+				if(sequence>=primarySequence){
+					caughtUpMillis = polled;
+				}
+				if(failing){
+					log.info("Following {} again at {}", primary, sequence);
+					failing = false;
+				}
+				//a read is bounded by words too, a short page does not mean the replica has them all
+				if(sequence>=primarySequence){
+					Thread.sleep(intervalMillis);
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (RuntimeException | IOException e) {
+				if(closed) return;
+				if(!failing){
+					log.warn("Cannot follow {}, retrying: {}", primary, e.toString());
+					failing = true;
+				}
+				try {
+					Thread.sleep(intervalMillis);
+				} catch (InterruptedException ie) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copying the words of the primary, the sequence is read before the snapshot
+	 */
+	private void copy() throws IOException {
+		long start = System.currentTimeMillis();
+		ReplicaModel status = client.get().uri("/feed/status").retrieve().bodyToMono(ReplicaModel.class).block(timeout);
+		if(status.getFeed()==null){
+			throw new IllegalStateException("Primary " + primary + " has no feed, start it with the primary profile");
+		}
+		byte[] snapshot = client.get().uri("/feed/snapshot").retrieve().bodyToMono(byte[].class).block(timeout);
+		dictionary.follow(ByteBuffer.wrap(snapshot));
+		sequence = status.getSequence();
+		primarySequence = status.getSequence();
+		feed = status.getFeed();
+		log.info("Copied {} groups of {} at {} in {} ms", dictionary.getGroupCount(), primary, sequence, System.currentTimeMillis()-start);
+	}
+}
@@ -1,9 +1,15 @@
 package com.ibotta.main.service;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import com.ibotta.main.model.AnagramModel;
+import com.ibotta.main.model.AnagramPageModel;
+import com.ibotta.main.model.IngestModel;
+import com.ibotta.main.model.NearAnagramModel;
+import com.ibotta.main.model.PhraseModel;
 import com.ibotta.main.model.ResultModel;
 import com.ibotta.main.model.WordModel;
 
@@ -11,10 +17,26 @@ public interface IAnagaramService {
 	
 	List<AnagramModel> getAnagrams(Optional<Integer> size);
 	
+	Stream<AnagramModel> streamAnagrams(Optional<Integer> size);
+	
+	AnagramPageModel getAnagramsPage(Optional<Integer> size, Optional<String> cursor, int pageSize);
+	
 	AnagramModel getAnagramsByWord(String word, Optional<Long> limit, Optional<Boolean> self);
 	
+	Map<String, String[]> getAnagramsByWords(String[] words, Optional<Long> limit, Optional<Boolean> self);
+	
+	NearAnagramModel getNearAnagrams(String word, Optional<Long> limit, Optional<Boolean> self);
+	
+	PhraseModel getPhraseAnagrams(String phrase, int words, int limit);
+	
+	WordModel getContainedWords(String letters, Optional<Integer> limit);
+	
+	Stream<String> findWords(Optional<String> prefix, Optional<String> suffix, Optional<String> pattern, int limit);
+	
 	void addWords(WordModel wordModel);
 	
+	IngestModel addWords(Stream<String> words, int batchSize);
+	
 	boolean deleteWord(String word);
 	
 	void deleteWords();
@@ -31,6 +53,8 @@ public interface IAnagaramService {
 	
 	ResultModel medianWordLength();
 	
+	long[] wordLengths();
+	
 	AnagramModel getMostAnagrams();
 	
 	ResultModel checkIfAllWordsAreInOneAnagramSet(WordModel wordModel);
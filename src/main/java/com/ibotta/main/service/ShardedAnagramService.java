@@ -0,0 +1,595 @@
+package com.ibotta.main.service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriBuilder;
+
+import com.ibotta.main.controllers.DictionaryAPI;
+import com.ibotta.main.model.AnagramModel;
+import com.ibotta.main.model.AnagramPageModel;
+import com.ibotta.main.model.BatchModel;
+import com.ibotta.main.model.IngestModel;
+import com.ibotta.main.model.NearAnagramModel;
+import com.ibotta.main.model.PhraseModel;
+import com.ibotta.main.model.ResultModel;
+import com.ibotta.main.model.WordModel;
+import com.ibotta.main.repository.AnagramKeys;
+import com.ibotta.main.repository.DictionaryStatistics;
+import com.ibotta.main.repository.LetterIndex;
+import com.ibotta.main.repository.ShardRing;
+import com.ibotta.main.repository.WordIndex;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+/**
+ * @author Alexandr Savenkov
+ *
+ * Routing layer of a sharded dictionary, active with the router profile, see application-router.properties.
+ * The router has no words of its own: the anagram groups are spread over the shards by a
+ * {@link ShardRing} of their letter signatures and every shard loads only the groups it owns.
+ *
+ * A lookup or a mutation of a word goes to the shard owning it, a list of words is split by owner
+ * and the parts are sent in parallel. The queries over all the groups are sent to every shard
+ * and the results merged: the lists in the order a single dictionary has (sorted letters, the
+ * order of the word index, the longest words first), the length statistics from the counts of
+ * groups by word length. The words of a phrase anagram can be on different shards, so the words
+ * contained in the phrase are gathered and the combinations searched here.
+ *
+ * The shards are called with WebClient and the router waits for them, so it serves with the
+ * servlet stack. A shard that fails or does not answer in time fails the request.
+ */
+@Service
+@Primary
+@Profile(ShardedAnagramService.PROFILE)
+public class ShardedAnagramService implements IAnagaramService {
+
+	public static final String PROFILE = "router";
+
+	//groups of a shard read at once by a full scan
+	private static final int SHARD_PAGE_SIZE = 1000;
+
+	private static final ParameterizedTypeReference<Map<String, String[]>> ANAGRAMS_BY_WORD = new ParameterizedTypeReference<Map<String, String[]>>(){};
+
+	@Autowired
+	private WebClient.Builder builder;
+
+	/**
+	 * Base URLs of the shards, the same as the ones the shards are started with
+	 */
+	@Value("${dictionary.shards:}")
+	private String shards = "";
+
+	/**
+	 * max time of a request to the shards, of every element of a streamed list
+	 */
+	@Value("${dictionary.router.timeout-ms:10000}")
+	private long timeoutMillis = 10000;
+
+	private ShardRing ring;
+
+	private WebClient[] clients;
+
+	private Duration timeout;
+
+	@PostConstruct
+	public void init(){
+		ring = ShardRing.parse(shards);
+		if(ring==null){
+			throw new IllegalStateException("No dictionary.shards to route to");
+		}
+		clients = new WebClient[ring.size()];
+		for(int shard=0; shard<clients.length; shard++){
+			clients[shard] = builder.baseUrl(ring.getShard(shard)).build();
+		}
+		timeout = Duration.ofMillis(timeoutMillis);
+	}
+
+	/**
+	 * Getting all dictionary anagrams of all the shards
+	 * @param size to get all anagram groups of size >= X
+	 * @return AnagramModel list
+	 */
+	public List<AnagramModel> getAnagrams(Optional<Integer> size){
+		return streamAnagrams(size).collect(Collectors.toList());
+	}
+
+	/**
+	 * Streaming all dictionary anagrams, the shards are read page by page and their pages
+	 * merged in the order of the sorted letters, see {@link Anagrams}
+	 * @param size to get all anagram groups of size >= X
+	 * @return lazy AnagramModel stream
+	 */
+	public Stream<AnagramModel> streamAnagrams(Optional<Integer> size){
+		if(size.isPresent()&&size.get()<=1){
+			//Note that a word is not considered to be its own anagram.
+			return Stream.empty();
+		}
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new Anagrams(size), Spliterator.ORDERED|Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Getting a page of dictionary anagrams: a page of every shard after the cursor, the first
+	 * ones of them in the order of the sorted letters
+	 * @param size to get all anagram groups of size >= X
+	 * @param cursor cursor of the previous page, the first page if empty
+	 * @param pageSize max count of anagram groups on the page
+	 * @return AnagramPageModel, the cursor is null on the last page
+	 * @throws IllegalArgumentException if the cursor is malformed
+	 */
+	public AnagramPageModel getAnagramsPage(Optional<Integer> size, Optional<String> cursor, int pageSize){
+		AnagramPageModel page = new AnagramPageModel();
+		page.setAnagrams(new ArrayList<AnagramModel>());
+		if(size.isPresent()&&size.get()<=1){
+			//Note that a word is not considered to be its own anagram.
+			return page;
+		}
+		cursor.ifPresent(AnagramService::decodeCursor);
+		boolean more = false;
+		List<Tuple2<String, AnagramModel>> anagrams = new ArrayList<Tuple2<String, AnagramModel>>();
+		for(AnagramPageModel shardPage: all(shard->page(shard, size, cursor, pageSize))){
+			more |= shardPage.getCursor()!=null;
+			for(AnagramModel anagram: shardPage.getAnagrams()){
+				anagrams.add(Tuples.of(AnagramKeys.sortedKey(anagram.getAnagrams()[0]), anagram));
+			}
+		}
+		anagrams.sort(Comparator.comparing(Tuple2::getT1));
+		for(int i=0; i<anagrams.size()&&i<pageSize; i++){
+			page.getAnagrams().add(anagrams.get(i).getT2());
+		}
+		if(!page.getAnagrams().isEmpty()&&(more||anagrams.size()>pageSize)){
+			page.setCursor(AnagramService.encodeCursor(anagrams.get(page.getAnagrams().size()-1).getT1()));
+		}
+		return page;
+	}
+
+	/**
+	 * Getting a page of a shard, the whole page is read at once
+	 */
+	private Mono<AnagramPageModel> page(int shard, Optional<Integer> size, Optional<String> cursor, int pageSize){
+		return clients[shard].get().
+				uri(uri->param(param(uri.path("/anagrams"), "size", size), "cursor", cursor).queryParam("pageSize", pageSize).build()).
+				exchange().
+				flatMap(response->{
+					if(response.statusCode().isError()){
+						return response.bodyToMono(Void.class).then(Mono.error(new IllegalStateException("Shard " + ring.getShard(shard) + " failed to get a page: " + response.statusCode())));
+					}
+					AnagramPageModel page = new AnagramPageModel();
+					page.setCursor(response.headers().header(DictionaryAPI.NEXT_CURSOR_HEADER).stream().findFirst().orElse(null));
+					return response.bodyToMono(AnagramModel[].class).map(anagrams->{
+						page.setAnagrams(Arrays.asList(anagrams));
+						return page;
+					});
+				});
+	}
+
+	/**
+	 * Merge of the anagrams of all the shards in the order of the sorted letters. Every shard
+	 * is read a page at a time and its next page is asked for once the page is merged, so at
+	 * most a page per shard is held and there is no response left open by a client that
+	 * stops reading.
+	 */
+	private final class Anagrams implements Iterator<AnagramModel> {
+
+		private final Optional<Integer> size;
+
+		//groups of the current page of every shard with their keys, the cursor of the next one
+		private final List<ArrayDeque<Tuple2<String, AnagramModel>>> pages = new ArrayList<ArrayDeque<Tuple2<String, AnagramModel>>>();
+
+		private final String[] cursors;
+
+		Anagrams(Optional<Integer> size){
+			this.size = size;
+			cursors = new String[clients.length];
+			List<AnagramPageModel> first = all(shard->page(shard, size, Optional.empty(), SHARD_PAGE_SIZE));
+			for(int shard=0; shard<clients.length; shard++){
+				pages.add(new ArrayDeque<Tuple2<String, AnagramModel>>());
+				add(shard, first.get(shard));
+			}
+		}
+
+		private void add(int shard, AnagramPageModel page){
+			for(AnagramModel anagram: page.getAnagrams()){
+				pages.get(shard).add(Tuples.of(AnagramKeys.sortedKey(anagram.getAnagrams()[0]), anagram));
+			}
+			cursors[shard] = page.getCursor();
+		}
+
+		@Override
+		public boolean hasNext(){
+			return pages.stream().anyMatch(page->!page.isEmpty());
+		}
+
+		@Override
+		public AnagramModel next(){
+			int next = -1;
+			for(int shard=0; shard<clients.length; shard++){
+				Tuple2<String, AnagramModel> head = pages.get(shard).peek();
+				if(head!=null&&(next<0||head.getT1().compareTo(pages.get(next).peek().getT1())<0)){
+					next = shard;
+				}
+			}
+			if(next<0){
+				throw new NoSuchElementException();
+			}
+			AnagramModel anagram = pages.get(next).poll().getT2();
+			if(pages.get(next).isEmpty()&&cursors[next]!=null){
+				add(next, page(next, size, Optional.of(cursors[next]), SHARD_PAGE_SIZE).block(timeout));
+			}
+			return anagram;
+		}
+	}
+
+	/**
+	 * Getting dictionary anagram by word from the shard owning it
+	 * @param word in dictionary
+	 * @param limit to restrict anagram list
+	 * @return AnagramModel
+	 */
+	public AnagramModel getAnagramsByWord(String word, Optional<Long> limit, Optional<Boolean> self){
+		return clients[ring.owner(word)].get().
+				uri(uri->param(param(uri.path("/anagrams/{word}"), "limit", limit), "self", self).build(word)).
+				retrieve().
+				bodyToMono(AnagramModel.class).
+				block(timeout);
+	}
+
+	/**
+	 * Getting dictionary anagrams of many words at once, every shard looks up its words
+	 * @param words words, duplicates are dropped
+	 * @param limit to restrict every anagram list
+	 * @param self to exclude every word itself
+	 * @return anagrams of every distinct word in the order of the words, an empty array if there are none
+	 */
+	public Map<String, String[]> getAnagramsByWords(String[] words, Optional<Long> limit, Optional<Boolean> self){
+		Map<String, String[]> result = new LinkedHashMap<String, String[]>(words.length*4/3+1);
+		for(String word: words){
+			if(word!=null) result.put(word, null);
+		}
+		List<List<String>> parts = split(result.keySet());
+		for(Map<String, String[]> anagrams: all(shard->parts.get(shard).isEmpty()?Mono.empty():clients[shard].post().
+				uri(uri->param(param(uri.path("/anagrams/batch"), "limit", limit), "self", self).build()).
+				syncBody(words(parts.get(shard))).
+				retrieve().
+				bodyToMono(ANAGRAMS_BY_WORD))){
+			result.putAll(anagrams);
+		}
+		return result;
+	}
+
+	/**
+	 * Getting dictionary anagrams by word together with the near anagrams, the near anagrams of
+	 * a word and the anagrams of a word with wildcards are on every shard, the anagrams are
+	 * merged in the order of their sorted letters
+	 * @param word letters with optional wildcards
+	 * @param limit to restrict both anagram lists
+	 * @param self to exclude the word itself
+	 * @return NearAnagramModel, complete is false if a shard ran out of probes
+	 * @throws IllegalArgumentException if there are no letters or too many wildcards
+	 */
+	public NearAnagramModel getNearAnagrams(String word, Optional<Long> limit, Optional<Boolean> self){
+		List<NearAnagramModel> results = all(shard->clients[shard].get().
+				uri(uri->param(param(uri.path("/anagrams/{word}").queryParam("fuzzy", true), "limit", limit), "self", self).build(word)).
+				retrieve().
+				onStatus(HttpStatus::is4xxClientError, response->Mono.error(new IllegalArgumentException("Bad near anagram lookup: " + word))).
+				bodyToMono(NearAnagramModel.class));
+		//the groups matching wildcards are probed in the order of their letters, the words of a group stay together
+		Stream<String> anagrams = results.stream().flatMap(result->Arrays.stream(result.getAnagrams())).sorted(Comparator.comparing(AnagramKeys::sortedKey));
+		Stream<String> near = results.stream().flatMap(result->Arrays.stream(result.getNear())).sorted();
+		NearAnagramModel model = new NearAnagramModel();
+		model.setAnagrams((limit.isPresent()?anagrams.limit(limit.get()):anagrams).toArray(n -> new String[n]));
+		model.setNear((limit.isPresent()?near.limit(limit.get()):near).toArray(n -> new String[n]));
+		model.setComplete(results.stream().allMatch(NearAnagramModel::isComplete));
+		return model;
+	}
+
+	/**
+	 * Getting combinations of dictionary words with exactly the letters of the phrase, searched
+	 * over the words of all the shards contained in the phrase
+	 * @param phrase letters to use, white space is ignored
+	 * @param words max count of words in a combination
+	 * @param limit max count of combinations
+	 * @return PhraseModel, complete is false if the search stopped at a limit
+	 * @throws IllegalArgumentException if there are no letters or too many of them
+	 */
+	public PhraseModel getPhraseAnagrams(String phrase, int words, int limit){
+		List<String> contained = new ArrayList<String>();
+		for(WordModel model: all(shard->containedWords(shard, phrase, Optional.empty()))){
+			contained.addAll(Arrays.asList(model.getWords()));
+		}
+		return AnagramService.toModel(phrase, LetterIndex.of(contained).search(phrase, words, limit, ForkJoinPool.commonPool()));
+	}
+
+	/**
+	 * Getting dictionary words of all the shards that can be spelled with some of the letters
+	 * @param letters letters to use, white space is ignored
+	 * @param limit max count of words
+	 * @return WordModel, the longest words first and then in alphabetical order
+	 * @throws IllegalArgumentException if there are no letters or too many of them
+	 */
+	public WordModel getContainedWords(String letters, Optional<Integer> limit){
+		Stream<String> words = all(shard->containedWords(shard, letters, limit)).stream().
+				flatMap(model->Arrays.stream(model.getWords())).
+				sorted(AnagramService.LONGEST_FIRST);
+		return words((limit.isPresent()?words.limit(limit.get()):words).collect(Collectors.toList()));
+	}
+
+	private Mono<WordModel> containedWords(int shard, String letters, Optional<Integer> limit){
+		return clients[shard].get().
+				uri(uri->param(uri.path("/anagrams/{letters}/contained"), "limit", limit).build(letters)).
+				retrieve().
+				onStatus(HttpStatus::is4xxClientError, response->Mono.error(new IllegalArgumentException("Bad letters: " + letters))).
+				bodyToMono(WordModel.class);
+	}
+
+	/**
+	 * Getting dictionary words of all the shards by prefix and suffix or by glob pattern,
+	 * merged in the order of the word index
+	 * @param prefix literal start of the words
+	 * @param suffix literal end of the words
+	 * @param pattern glob pattern, instead of the prefix and the suffix
+	 * @param limit max count of words
+	 * @return stream of the words, see {@link WordIndex} for the order
+	 * @throws IllegalArgumentException if there is no pattern, both kinds or a pattern is too long
+	 */
+	public Stream<String> findWords(Optional<String> prefix, Optional<String> suffix, Optional<String> pattern, int limit){
+		Comparator<String> order;
+		if(pattern.isPresent()){
+			if(prefix.isPresent()||suffix.isPresent()){
+				throw new IllegalArgumentException("Either a pattern or a prefix and a suffix");
+			}
+			order = WordIndex.matchOrder(pattern.get());
+		}else if(prefix.isPresent()||suffix.isPresent()){
+			order = WordIndex.findOrder(prefix.orElse(""), suffix.orElse(""));
+		}else{
+			throw new IllegalArgumentException("No prefix, suffix or pattern");
+		}
+		//the shards return up to the limit each, read at once
+		return all(shard->clients[shard].get().
+					uri(uri->param(param(param(uri.path("/words"), "prefix", prefix), "suffix", suffix), "pattern", pattern).queryParam("limit", limit).build()).
+					retrieve().
+					bodyToMono(String[].class)).stream().
+				flatMap(Arrays::stream).
+				sorted(order).
+				limit(limit);
+	}
+
+	/**
+	 * Adding words to the shards owning them
+	 * @param word in dictionary
+	 */
+	public void addWords(WordModel wordModel){
+		List<List<String>> parts = split(Arrays.asList(wordModel.getWords()));
+		all(shard->parts.get(shard).isEmpty()?Mono.empty():clients[shard].post().
+				uri("/words").
+				syncBody(words(parts.get(shard))).
+				retrieve().
+				bodyToMono(Void.class));
+	}
+
+	/**
+	 * Adding words batch by batch, every batch is split by owner and the parts are added by
+	 * the shards in parallel, empty words are skipped
+	 * @param words words, read lazily
+	 * @param batchSize max count of words per batch
+	 * @return counts and timing of every batch, the groups are the ones of all the parts
+	 */
+	public IngestModel addWords(Stream<String> words, int batchSize){
+		return AnagramService.ingest(words, batchSize, this::addBatch);
+	}
+
+	private BatchModel addBatch(List<String> words){
+		long start = System.nanoTime();
+		List<List<String>> parts = split(words);
+		BatchModel model = new BatchModel();
+		for(IngestModel part: all(shard->parts.get(shard).isEmpty()?Mono.empty():clients[shard].post().
+				uri(uri->uri.path("/words/batch").queryParam("batchSize", parts.get(shard).size()).build()).
+				syncBody(words(parts.get(shard))).
+				retrieve().
+				bodyToMono(IngestModel.class))){
+			model.setWords(model.getWords()+part.getWords());
+			model.setAdded(model.getAdded()+part.getAdded());
+			model.setDuplicates(model.getDuplicates()+part.getDuplicates());
+			model.setGroups(model.getGroups()+part.getBatches().stream().mapToLong(BatchModel::getGroups).sum());
+		}
+		model.setMicros((System.nanoTime()-start)/1000);
+		return model;
+	}
+
+	/**
+	 * Removing single word in the shard owning it
+	 * @param word in dictionary
+	 */
+	public boolean deleteWord(String word){
+		return delete(ring.owner(word), "/words/{word}", word);
+	}
+
+	/**
+	 * Removing words in all the shards
+	 */
+	public void deleteWords(){
+		all(shard->clients[shard].delete().uri("/words").retrieve().bodyToMono(Void.class));
+	}
+
+	/**
+	 * Removing anagrams by word in the shard owning them
+	 * @param word in dictionary
+	 */
+	public boolean deleteAnagramsByWord(String word){
+		return delete(ring.owner(word), "/anagrams/{word}", word);
+	}
+
+	private boolean delete(int shard, String path, String word){
+		HttpStatus status = clients[shard].delete().
+				uri(path, word).
+				exchange().
+				flatMap(response->response.bodyToMono(Void.class).thenReturn(response.statusCode())).
+				block(timeout);
+		if(status!=HttpStatus.NO_CONTENT&&status!=HttpStatus.NOT_FOUND){
+			throw new IllegalStateException("Shard " + ring.getShard(shard) + " failed to delete " + word + ": " + status);
+		}
+		return status==HttpStatus.NO_CONTENT;
+	}
+
+	/**
+	 * Getting count of words in all the shards
+	 */
+	public ResultModel countOfWordsInDictionary(){
+		ResultModel res = new ResultModel();
+		res.setResult(all(shard->clients[shard].get().uri("/words/count").retrieve().bodyToMono(ResultModel.class)).stream().
+				mapToLong(count->count.getResult().longValue()).
+				sum());
+		return res;
+	}
+
+	/**
+	 * Getting max word length in all the shards
+	 */
+	public ResultModel maxWordLength(){
+		ResultModel res = new ResultModel();
+		res.setResult(getStatistics().getMaxLength());
+		return res;
+	}
+
+	/**
+	 * Getting min word length in all the shards
+	 */
+	public ResultModel minWordLength(){
+		ResultModel res = new ResultModel();
+		res.setResult(getStatistics().getMinLength());
+		return res;
+	}
+
+	/**
+	 * Getting average word length in all the shards
+	 */
+	public ResultModel avgWordLength(){
+		ResultModel res = new ResultModel();
+		res.setResult(getStatistics().getAverageLength());
+		return res;
+	}
+
+	/**
+	 * Getting median word length in all the shards
+	 */
+	public ResultModel medianWordLength(){
+		ResultModel res = new ResultModel();
+		res.setResult(getStatistics().getMedianLength());
+		return res;
+	}
+
+	/**
+	 * Getting count of anagram groups by word length, the counts of all the shards added up,
+	 * a group is on one shard only
+	 */
+	public long[] wordLengths(){
+		long[] lengths = new long[0];
+		for(long[] shardLengths: all(shard->clients[shard].get().uri("/words/lengths").retrieve().bodyToMono(long[].class))){
+			if(shardLengths.length>lengths.length){
+				lengths = Arrays.copyOf(lengths, shardLengths.length);
+			}
+			for(int length=0; length<shardLengths.length; length++){
+				lengths[length] += shardLengths[length];
+			}
+		}
+		return lengths;
+	}
+
+	private DictionaryStatistics getStatistics(){
+		return new DictionaryStatistics(wordLengths());
+	}
+
+	/**
+	 * Getting the biggest of the most anagrams of every shard
+	 */
+	public AnagramModel getMostAnagrams(){
+		return all(shard->clients[shard].get().uri("/anagrams/most").retrieve().bodyToMono(AnagramModel.class)).stream().
+				max(Comparator.comparingInt(anagram->anagram.getAnagrams().length)).
+				orElse(null);
+	}
+
+	/**
+	 * Check whether or not they are all anagrams of each other, the words sharing letters
+	 * are on the shard of the first one
+	 * return 0 if any word is not dictionary
+	 */
+	public ResultModel checkIfAllWordsAreInOneAnagramSet(WordModel wordModel){
+		if(wordModel.getWords()==null||wordModel.getWords().length<1){
+			ResultModel res = new ResultModel();
+			res.setResult(0);
+			return res;
+		}
+		return clients[ring.owner(wordModel.getWords()[0])].post().
+				uri("/anagrams/check").
+				syncBody(wordModel).
+				retrieve().
+				bodyToMono(ResultModel.class).
+				block(timeout);
+	}
+
+	/**
+	 * Calling every shard in parallel
+	 * @param call request to the shard, empty if the shard has nothing to do
+	 * @return responses in the order of the shards, the empty ones skipped
+	 */
+	private <T> List<T> all(Function<Integer, Mono<T>> call){
+		return Flux.range(0, clients.length).
+				flatMapSequential(call).
+				collectList().
+				block(timeout);
+	}
+
+	/**
+	 * Splitting words by the shard owning them
+	 * @return the words of every shard
+	 */
+	private List<List<String>> split(Iterable<String> words){
+		List<List<String>> parts = new ArrayList<List<String>>(clients.length);
+		for(int shard=0; shard<clients.length; shard++){
+			parts.add(new ArrayList<String>());
+		}
+		for(String word: words){
+			parts.get(ring.owner(word)).add(word);
+		}
+		return parts;
+	}
+
+	private static WordModel words(List<String> words){
+		WordModel model = new WordModel();
+		model.setWords(words.toArray(new String[words.size()]));
+		return model;
+	}
+
+	private static UriBuilder param(UriBuilder uri, String name, Optional<?> value){
+		return value.isPresent()?uri.queryParam(name, value.get()):uri;
+	}
+}
@@ -0,0 +1,184 @@
+package com.ibotta.main.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Alexandr Savenkov
+ *
+ * Write-ahead log in a temporary directory: what a restart replays after a crash, after a
+ * compaction, and when a write may return under each sync policy.
+ *
+ */
+public class DictionaryLogTest {
+
+	private Path directory;
+
+	private DictionarySnapshot.Source source;
+
+	@BeforeEach
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("dictionary-log");
+		Path text = Files.write(directory.resolveSibling(directory.getFileName() + ".txt"), "stop\npots\n".getBytes(StandardCharsets.UTF_8));
+		source = DictionarySnapshot.Source.of(text.toUri().toURL());
+	}
+
+	@AfterEach
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for(Path file: (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator){
+				Files.delete(file);
+			}
+		}
+		Files.deleteIfExists(directory.resolveSibling(directory.getFileName() + ".txt"));
+	}
+
+	/**
+	 * a record torn by a crash ends the replay of its segment, the next start writes a new one
+	 */
+	@Tag("unit")
+	@Test
+	public void tornRecordEndsReplay() throws IOException {
+		DictionaryLog wal = open(DictionaryLog.Sync.WRITE, AnagramStore.create(AnagramStore.Mode.HASH));
+		append(wal, DictionaryLog.ADD, "stop");
+		append(wal, DictionaryLog.ADD, "pots", "tops");
+		append(wal, DictionaryLog.DELETE, "stop");
+		wal.close();
+		Path segment = segments().get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+			channel.truncate(channel.size()-3);
+		}
+
+		List<String> records = new ArrayList<String>();
+		wal = new DictionaryLog(directory, DictionaryLog.Sync.WRITE, 0, Long.MAX_VALUE);
+		assertEquals(2, wal.replay((op, words)->records.add(op + Arrays.toString(words))));
+		assertEquals(Arrays.asList(DictionaryLog.ADD + "[stop]", DictionaryLog.ADD + "[pots, tops]"), records);
+
+		wal.start(()->AnagramStore.create(AnagramStore.Mode.HASH), source);
+		append(wal, DictionaryLog.DELETE, "tops");
+		wal.close();
+		records.clear();
+		wal = new DictionaryLog(directory, DictionaryLog.Sync.WRITE, 0, Long.MAX_VALUE);
+		assertEquals(3, wal.replay((op, words)->records.add(op + Arrays.toString(words))));
+		assertEquals(DictionaryLog.DELETE + "[tops]", records.get(2));
+		assertEquals(2, segments().size());
+	}
+
+	/**
+	 * the base of a compaction and the records after it give the words of the dictionary, the
+	 * older segments are gone
+	 */
+	@Tag("unit")
+	@Test
+	public void compactionKeepsTheWords() throws IOException {
+		AnagramStore store = AnagramStore.create(AnagramStore.Mode.HASH);
+		DictionaryLog wal = open(DictionaryLog.Sync.BATCH, store);
+		change(wal, store, DictionaryLog.ADD, "stop", "pots", "tops", "listen", "silent");
+		change(wal, store, DictionaryLog.DELETE, "pots");
+		change(wal, store, DictionaryLog.DELETE_GROUP, "listen");
+		List<Path> compacted = segments();
+		wal.compact();
+		change(wal, store, DictionaryLog.ADD, "enlist", "opts");
+		change(wal, store, DictionaryLog.DELETE, "tops");
+		wal.close();
+
+		for(Path segment: compacted){
+			assertFalse(Files.exists(segment), segment + " is not deleted");
+		}
+		wal = new DictionaryLog(directory, DictionaryLog.Sync.BATCH, 0, Long.MAX_VALUE);
+		assertNotNull(wal.getBase());
+		AnagramStore replayed = DictionarySnapshot.read(wal.getBase(), null, AnagramStore.Mode.HASH, null);
+		assertEquals(2, wal.replay((op, words)->apply(replayed, op, words)));
+		assertEquals(new TreeSet<String>(Arrays.asList("stop", "opts", "enlist")), words(replayed));
+		assertEquals(words(store), words(replayed));
+	}
+
+	/**
+	 * a write that waits for its record finds it on disk
+	 */
+	@Tag("unit")
+	@Test
+	public void awaitReturnsAfterForce() throws IOException {
+		for(DictionaryLog.Sync sync: Arrays.asList(DictionaryLog.Sync.WRITE, DictionaryLog.Sync.BATCH)){
+			DictionaryLog wal = open(sync, AnagramStore.create(AnagramStore.Mode.HASH));
+			try {
+				for(int i=1; i<=50; i++){
+					append(wal, DictionaryLog.ADD, "word" + i);
+					DictionaryLog reader = new DictionaryLog(directory, sync, 0, Long.MAX_VALUE);
+					List<String> records = new ArrayList<String>();
+					reader.replay((op, words)->records.add(words[0]));
+					assertEquals("word" + i, records.get(records.size()-1), sync + " returned before the force");
+				}
+			} finally {
+				wal.close();
+			}
+		}
+	}
+
+	private DictionaryLog open(DictionaryLog.Sync sync, AnagramStore store) throws IOException {
+		DictionaryLog wal = new DictionaryLog(directory, sync, 0, Long.MAX_VALUE);
+		wal.start(()->store, source);
+		return wal;
+	}
+
+	private static void append(DictionaryLog wal, byte op, String...words){
+		wal.await(wal.append(op, words));
+	}
+
+	private static void change(DictionaryLog wal, AnagramStore store, byte op, String...words){
+		apply(store, op, words);
+		append(wal, op, words);
+	}
+
+	private static void apply(AnagramStore store, byte op, String[] words){
+		for(String word: words){
+			if(op==DictionaryLog.ADD){
+				store.add(word);
+			}else if(op==DictionaryLog.DELETE){
+				store.remove(word);
+			}else if(op==DictionaryLog.DELETE_GROUP){
+				store.removeGroup(word);
+			}
+		}
+	}
+
+	private static Set<String> words(AnagramStore store){
+		Set<String> words = new TreeSet<String>();
+		for(AnagramGroup group: store){
+			group.forEach(words::add);
+		}
+		return words;
+	}
+
+	private List<Path> segments() throws IOException {
+		List<Path> segments = new ArrayList<Path>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "wal-*.log")) {
+			files.forEach(segments::add);
+		}
+		segments.sort(null);
+		return segments;
+	}
+}
@@ -3,6 +3,7 @@ package com.ibotta.test;
 import static io.restassured.RestAssured.given;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.commons.io.IOUtils;
 import org.hamcrest.Matchers;
@@ -61,6 +62,47 @@ public class DictionaryAPITest {
 			statusCode(201);
 	}
 	
+	/**
+	 * POST /words/batch
+	 * add a stream of words to the data store batch by batch
+	 */
+	@Tag("optional")
+	@Test
+	public void postWordBatches() {
+		given().
+			body("stop\npots\ntops\nstop\nopts\n\npost\n").
+			header("Content-Type", "text/plain").
+		when().
+			post(HOST + "/words/batch?batchSize=3").
+		then().
+			assertThat().
+			statusCode(201).
+			body("words", Is.is(6)).
+			body("added", Is.is(5)).
+			body("duplicates", Is.is(1)).
+			body("batches.size()", Is.is(2)).
+			body("batches[0].groups", Is.is(1));
+		
+		given().
+			body("\"abcde\"\n{\"words\": [\"edcba\", \"tops\"]}\n".getBytes(StandardCharsets.UTF_8)).
+			header("Content-Type", "application/x-ndjson").
+		when().
+			post(HOST + "/words/batch").
+		then().
+			assertThat().
+			statusCode(201).
+			body("words", Is.is(3)).
+			body("added", Is.is(1));
+		
+		given().
+		when().
+			get(HOST + "/anagrams/stop").
+		then().
+			assertThat().
+			statusCode(200).
+			body("anagrams.size()", Is.is(5));
+	}
+	
 	/**
 	 * DELETE /words 
 	 * delete all contents of the data store
@@ -119,6 +161,37 @@ public class DictionaryAPITest {
 			body("anagrams[0].size()", Is.is(size));
 	}
 	
+	/**
+	 * GET /anagrams 
+	 * get all anagrams from the data store page by page
+	 */
+	@Tag("optional")
+	@Test
+	public void getAllAnagaramsByPages() {
+		final int pageSize = 3;
+		String cursor = 
+		given().
+		when().
+			get(HOST + "/anagrams?pageSize=" + pageSize).
+		then().
+			assertThat().
+			statusCode(200).
+			header("X-Next-Cursor", Matchers.notNullValue()).
+			body("size()", Is.is(pageSize)).
+			body("anagrams[0].size()", Is.is(2)).
+		extract().
+			header("X-Next-Cursor");
+		
+		given().
+		when().
+			get(HOST + "/anagrams?pageSize=" + pageSize + "&cursor=" + cursor).
+		then().
+			assertThat().
+			statusCode(200).
+			header("X-Next-Cursor", Matchers.nullValue()).
+			body("size()", Is.is(1));
+	}
+	
 	/**
 	 * GET /anagrams/{word} 
 	 * get anagrams by word from the data store, limit is optional
@@ -136,6 +209,38 @@ public class DictionaryAPITest {
 			body("anagrams.size()", Is.is(3));
 	}
 	
+	/**
+	 * GET /anagrams/{word} 
+	 * get anagrams of words with letters beyond Latin-1, they are packed two bytes per char
+	 */
+	@Tag("main")
+	@Test
+	public void getAnagramsByWideWord() {
+		given().
+			body("{\"words\": [\"\u0109apo\", \"po\u0109a\", \"apo\u0109\"]}".getBytes(StandardCharsets.UTF_8)).
+			header("Content-Type", "application/json").
+		when().
+			post(HOST + "/words").
+		then().
+			assertThat().
+			statusCode(201);
+		
+		given().
+		when().
+			delete(HOST + "/words/apo\u0109").
+		then().
+			assertThat().
+			statusCode(204);
+		
+		given().
+		when().
+			get(HOST + "/anagrams/\u0109apo").
+		then().
+			assertThat().
+			statusCode(200).
+			body("anagrams", Matchers.containsInAnyOrder("\u0109apo", "po\u0109a"));
+	}
+	
 	/**
 	 * GET /anagrams/{word} 
 	 * get anagrams by word from the data store, limit is optional
@@ -188,6 +293,39 @@ public class DictionaryAPITest {
 			body("anagrams.size()", Is.is(1));
 	}
 
+	/**
+	 * POST /anagrams/batch
+	 * get anagrams of many words in a single request, limit and self are optional
+	 */
+	@Tag("optional")
+	@Test
+	public void getAnagramsByWords() {
+		given().
+			body("{\"words\": [\"" + word + "\", \"wq\", \"nosuchword\", \"" + word + "\", \"jgfh\"]}").
+			header("Content-Type", "application/json").
+		when().
+			post(HOST + "/anagrams/batch?self=true&limit=2").
+		then().
+			assertThat().
+			statusCode(200).
+			body("size()", Is.is(4)).
+			body(word + ".size()", Is.is(2)).
+			body(word, Matchers.not(Matchers.hasItem(word))).
+			body("wq", Matchers.contains("qw")).
+			body("nosuchword", Matchers.empty()).
+			body("jgfh.size()", Is.is(2));
+
+		given().
+			body("{\"words\": [\"fghj\"]}").
+			header("Content-Type", "application/json").
+		when().
+			post(HOST + "/anagrams/batch").
+		then().
+			assertThat().
+			statusCode(200).
+			body("fghj", Matchers.containsInAnyOrder("fghj", "fhgj", "hfgj", "jgfh"));
+	}
+
 	/**
 	 * DELETE /words/{word} 
 	 * delete a single word from the data store
@@ -256,6 +394,307 @@ public class DictionaryAPITest {
 			body("result", Is.is(11));
 	}
 	
+	/**
+	 * GET /anagrams/{word} 
+	 * repeated lookups are cached, a mutation of the anagrams invalidates them
+	 */
+	@Tag("optional")
+	@Test
+	public void getAnagramsByWordAfterMutation() {
+		for(int i=0; i<2; i++){
+			given().
+			when().
+				get(HOST + "/anagrams/fghj").
+			then().
+				assertThat().
+				statusCode(200).
+				body("anagrams.size()", Is.is(4));
+		}
+		
+		given().
+		when().
+			delete(HOST + "/words/hfgj").
+		then().
+			assertThat().
+			statusCode(204);
+		
+		given().
+		when().
+			get(HOST + "/anagrams/fghj").
+		then().
+			assertThat().
+			statusCode(200).
+			body("anagrams.size()", Is.is(3)).
+			body("anagrams", Matchers.not(Matchers.hasItem("hfgj")));
+		
+		given().
+		when().
+			get(HOST + "/actuator/metrics/cache.gets?tag=cache:anagrams.byWord&tag=result:hit").
+		then().
+			assertThat().
+			statusCode(200).
+			body("measurements[0].value", Matchers.greaterThanOrEqualTo(1f));
+	}
+	
+	/**
+	 * GET /anagrams/{word}?fuzzy=true
+	 * get anagrams and near anagrams by word, ? matches any letter
+	 */
+	@Tag("optional")
+	@Test
+	public void getNearAnagramsByWord() {
+		given().
+		when().
+			get(HOST + "/anagrams/fghk?fuzzy=true").
+		then().
+			assertThat().
+			statusCode(200).
+			body("anagrams.size()", Is.is(0)).
+			body("near", Matchers.containsInAnyOrder("fghj", "fhgj", "hfgj", "jgfh")).
+			body("complete", Is.is(true));
+
+		given().
+		when().
+			get(HOST + "/anagrams/abcd?fuzzy=true&limit=1").
+		then().
+			assertThat().
+			statusCode(200).
+			body("near.size()", Is.is(1));
+
+		given().
+		when().
+			get(HOST + "/anagrams/{word}?fuzzy=true", "q?").
+		then().
+			assertThat().
+			statusCode(200).
+			body("anagrams", Matchers.containsInAnyOrder("qw", "wq")).
+			body("near.size()", Is.is(0));
+
+		given().
+		when().
+			get(HOST + "/anagrams/{word}?fuzzy=true", "???").
+		then().
+			assertThat().
+			statusCode(400);
+	}
+
+	/**
+	 * GET /words
+	 * get words by prefix and suffix or by glob pattern
+	 */
+	@Tag("optional")
+	@Test
+	public void findWords() {
+		given().
+		when().
+			get(HOST + "/words?prefix=f").
+		then().
+			assertThat().
+			statusCode(200).
+			body("", Matchers.contains("fghj", "fhgj"));
+
+		given().
+		when().
+			get(HOST + "/words?suffix=123").
+		then().
+			assertThat().
+			statusCode(200).
+			body("", Matchers.containsInAnyOrder("xyz123", "zxy123"));
+
+		given().
+			queryParam("pattern", "?w").
+		when().
+			get(HOST + "/words").
+		then().
+			assertThat().
+			statusCode(200).
+			body("", Matchers.contains("qw"));
+
+		given().
+		when().
+			get(HOST + "/words?pattern=*&limit=3").
+		then().
+			assertThat().
+			statusCode(200).
+			body("size()", Is.is(3));
+
+		given().
+		when().
+			get(HOST + "/words").
+		then().
+			assertThat().
+			statusCode(400);
+	}
+
+	/**
+	 * GET /words
+	 * the word index follows the added and the deleted words
+	 */
+	@Tag("optional")
+	@Test
+	public void findWordsAfterMutation() {
+		given().
+			contentType("application/json").
+			body("{\"words\": [\"fgh\"]}").
+		when().
+			post(HOST + "/words").
+		then().
+			assertThat().
+			statusCode(201);
+
+		given().
+		when().
+			delete(HOST + "/words/fhgj").
+		then().
+			assertThat().
+			statusCode(204);
+
+		given().
+		when().
+			get(HOST + "/words?prefix=f").
+		then().
+			assertThat().
+			statusCode(200).
+			body("", Matchers.contains("fgh", "fghj"));
+	}
+
+	/**
+	 * GET /anagrams/{letters}/contained
+	 * get words that can be spelled with some of the letters
+	 */
+	@Tag("optional")
+	@Test
+	public void getContainedWords() {
+		given().
+		when().
+			get(HOST + "/anagrams/jhgfwqx/contained").
+		then().
+			assertThat().
+			statusCode(200).
+			body("words.size()", Is.is(6)).
+			body("words[0]", Is.is("fghj")).
+			body("words[5]", Is.is("wq"));
+		
+		given().
+		when().
+			get(HOST + "/anagrams/wqabc/contained?limit=1").
+		then().
+			assertThat().
+			statusCode(200).
+			body("words", Matchers.contains("qw"));
+	}
+	
+	/**
+	 * GET /phrases/{phrase}/anagrams 
+	 * get combinations of words with the letters of the phrase
+	 */
+	@Tag("optional")
+	@Test
+	public void getPhraseAnagrams() {
+		given().
+		when().
+			get(HOST + "/phrases/wq jhgf/anagrams").
+		then().
+			assertThat().
+			statusCode(200).
+			body("anagrams.size()", Is.is(8)).
+			body("anagrams", Matchers.hasItem("jgfh wq")).
+			body("complete", Is.is(true));
+		
+		given().
+		when().
+			get(HOST + "/phrases/wqjhgf/anagrams?limit=3").
+		then().
+			assertThat().
+			statusCode(200).
+			body("anagrams.size()", Is.is(3)).
+			body("complete", Is.is(false));
+		
+		given().
+		when().
+			get(HOST + "/phrases/wqjhgf/anagrams?words=1").
+		then().
+			assertThat().
+			statusCode(200).
+			body("anagrams.size()", Is.is(0));
+	}
+	
+	/**
+	 * GET /actuator/metrics/{name} 
+	 * get dictionary metrics
+	 */
+	@Tag("optional")
+	@Test
+	public void getDictionaryMetrics() {
+		given().
+		when().
+			get(HOST + "/actuator/metrics/dictionary.words").
+		then().
+			assertThat().
+			statusCode(200).
+			body("measurements[0].value", Is.is(11f));
+		
+		given().
+		when().
+			get(HOST + "/anagrams/" + word).
+		then().
+			assertThat().
+			statusCode(200);
+		
+		given().
+		when().
+			get(HOST + "/actuator/metrics/dictionary.lookups?tag=result:hit").
+		then().
+			assertThat().
+			statusCode(200).
+			body("measurements[0].value", Matchers.greaterThanOrEqualTo(1f));
+		
+		given().
+		when().
+			get(HOST + "/actuator/prometheus").
+		then().
+			assertThat().
+			statusCode(200).
+			body(Matchers.containsString("http_server_requests_seconds_bucket"));
+	}
+	
+	/**
+	 * GET /actuator/metrics/{name} 
+	 * get signature filter metrics, a lookup of letters no word has is a miss whatever the store mode is
+	 */
+	@Tag("optional")
+	@Test
+	public void getSignatureFilterMetrics() {
+		given().
+		when().
+			get(HOST + "/anagrams/qqxjz").
+		then().
+			assertThat().
+			statusCode(200);
+		
+		given().
+		when().
+			get(HOST + "/actuator/metrics/dictionary.lookups?tag=result:miss").
+		then().
+			assertThat().
+			statusCode(200).
+			body("measurements[0].value", Matchers.greaterThanOrEqualTo(1f));
+		
+		given().
+		when().
+			get(HOST + "/actuator/metrics/dictionary.filter.lookups?tag=result:negative").
+		then().
+			assertThat().
+			statusCode(200);
+		
+		given().
+		when().
+			get(HOST + "/actuator/metrics/dictionary.filter.memory").
+		then().
+			assertThat().
+			statusCode(200);
+	}
+	
 	/**
 	 * GET /words/max 
 	 * get max word length in dictionary
@@ -307,6 +746,22 @@ public class DictionaryAPITest {
 			body("result", Is.is(5));
 	}
 	
+	/**
+	 * GET /words/lengths
+	 * get count of anagram groups by word length, the word length is the index
+	 */
+	@Tag("optional")
+	@Test
+	public void getWordLengths() {
+		given().
+		when().
+			get(HOST + "/words/lengths").
+		then().
+			assertThat().
+			statusCode(200).
+			body("", Matchers.contains(0, 0, 1, 0, 1, 1, 1));
+	}
+	
 	/**
 	 * GET /anagrams/most 
 	 * get words with the most anagrams
@@ -346,4 +801,67 @@ public class DictionaryAPITest {
 			statusCode(200).
 			body("result", Is.is(1));
 	}
+	
+	/**
+	 * GET /feed
+	 * get the mutations after a sequence number, the feed the read replicas tail, only a primary has it
+	 */
+	@Tag("optional")
+	@Test
+	public void getFeed() {
+		String feed = 
+		given().
+		when().
+			get(HOST + "/feed/status").
+		then().
+			assertThat().
+			statusCode(200).
+			body("lag", Is.is(0)).
+		extract().
+			path("feed");
+		
+		if(feed==null){
+			given().
+			when().
+				get(HOST + "/feed").
+			then().
+				assertThat().
+				statusCode(404);
+			return;
+		}
+		
+		Number sequence = 
+		given().
+		when().
+			get(HOST + "/feed/status").
+		then().
+			assertThat().
+			statusCode(200).
+		extract().
+			path("sequence");
+		
+		given().
+		when().
+			delete(HOST + "/words/hfgj").
+		then().
+			assertThat().
+			statusCode(204);
+		
+		given().
+		when().
+			get(HOST + "/feed?after=" + sequence).
+		then().
+			assertThat().
+			statusCode(200).
+			body("events.size()", Is.is(1)).
+			body("events[0].op", Is.is("DELETE")).
+			body("events[0].words", Matchers.contains("hfgj"));
+		
+		given().
+		when().
+			get(HOST + "/feed?after=" + (sequence.longValue()+2)).
+		then().
+			assertThat().
+			statusCode(410);
+	}
 }
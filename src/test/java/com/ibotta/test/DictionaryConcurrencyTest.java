@@ -0,0 +1,369 @@
+package com.ibotta.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.ibotta.main.repository.AnagramGroup;
+import com.ibotta.main.repository.AnagramKeys;
+import com.ibotta.main.repository.AnagramStore;
+import com.ibotta.main.repository.AnagramVersion;
+import com.ibotta.main.repository.Dictionary;
+import com.ibotta.main.repository.DictionaryStatistics;
+
+/**
+ *
+ * @author Alexandr Savenkov
+ *
+ * Many writers on the same anagram groups, no word may be lost and the statistics and the
+ * group size index have to agree with the store afterwards.
+ *
+ */
+public class DictionaryConcurrencyTest {
+
+	private static final int THREADS = 8;
+
+	private static final int GROUPS = 200;
+
+	private static final int WORDS_PER_GROUP = 24;
+
+	/**
+	 * every thread adds all the words in its own order
+	 */
+	@Tag("stress")
+	@Test
+	public void concurrentAddsKeepEveryWord() throws Exception {
+		List<List<String>> groups = anagrams(1);
+		List<String> words = flatten(groups);
+		for(AnagramStore.Mode mode: AnagramStore.Mode.values()){
+			Dictionary dictionary = new Dictionary(mode);
+			dictionary.deleteWords();
+
+			run(thread->{
+				List<String> order = new ArrayList<String>(words);
+				Collections.shuffle(order, new Random(thread));
+				for(String word: order){
+					dictionary.addWords(word);
+				}
+			});
+
+			for(List<String> group: groups){
+				assertEquals(new HashSet<String>(group), new HashSet<String>(dictionary.getAnagramSet(group.get(0))), mode.name());
+			}
+			assertEquals(GROUPS, dictionary.getGroupCount(), mode.name());
+			assertEquals(words.size(), dictionary.getStatistics().getWordCount(), mode.name());
+			assertConsistent(dictionary, mode);
+		}
+	}
+
+	/**
+	 * threads add and delete their own words of the shared groups
+	 */
+	@Tag("stress")
+	@Test
+	public void concurrentAddsAndDeletes() throws Exception {
+		List<List<String>> groups = anagrams(2);
+		List<String> words = flatten(groups);
+		for(AnagramStore.Mode mode: AnagramStore.Mode.values()){
+			Dictionary dictionary = new Dictionary(mode);
+			dictionary.deleteWords();
+
+			run(thread->{
+				List<String> own = new ArrayList<String>();
+				for(int i=thread; i<words.size(); i+=THREADS){
+					own.add(words.get(i));
+				}
+				for(int round=0; round<20; round++){
+					own.forEach(dictionary::addWords);
+					own.forEach(dictionary::deleteWord);
+				}
+				//every other word stays
+				for(int i=0; i<own.size(); i+=2){
+					dictionary.addWords(own.get(i));
+				}
+			});
+
+			Set<String> expected = new HashSet<String>();
+			for(int thread=0; thread<THREADS; thread++){
+				for(int i=thread, n=0; i<words.size(); i+=THREADS, n++){
+					if(n%2==0) expected.add(words.get(i));
+				}
+			}
+			Set<String> actual = new HashSet<String>();
+			dictionary.getAnagramGroups().forEach(actual::addAll);
+			assertEquals(expected, actual, mode.name());
+			assertConsistent(dictionary, mode);
+		}
+	}
+
+	/**
+	 * the store is cleared while the writers are running
+	 */
+	@Tag("stress")
+	@Test
+	public void clearWhileWriting() throws Exception {
+		List<String> words = flatten(anagrams(3));
+		for(AnagramStore.Mode mode: AnagramStore.Mode.values()){
+			Dictionary dictionary = new Dictionary(mode);
+			dictionary.deleteWords();
+			AtomicBoolean writing = new AtomicBoolean(true);
+
+			ExecutorService executor = Executors.newSingleThreadExecutor();
+			Future<?> clearing = executor.submit(()->{
+				while(writing.get()){
+					dictionary.deleteWords();
+					Thread.yield();
+				}
+			});
+			try {
+				run(thread->{
+					for(int i=thread; i<words.size(); i+=THREADS){
+						dictionary.addWords(words.get(i));
+					}
+				});
+			} finally {
+				writing.set(false);
+				clearing.get();
+				executor.shutdown();
+			}
+
+			assertConsistent(dictionary, mode);
+		}
+	}
+
+	/**
+	 * a pinned version stays the same while the writers change the store, batches are seen whole
+	 */
+	@Tag("stress")
+	@Test
+	public void pinnedVersionNeverChanges() throws Exception {
+		List<List<String>> groups = anagrams(4);
+		Dictionary dictionary = new Dictionary(AnagramStore.Mode.VERSIONED);
+		dictionary.deleteWords();
+		for(int i=0; i<GROUPS; i+=2){
+			dictionary.addBatch(groups.get(i));
+		}
+		AnagramVersion version = dictionary.getVersion();
+		Set<Set<String>> pinned = contents(version);
+
+		AtomicBoolean writing = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<?> reading = executor.submit(()->{
+			while(writing.get()){
+				for(AnagramGroup group: dictionary.getVersion().getAnagramSets(2, null)){
+					assertEquals(WORDS_PER_GROUP, group.size());
+				}
+			}
+		});
+		try {
+			run(thread->{
+				for(int i=thread; i<GROUPS; i+=THREADS){
+					List<String> group = groups.get(i);
+					for(int round=0; round<10; round++){
+						dictionary.addBatch(group);
+						dictionary.deleteAnagramsByWord(group.get(0));
+					}
+					dictionary.addBatch(group);
+				}
+			});
+		} finally {
+			writing.set(false);
+			reading.get();
+			executor.shutdown();
+		}
+
+		assertEquals(pinned, contents(version));
+		assertEquals(GROUPS/2, version.groupCount());
+		assertEquals(GROUPS, dictionary.getVersion().groupCount());
+		assertConsistent(dictionary, AnagramStore.Mode.VERSIONED);
+	}
+
+	/**
+	 * the letter index built before the writes finds the groups as they are after them
+	 */
+	@Tag("stress")
+	@Test
+	public void letterIndexFollowsWrites() throws Exception {
+		List<List<String>> groups = anagrams(5);
+		for(AnagramStore.Mode mode: AnagramStore.Mode.values()){
+			Dictionary dictionary = new Dictionary(mode);
+			dictionary.deleteWords();
+			for(int i=0; i<GROUPS; i+=2){
+				dictionary.addBatch(groups.get(i));
+			}
+			dictionary.getLetterIndex();
+
+			run(thread->{
+				for(int i=thread; i<GROUPS; i+=THREADS){
+					List<String> group = groups.get(i);
+					if(i%4==0){
+						dictionary.deleteAnagramsByWord(group.get(0));
+					}else if(i%4==2){
+						group.subList(1, group.size()).forEach(dictionary::deleteWord);
+					}else{
+						dictionary.addBatch(group);
+					}
+				}
+			});
+
+			Random random = new Random(mode.ordinal());
+			for(int round=0; round<50; round++){
+				String rack = groups.get(random.nextInt(GROUPS)).get(0)+groups.get(random.nextInt(GROUPS)).get(0);
+				Set<Set<String>> expected = new HashSet<Set<String>>();
+				dictionary.getAnagramGroups().forEach(group->{
+					if(fits(group.iterator().next(), rack)) expected.add(new HashSet<String>(group));
+				});
+				List<AnagramGroup> contained = dictionary.getLetterIndex().getContained(rack);
+				Set<Set<String>> actual = new HashSet<Set<String>>();
+				for(int i=0; i<contained.size(); i++){
+					actual.add(new HashSet<String>(contained.get(i)));
+					if(i>0){
+						assertTrue(contained.get(i-1).getWordLength()>=contained.get(i).getWordLength(), mode.name());
+					}
+				}
+				assertEquals(expected.size(), contained.size(), mode.name());
+				assertEquals(expected, actual, mode.name());
+			}
+		}
+	}
+
+	private static boolean fits(String word, String letters){
+		int[] counts = new int[Character.MAX_VALUE+1];
+		for(int i=0; i<letters.length(); i++){
+			counts[letters.charAt(i)]++;
+		}
+		for(int i=0; i<word.length(); i++){
+			if(--counts[word.charAt(i)]<0) return false;
+		}
+		return true;
+	}
+
+	private static Set<Set<String>> contents(AnagramVersion version){
+		Set<Set<String>> contents = new HashSet<Set<String>>();
+		for(AnagramGroup group: version){
+			contents.add(new HashSet<String>(group));
+		}
+		return contents;
+	}
+
+	/**
+	 * statistics and size index have to match a scan of the store
+	 */
+	private static void assertConsistent(Dictionary dictionary, AnagramStore.Mode mode){
+		List<AnagramGroup> groups = new ArrayList<AnagramGroup>();
+		dictionary.getAnagramGroups().forEach(groups::add);
+		DictionaryStatistics statistics = dictionary.getStatistics();
+		assertEquals(groups.size(), statistics.getGroupCount(), mode.name());
+		assertEquals(groups.stream().mapToLong(AnagramGroup::size).sum(), statistics.getWordCount(), mode.name());
+
+		Set<AnagramGroup> anagrams = new HashSet<AnagramGroup>();
+		for(AnagramGroup group: groups){
+			if(group.size()>1) anagrams.add(group);
+		}
+		List<AnagramGroup> indexed = dictionary.getAnagramSets(2);
+		assertEquals(anagrams.size(), indexed.size(), mode.name());
+		assertTrue(anagrams.containsAll(indexed), mode.name());
+
+		//in the order of the keys, and a page starts right after its key
+		for(int i=1; i<indexed.size(); i++){
+			assertTrue(indexed.get(i-1).getKey().compareTo(indexed.get(i).getKey())<0, mode.name());
+		}
+		if(!indexed.isEmpty()){
+			int middle = indexed.size()/2;
+			Iterator<AnagramGroup> page = dictionary.getAnagramSets(2, indexed.get(middle).getKey());
+			for(AnagramGroup group: indexed.subList(middle+1, indexed.size())){
+				assertEquals(group.getKey(), page.next().getKey(), mode.name());
+			}
+			assertFalse(page.hasNext(), mode.name());
+		}
+	}
+
+	private interface Writer {
+		void write(int thread);
+	}
+
+	/**
+	 * Running writers on all the threads at once
+	 */
+	private static void run(Writer writer) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for(int i=0; i<THREADS; i++){
+				final int thread = i;
+				futures.add(executor.submit(()->{
+					start.await();
+					writer.write(thread);
+					return null;
+				}));
+			}
+			start.countDown();
+			for(Future<?> future: futures){
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Generating distinct groups of distinct anagrams
+	 */
+	private static List<List<String>> anagrams(long seed){
+		Random random = new Random(seed);
+		Map<String, List<String>> groups = new HashMap<String, List<String>>();
+		while(groups.size()<GROUPS){
+			//distinct letters, so there are hundreds of permutations
+			char[] letters = new char[6+random.nextInt(4)];
+			for(int i=0; i<letters.length; i++){
+				letters[i] = (char)('a'+random.nextInt(26));
+				for(int j=0; j<i; j++){
+					if(letters[j]==letters[i]){
+						i--;
+						break;
+					}
+				}
+			}
+			String key = AnagramKeys.sortedKey(new String(letters));
+			if(groups.containsKey(key)) continue;
+			Set<String> group = new LinkedHashSet<String>();
+			while(group.size()<WORDS_PER_GROUP){
+				for(int i=letters.length-1; i>0; i--){
+					int j = random.nextInt(i+1);
+					char c = letters[i];
+					letters[i] = letters[j];
+					letters[j] = c;
+				}
+				group.add(new String(letters));
+			}
+			groups.put(key, new ArrayList<String>(group));
+		}
+		return new ArrayList<List<String>>(groups.values());
+	}
+
+	private static List<String> flatten(List<List<String>> groups){
+		List<String> words = new ArrayList<String>();
+		groups.forEach(words::addAll);
+		return words;
+	}
+}